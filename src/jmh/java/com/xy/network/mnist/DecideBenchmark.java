@@ -0,0 +1,68 @@
+package com.xy.network.mnist;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Inference latency (sample time percentiles) and throughput of a single decision.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecideBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({ "784x100x10", "784x450x250x10" })
+    public String topology;
+
+    private NeuralNetwork  network;
+    private InferenceModel model;
+    private double[]       input;
+    private double[]       output;
+    private RealVector     vector;
+    private double[][]     inputs;
+    private double[][]     outputs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        network = new NeuralNetwork(Topologies.parse(topology));
+        network.randomize(random::nextDouble);
+        model = network.snapshot();
+        inputs = Topologies.randomInputs(random, BATCH, network.getInputSize());
+        outputs = new double[BATCH][network.getOutputSize()];
+        input = inputs[0];
+        output = outputs[0];
+        vector = new ArrayRealVector(input);
+    }
+
+    @Benchmark
+    public double[] decide() {
+        network.decide(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public RealVector decideVector() {
+        return network.decide(vector);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double[][] decideBatch() {
+        model.decideBatch(inputs, outputs);
+        return outputs;
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.xy.network.mnist;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One call of each {@link Kernels} kernel on vectors of {@code size} elements, scalar against the kernels
+ * {@link Kernels#get()} picked, which are the vectorized ones when run on JDK 17 or later.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KernelBenchmark {
+
+    @Param({ "scalar", "default" })
+    public String kernels;
+
+    @Param({ "10", "250", "784", "4096" })
+    public int size;
+
+    private Kernels  kernel;
+    private double[] x;
+    private double[] y;
+    private float[]  weights;
+    private double[] activations;
+
+    @Setup
+    public void setUp() {
+        kernel = kernels.equals("scalar") ? new Kernels() : Kernels.get();
+        Random random = new Random(1);
+        x = new double[size];
+        y = new double[size];
+        weights = new float[size];
+        activations = new double[size];
+        for (int k = 0; k < size; k++) {
+            x[k] = random.nextGaussian();
+            y[k] = random.nextGaussian();
+            weights[k] = (float) random.nextGaussian();
+        }
+    }
+
+    /**
+     * The forward pass of one input, and, with a negative factor, the weight update.
+     */
+    @Benchmark
+    public double[] axpy() {
+        kernel.axpy(1e-9, x, 0, y, 0, size);
+        return y;
+    }
+
+    @Benchmark
+    public double[] axpyFloatWeights() {
+        kernel.axpy(1e-9, weights, 0, y, 0, size);
+        return y;
+    }
+
+    @Benchmark
+    public float[] axpyFloatUpdate() {
+        kernel.axpy(-1e-9, x, 0, weights, 0, size);
+        return weights;
+    }
+
+    /**
+     * The backward pass of one input.
+     */
+    @Benchmark
+    public double dot() {
+        return kernel.dot(x, 0, y, size);
+    }
+
+    @Benchmark
+    public double dotFloatWeights() {
+        return kernel.dot(weights, 0, y, size);
+    }
+
+    @Benchmark
+    public double[] sigmoid() {
+        System.arraycopy(x, 0, activations, 0, size);
+        kernel.sigmoid(activations, 0, size);
+        return activations;
+    }
+
+    @Benchmark
+    public double[] tanh() {
+        System.arraycopy(x, 0, activations, 0, size);
+        kernel.tanh(activations, 0, size);
+        return activations;
+    }
+
+    @Benchmark
+    public double[] relu() {
+        System.arraycopy(x, 0, activations, 0, size);
+        kernel.relu(activations, 0, size);
+        return activations;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.xy.network.mnist;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Training cost per sample. An epsilon of 0 is never reached, so every call runs a full forward, backward and
+ * update pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LearnBenchmark {
+    private static final int    BATCH = 32;
+    private static final double RATE  = 1e-4;
+
+    @Param({ "64x32x10", "784x100x10", "784x450x250x10" })
+    public String topology;
+
+    private NeuralNetwork network;
+    private double[]      input;
+    private double[]      target;
+    private double[][]    inputs;
+    private double[][]    targets;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        network = new NeuralNetwork(Topologies.parse(topology));
+        network.randomize(random::nextDouble);
+        inputs = Topologies.randomInputs(random, BATCH, network.getInputSize());
+        targets = Topologies.oneHotTargets(BATCH, network.getOutputSize());
+        input = inputs[0];
+        target = targets[0];
+    }
+
+    @Benchmark
+    public int learn() {
+        return network.learn(input, target, RATE, 1, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int learnBatch() {
+        return network.learnBatch(inputs, targets, RATE, 0);
+    }
+
+}
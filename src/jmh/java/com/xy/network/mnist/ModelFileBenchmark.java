@@ -0,0 +1,59 @@
+package com.xy.network.mnist;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Writing and loading models, the largest topology being about 250 MB of doubles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ModelFileBenchmark {
+
+    @Param({ "784x450x250x10", "4000x4000x4000x10" })
+    public String topology;
+
+    @Param({ "true", "false" })
+    public boolean checksum;
+
+    private NeuralNetwork network;
+    private Path          file;
+
+    @Setup
+    public void setUp() throws IOException {
+        network = new NeuralNetwork(Topologies.parse(topology));
+        network.randomize(new Random(1)::nextDouble);
+        file = Files.createTempFile("benchmark", ".network");
+        network.write(file, checksum);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Path write() throws IOException {
+        network.write(file, checksum);
+        return file;
+    }
+
+    @Benchmark
+    public NeuralNetwork read() throws IOException {
+        return new NeuralNetwork(file);
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.xy.network.mnist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Streaming throughput over synthetic MNIST-sized IDX files, generated at setup so that no download is needed.
+ * Scores are per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleStreamBenchmark {
+    private static final int SAMPLES = 60_000;
+    private static final int SIDE    = 28;
+
+    private Path     directory;
+    private Path     imagePath;
+    private Path     labelPath;
+    private double[] input;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark");
+        imagePath = directory.resolve("images-idx3-ubyte");
+        labelPath = directory.resolve("labels-idx1-ubyte");
+        writeSyntheticFiles(imagePath, labelPath, SAMPLES, SIDE, new Random(1));
+        input = new double[SIDE * SIDE];
+    }
+
+    static void writeSyntheticFiles(Path imagePath, Path labelPath, int samples, int side, Random random)
+            throws IOException {
+        ByteBuffer images = ByteBuffer.allocate(4 * Integer.BYTES + samples * side * side);
+        images.putInt(0x803).putInt(samples).putInt(side).putInt(side);
+        byte[] pixels = new byte[samples * side * side];
+        random.nextBytes(pixels);
+        images.put(pixels);
+        Files.write(imagePath, images.array());
+
+        ByteBuffer labels = ByteBuffer.allocate(2 * Integer.BYTES + samples);
+        labels.putInt(0x801).putInt(samples);
+        for (int i = 0; i < samples; i++) {
+            labels.put((byte) random.nextInt(10));
+        }
+        Files.write(labelPath, labels.array());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(imagePath);
+        Files.deleteIfExists(labelPath);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long samples() throws IOException {
+        try (Stream<MNISTSample> samples = MNISTSamples.stream(labelPath, imagePath)) {
+            return samples.mapToLong(sample -> sample.getLabel() + sample.getImage()[0]).sum();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long parallelSamples() throws IOException {
+        try (Stream<MNISTSample> samples = MNISTSamples.stream(labelPath, imagePath)) {
+            return samples.parallel().mapToLong(sample -> sample.getLabel() + sample.getImage()[0]).sum();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double viewInputs() throws IOException {
+        double[] sum = new double[1];
+        try (Stream<SampleView> samples = MNISTSamples.views(labelPath, imagePath)) {
+            samples.forEach(sample -> {
+                sample.readInput(input, 200.0);
+                sum[0] += input[0];
+            });
+        }
+        return sum[0];
+    }
+
+}
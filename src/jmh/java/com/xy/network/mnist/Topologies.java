@@ -0,0 +1,37 @@
+package com.xy.network.mnist;
+
+import java.util.Arrays;
+import java.util.Random;
+
+final class Topologies {
+
+    /**
+     * @param topology layer sizes separated by "x", e.g. "784x450x250x10"
+     */
+    static int[] parse(String topology) {
+        return Arrays.stream(topology.split("x")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    static double[][] randomInputs(Random random, int count, int size) {
+        double[][] inputs = new double[count][size];
+        for (double[] input : inputs) {
+            for (int i = 0; i < size; i++) {
+                input[i] = random.nextDouble();
+            }
+        }
+        return inputs;
+    }
+
+    static double[][] oneHotTargets(int count, int size) {
+        double[][] targets = new double[count][size];
+        for (int s = 0; s < count; s++) {
+            targets[s][s % size] = 1;
+        }
+        return targets;
+    }
+
+    private Topologies() {
+        //
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.xy.network.mnist;
+
+/**
+ * Activation function of a layer. Functions are applied in place to whole arrays, and their derivatives are taken
+ * from the activated outputs, so that training never needs the pre-activation sums.
+ */
+public enum Activation {
+    /**
+     * {@code 1 / (1 + exp(-x))}
+     */
+    SIGMOID(0) {
+        @Override
+        void apply(double[] x, int from, int to) {
+            Kernels.get().sigmoid(x, from, to);
+        }
+
+        @Override
+        void gradient(double[] output, double[] error, double[] gradient, int from, int to) {
+            for (int k = from; k < to; k++) {
+                double o = output[k];
+                gradient[k] = error[k] * o * (o - 1);
+            }
+        }
+    },
+    /**
+     * The sigmoid interpolated linearly in a table over {@code [-16, 16]}, within {@code 1e-6} of {@link #SIGMOID} and
+     * saturating outside of the table. The derivative is the sigmoid's.
+     */
+    FAST_SIGMOID(1) {
+        @Override
+        void apply(double[] x, int from, int to) {
+            double[] table = SigmoidTable.TABLE;
+            for (int k = from; k < to; k++) {
+                double t = (x[k] + SigmoidTable.RANGE) * SigmoidTable.SCALE;
+                if (t <= 0) {
+                    x[k] = table[0];
+                } else if (t >= SigmoidTable.INTERVALS) {
+                    x[k] = table[SigmoidTable.INTERVALS];
+                } else {
+                    int i = (int) t;
+                    x[k] = table[i] + (t - i) * (table[i + 1] - table[i]);
+                }
+            }
+        }
+
+        @Override
+        void gradient(double[] output, double[] error, double[] gradient, int from, int to) {
+            SIGMOID.gradient(output, error, gradient, from, to);
+        }
+    },
+    /**
+     * {@code tanh(x)}, with outputs in {@code (-1, 1)}.
+     */
+    TANH(2) {
+        @Override
+        void apply(double[] x, int from, int to) {
+            Kernels.get().tanh(x, from, to);
+        }
+
+        @Override
+        void gradient(double[] output, double[] error, double[] gradient, int from, int to) {
+            for (int k = from; k < to; k++) {
+                double o = output[k];
+                gradient[k] = error[k] * (o * o - 1);
+            }
+        }
+    },
+    /**
+     * {@code max(0, x)}
+     */
+    RELU(3) {
+        @Override
+        void apply(double[] x, int from, int to) {
+            Kernels.get().relu(x, from, to);
+        }
+
+        @Override
+        void gradient(double[] output, double[] error, double[] gradient, int from, int to) {
+            for (int k = from; k < to; k++) {
+                gradient[k] = output[k] > 0 ? -error[k] : 0;
+            }
+        }
+    },
+    /**
+     * {@code x} for positive {@code x}, {@code 0.01 * x} otherwise.
+     */
+    LEAKY_RELU(4) {
+        @Override
+        void apply(double[] x, int from, int to) {
+            Kernels.get().leakyRelu(x, LEAK, from, to);
+        }
+
+        @Override
+        void gradient(double[] output, double[] error, double[] gradient, int from, int to) {
+            for (int k = from; k < to; k++) {
+                gradient[k] = output[k] > 0 ? -error[k] : -LEAK * error[k];
+            }
+        }
+    };
+
+    private static final double LEAK = 0.01;
+
+    private final int id;
+
+    Activation(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the identifier stored in model files
+     */
+    int id() {
+        return id;
+    }
+
+    static Activation of(int id) {
+        for (Activation activation : values()) {
+            if (activation.id == id) {
+                return activation;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported activation " + id);
+    }
+
+    /**
+     * {@code x = f(x)} over {@code [from, to)}.
+     */
+    abstract void apply(double[] x, int from, int to);
+
+    /**
+     * {@code gradient = -error .* f'(output)} over {@code [from, to)}, the sign matching the weight update
+     * {@code W -= rate * input (x) gradient}. {@code gradient} may be {@code error}.
+     */
+    abstract void gradient(double[] output, double[] error, double[] gradient, int from, int to);
+
+    private static final class SigmoidTable {
+        static final double   RANGE     = 16;
+        static final int      INTERVALS = 4096;
+        static final double   SCALE     = INTERVALS / (2 * RANGE);
+        static final double[] TABLE     = new double[INTERVALS + 1];
+
+        static {
+            for (int i = 0; i <= INTERVALS; i++) {
+                TABLE[i] = 1 / (1 + Math.exp(-(i / SCALE - RANGE)));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.xy.network.mnist;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads batches of samples ahead of training. A background thread fills a bounded ring of reusable batch buffers
+ * from a {@link Source}, while the training thread {@link #take() takes} ready batches and {@link #release releases}
+ * them once learned. The time the training thread spends waiting for data is measured, and recorded as
+ * {@link TrainingMetrics.Phase#DATA} when metrics are given.
+ */
+public class BatchLoader implements AutoCloseable {
+
+    /**
+     * Produces samples, called by the loader thread only.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        /**
+         * Fills up to {@code capacity} row-major samples.
+         *
+         * @return the number of samples read, 0 at the end
+         */
+        int read(double[] inputs, double[] targets, int capacity) throws IOException;
+
+    }
+
+    /**
+     * A batch of row-major inputs and targets, valid until {@link BatchLoader#release released}.
+     */
+    public static final class Batch {
+        private final double[] inputs;
+        private final double[] targets;
+
+        private int size;
+
+        private Batch(int capacity, int inputSize, int targetSize) {
+            inputs = new double[capacity * inputSize];
+            targets = new double[capacity * targetSize];
+        }
+
+        public double[] getInputs() {
+            return inputs;
+        }
+
+        public double[] getTargets() {
+            return targets;
+        }
+
+        public int size() {
+            return size;
+        }
+
+    }
+
+    private final Source               source;
+    private final int                  batchSize;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> ready;
+    private final Batch                end = new Batch(0, 0, 0);
+    private final Thread               thread;
+    private final TrainingMetrics      metrics;
+
+    private volatile Exception failure;
+
+    private boolean finished;
+    private long    waitNanos;
+    private long    batches;
+
+    /**
+     * @param depth   the number of batch buffers, how far the loader may read ahead
+     * @param metrics where to record waits, may be {@code null}
+     */
+    public BatchLoader(Source source, int batchSize, int inputSize, int targetSize, int depth,
+            TrainingMetrics metrics) {
+        if (batchSize < 1 || depth < 1) {
+            throw new IllegalArgumentException("Illegal batch size " + batchSize + " or depth " + depth);
+        }
+        this.source = source;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        free = new ArrayBlockingQueue<>(depth);
+        ready = new ArrayBlockingQueue<>(depth + 1);
+        for (int k = 0; k < depth; k++) {
+            free.add(new Batch(batchSize, inputSize, targetSize));
+        }
+        thread = new Thread(this::load, "batch-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void load() {
+        try {
+            while (true) {
+                Batch batch = free.take();
+                batch.size = source.read(batch.inputs, batch.targets, batchSize);
+                if (batch.size == 0) {
+                    break;
+                }
+                ready.put(batch);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        ready.add(end);
+    }
+
+    /**
+     * Waits for the next batch.
+     *
+     * @return the batch, {@code null} at the end of the source
+     * @throws IOException if the source failed
+     */
+    public Batch take() throws IOException {
+        if (finished) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Batch batch;
+        try {
+            batch = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos += waited;
+        if (metrics != null) {
+            metrics.record(TrainingMetrics.Phase.DATA, waited);
+        }
+        if (batch == end) {
+            finished = true;
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            return null;
+        }
+        batches++;
+        return batch;
+    }
+
+    /**
+     * Hands a batch back for reuse.
+     */
+    public void release(Batch batch) {
+        free.add(batch);
+    }
+
+    /**
+     * @return the total time {@link #take()} waited for data
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Stops the loader thread, possibly before the end of the source.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
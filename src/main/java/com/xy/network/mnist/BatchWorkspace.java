@@ -0,0 +1,138 @@
+package com.xy.network.mnist;
+
+import java.util.Arrays;
+
+/**
+ * Activation and error buffers for mini-batch passes over a shared stack of layers. The buffers grow to the largest
+ * batch seen and are reused afterwards. A workspace belongs to one thread at a time, the layers it works on may be
+ * shared.
+ */
+final class BatchWorkspace {
+    private final Layer[]    layer;
+    private final double[][] activation;
+    private final double[][] error;
+    private final double[]   tile = new double[Layer.ROW_BLOCK * Layer.COL_BLOCK];
+
+    private int      capacity;
+    private int      count;
+    private double[] inputBuffer;
+    private double[] targetBuffer;
+
+    BatchWorkspace(Layer[] layer) {
+        this.layer = layer;
+        activation = new double[layer.length + 1][];
+        error = new double[layer.length][];
+    }
+
+    /**
+     * @return a buffer for {@code count} row-major input vectors
+     */
+    double[] inputBuffer(int count) {
+        ensureCapacity(count);
+        return inputBuffer;
+    }
+
+    /**
+     * @return a buffer for {@code count} row-major target vectors
+     */
+    double[] targetBuffer(int count) {
+        ensureCapacity(count);
+        return targetBuffer;
+    }
+
+    /**
+     * Runs the forward pass and computes the output errors. The errors of samples already within {@code epsilon} are
+     * zeroed, so they do not contribute to the following update. The {@code inputs} array is referenced, not copied,
+     * until {@link #release()}.
+     *
+     * @return the number of samples that were not within {@code epsilon}
+     */
+    int forward(double[] inputs, double[] targets, int count, double epsilon) {
+        int inputSize = layer[0].rows;
+        int outputSize = layer[layer.length - 1].cols;
+        if (count < 1 || inputs.length < count * inputSize || targets.length < count * outputSize) {
+            throw new IllegalArgumentException("Illegal batch of " + count);
+        }
+        ensureCapacity(count);
+        this.count = count;
+        activation[0] = inputs;
+        for (int i = 0; i < layer.length; i++) {
+            layer[i].forwardBatch(activation[i], activation[i + 1], count);
+        }
+
+        int learning = 0;
+        double[] output = activation[layer.length];
+        double[] e = error[layer.length - 1];
+        for (int s = 0, offset = 0; s < count; s++, offset += outputSize) {
+            boolean converged = true;
+            for (int j = offset; j < offset + outputSize; j++) {
+                e[j] = targets[j] - output[j];
+                converged &= Math.abs(e[j]) < epsilon;
+            }
+            if (converged) {
+                Arrays.fill(e, offset, offset + outputSize, 0);
+            } else {
+                learning++;
+            }
+        }
+        return learning;
+    }
+
+    /**
+     * Propagates the errors of the last {@link #forward} back through the layers and turns them into gradients.
+     */
+    void backward() {
+        for (int i = layer.length - 1; i >= 1; i--) {
+            layer[i].backwardBatch(error[i], error[i - 1], count);
+        }
+        for (int i = layer.length - 1; i >= 0; i--) {
+            layer[i].gradientBatch(activation[i + 1], error[i], count);
+        }
+    }
+
+    /**
+     * {@code W -= scale * gradient} on the layers themselves.
+     */
+    void update(double scale) {
+        for (int i = layer.length - 1; i >= 0; i--) {
+            layer[i].updateBatch(activation[i], error[i], count, scale, tile);
+        }
+    }
+
+    /**
+     * {@link Layer#optimizeBatch} on the layers themselves, {@code state} holding the optimizer state of every layer.
+     */
+    void optimize(Optimizer optimizer, double[][][] state, double rate, long t) {
+        for (int i = layer.length - 1; i >= 0; i--) {
+            layer[i].optimizeBatch(activation[i], error[i], count, tile, optimizer, state[i], rate, t);
+        }
+    }
+
+    /**
+     * Adds the weight gradients of the last {@link #backward()} to {@code gradient}, one array per layer in the
+     * weight layout.
+     */
+    void accumulate(double[][] gradient) {
+        for (int i = layer.length - 1; i >= 0; i--) {
+            layer[i].accumulateBatch(activation[i], error[i], count, tile, gradient[i]);
+        }
+    }
+
+    void release() {
+        activation[0] = null;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= capacity) {
+            return;
+        }
+        inputBuffer = new double[count * layer[0].rows];
+        targetBuffer = new double[count * layer[layer.length - 1].cols];
+        for (int i = 0; i < layer.length; i++) {
+            activation[i + 1] = new double[count * layer[i].cols];
+            error[i] = new double[count * layer[i].cols];
+        }
+        capacity = count;
+    }
+
+}
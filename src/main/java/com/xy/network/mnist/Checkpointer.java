@@ -0,0 +1,267 @@
+package com.xy.network.mnist;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints of a network in the background while it trains.
+ * <p>
+ * A checkpoint is taken every {@code sampleInterval} samples or {@code timeInterval} nanoseconds, whichever comes
+ * first, a zero interval being disabled. Taking one copies the weights and the optimizer state into one of two
+ * snapshot buffers on the training thread, then a writer thread saves the snapshot with
+ * {@link NeuralNetwork#write(Path)}'s atomic rename, as {@code checkpoint-<samples>.network}, and deletes all but the
+ * {@code keep} latest checkpoints. When both buffers are still being written, the checkpoint is skipped rather than
+ * waited for.
+ * <p>
+ * The sample count carries on from the latest checkpoint already in the directory, the one training is normally
+ * resumed from, so that the checkpoints of a resumed run sort after the earlier ones.
+ * <p>
+ * Install a checkpointer as the network's {@link TrainingListener} or call {@link #sample()} after every sample; either
+ * way, it must be called on the training thread, between updates, for snapshots to be consistent.
+ */
+public class Checkpointer implements TrainingListener, AutoCloseable {
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".network";
+    private static final int    DIGITS = 15;
+
+    private final NeuralNetwork           network;
+    private final Path                    directory;
+    private final int                     keep;
+    private final long                    sampleInterval;
+    private final long                    timeInterval;
+    private final BlockingQueue<Snapshot> free     = new ArrayBlockingQueue<>(2);
+    private final ExecutorService         executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long samples;
+    private long lastSamples;
+    private long lastTime = System.nanoTime();
+    private long skipped;
+
+    private volatile Path        latest;
+    private volatile IOException failure;
+
+    /**
+     * @param directory      where checkpoints are written, created if needed
+     * @param keep           the number of checkpoints to keep
+     * @param sampleInterval samples between checkpoints, 0 for none
+     * @param timeInterval   time between checkpoints, 0 for none
+     */
+    public Checkpointer(NeuralNetwork network, Path directory, int keep, long sampleInterval, long timeInterval,
+            TimeUnit unit) throws IOException {
+        if (keep < 1 || sampleInterval < 0 || timeInterval < 0) {
+            throw new IllegalArgumentException("Illegal checkpoint policy");
+        }
+        this.network = network;
+        this.directory = Files.createDirectories(directory);
+        this.keep = keep;
+        this.sampleInterval = sampleInterval;
+        this.timeInterval = unit.toNanos(timeInterval);
+        Path last = latest(this.directory);
+        this.samples = last == null ? 0 : parseSamples(last);
+        this.lastSamples = samples;
+        free.add(new Snapshot());
+        free.add(new Snapshot());
+    }
+
+    /**
+     * @return the latest checkpoint in {@code directory}, or {@code null}
+     */
+    public static Path latest(Path directory) throws IOException {
+        List<Path> checkpoints = list(directory);
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    @Override
+    public void sample(int iterations, boolean converged) {
+        sample();
+    }
+
+    @Override
+    public void batch(int count, int learning) {
+        samples += count - 1;
+        sample();
+    }
+
+    /**
+     * Counts a sample and takes a checkpoint if one is due.
+     */
+    public void sample() {
+        samples++;
+        if (sampleInterval > 0 && samples - lastSamples >= sampleInterval ||
+                timeInterval > 0 && System.nanoTime() - lastTime >= timeInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Takes a checkpoint now, unless both snapshot buffers are busy.
+     *
+     * @return whether a checkpoint was taken
+     */
+    public boolean checkpoint() {
+        lastSamples = samples;
+        lastTime = System.nanoTime();
+        Snapshot snapshot = free.poll();
+        if (snapshot == null) {
+            skipped++;
+            return false;
+        }
+        snapshot.copy(network, samples);
+        executor.execute(() -> {
+            try {
+                snapshot.write();
+            } finally {
+                free.add(snapshot);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return the number of checkpoints skipped because the writer was behind
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return the latest checkpoint written by this instance, or {@code null}
+     */
+    public Path getLatest() {
+        return latest;
+    }
+
+    /**
+     * Waits for pending checkpoints.
+     *
+     * @throws IOException the last write failure, if any
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Timed out writing checkpoints");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return checkpoints;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                if (parseSamples(path) >= 0) {
+                    checkpoints.add(path);
+                }
+            }
+        }
+        Collections.sort(checkpoints);
+        return checkpoints;
+    }
+
+    /**
+     * @return the sample count in the name of {@code checkpoint}, -1 if it is not the name of a checkpoint
+     */
+    private static long parseSamples(Path checkpoint) {
+        String name = checkpoint.getFileName().toString();
+        String digits = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+        if (digits.length() != DIGITS) {
+            return -1;
+        }
+        for (int k = 0; k < digits.length(); k++) {
+            if (digits.charAt(k) < '0' || digits.charAt(k) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(digits);
+    }
+
+    private final class Snapshot {
+        private Layer[]      layer;
+        private Optimizer    optimizer;
+        private double[][][] state;
+        private long         step;
+        private long         samples;
+
+        /**
+         * Copies the weights and the optimizer state, only allocating on the first copy or when the optimizer
+         * changed.
+         */
+        void copy(NeuralNetwork network, long samples) {
+            Layer[] source = network.layers();
+            if (layer == null) {
+                layer = new Layer[source.length];
+                for (int i = 0; i < source.length; i++) {
+                    layer[i] = source[i].copy();
+                }
+            } else {
+                for (int i = 0; i < source.length; i++) {
+                    layer[i].copyFrom(source[i]);
+                }
+            }
+            double[][][] sourceState = network.optimizerState();
+            if (network.getOptimizer() != optimizer) {
+                optimizer = network.getOptimizer();
+                state = null;
+            }
+            if (sourceState != null) {
+                if (state == null) {
+                    state = new double[sourceState.length][][];
+                    for (int i = 0; i < sourceState.length; i++) {
+                        state[i] = new double[sourceState[i].length][];
+                        for (int k = 0; k < sourceState[i].length; k++) {
+                            state[i][k] = sourceState[i][k].clone();
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < sourceState.length; i++) {
+                        for (int k = 0; k < sourceState[i].length; k++) {
+                            System.arraycopy(sourceState[i][k], 0, state[i][k], 0, state[i][k].length);
+                        }
+                    }
+                }
+            }
+            this.step = network.getStep();
+            this.samples = samples;
+        }
+
+        void write() {
+            try {
+                Path file = directory.resolve(String.format("%s%0" + DIGITS + "d%s", PREFIX, samples, SUFFIX));
+                ModelFile.write(file, new ModelFile.Contents(layer, optimizer, state, step), true);
+                latest = file;
+                List<Path> checkpoints = list(directory);
+                for (int k = 0; k < checkpoints.size() - keep; k++) {
+                    Files.deleteIfExists(checkpoints.get(k));
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+package com.xy.network.mnist;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * A memory-mapped cache of training samples, inputs already normalized and targets already encoded, so that epochs
+ * after the first one do no decoding and no allocation. The file lives outside of the heap and may be larger than it.
+ * <p>
+ * Layout, little-endian after the magic number:
+ * <pre>
+ * header    64 bytes   magic "XYDS", version, encoding (1 double, 2 float), input size, target size, record size,
+ *                      sample count (long), zeros
+ * records              per sample the input then the target elements, each record padded to a multiple of 64 bytes
+ * </pre>
+ * Records are accessed by index, in any order, by any number of threads.
+ */
+public class Dataset {
+    private static final int MAGIC       = 0x58594453;
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ALIGNMENT   = 64;
+
+    private static final int ENCODING_DOUBLE = 1;
+    private static final int ENCODING_FLOAT  = 2;
+
+    /**
+     * The largest mapping, whole records are mapped in chunks of at most this size.
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private final Precision      precision;
+    private final int            inputSize;
+    private final int            targetSize;
+    private final int            size;
+    private final int            recordElements;
+    private final int            recordsPerChunk;
+    private final FloatBuffer[]  floats;
+    private final DoubleBuffer[] doubles;
+
+    public Dataset(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    throw new IllegalArgumentException("Not a dataset");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a dataset");
+            }
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + version);
+            }
+            int encoding = header.getInt();
+            if (encoding != ENCODING_DOUBLE && encoding != ENCODING_FLOAT) {
+                throw new IllegalArgumentException("Unsupported encoding " + encoding);
+            }
+            precision = encoding == ENCODING_DOUBLE ? Precision.DOUBLE : Precision.FLOAT;
+            inputSize = header.getInt();
+            targetSize = header.getInt();
+            int recordSize = header.getInt();
+            long count = header.getLong();
+            if (inputSize < 1 || targetSize < 0 || recordSize != recordSize(precision, inputSize, targetSize) ||
+                    count < 0 || count > Integer.MAX_VALUE || HEADER_SIZE + count * recordSize > channel.size()) {
+                throw new IllegalArgumentException("Corrupted dataset header");
+            }
+            size = (int) count;
+            recordElements = recordSize / precision.bytes();
+            recordsPerChunk = MAX_CHUNK_SIZE / recordSize;
+
+            int chunks = (int) ((count + recordsPerChunk - 1) / recordsPerChunk);
+            floats = precision == Precision.FLOAT ? new FloatBuffer[chunks] : null;
+            doubles = precision == Precision.DOUBLE ? new DoubleBuffer[chunks] : null;
+            for (int c = 0; c < chunks; c++) {
+                long first = (long) c * recordsPerChunk;
+                long records = Math.min(recordsPerChunk, count - first);
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * recordSize,
+                        records * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+                if (floats != null) {
+                    floats[c] = bytes.asFloatBuffer();
+                } else {
+                    doubles[c] = bytes.asDoubleBuffer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts writing a dataset, with samples added one at a time. The file only appears under its name once
+     * {@link Writer#commit() committed}; closing the writer without committing discards the samples, so that a failure
+     * half-way never leaves a truncated dataset behind.
+     *
+     * @param precision the encoding of the elements, {@link Precision#FLOAT} halving the size
+     */
+    public static Writer writer(Path file, int inputSize, int targetSize, Precision precision) throws IOException {
+        return new Writer(file, inputSize, targetSize, precision);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the bytes of one record, including padding
+     */
+    public int getRecordSize() {
+        return recordElements * precision.bytes();
+    }
+
+    /**
+     * Copies sample {@code index} into {@code input} and {@code target}, either of them may be {@code null}.
+     */
+    public void read(int index, double[] input, double[] target) {
+        read(index, input, 0, target, 0);
+    }
+
+    /**
+     * Copies the samples {@code order[from, from + count)} into the row-major batch buffers, for
+     * {@link NeuralNetwork#learnBatch(double[], double[], int, double, double)}.
+     */
+    public void read(int[] order, int from, int count, double[] inputs, double[] targets) {
+        for (int s = 0; s < count; s++) {
+            read(order[from + s], inputs, s * inputSize, targets, s * targetSize);
+        }
+    }
+
+    private void read(int index, double[] input, int inputOffset, double[] target, int targetOffset) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Sample " + index + " of " + size);
+        }
+        int chunk = index / recordsPerChunk;
+        int offset = (index - chunk * recordsPerChunk) * recordElements;
+        if (floats != null) {
+            FloatBuffer buffer = floats[chunk];
+            if (input != null) {
+                for (int i = 0; i < inputSize; i++) {
+                    input[inputOffset + i] = buffer.get(offset + i);
+                }
+            }
+            if (target != null) {
+                for (int j = 0; j < targetSize; j++) {
+                    target[targetOffset + j] = buffer.get(offset + inputSize + j);
+                }
+            }
+        } else {
+            DoubleBuffer buffer = doubles[chunk];
+            if (input != null) {
+                for (int i = 0; i < inputSize; i++) {
+                    input[inputOffset + i] = buffer.get(offset + i);
+                }
+            }
+            if (target != null) {
+                for (int j = 0; j < targetSize; j++) {
+                    target[targetOffset + j] = buffer.get(offset + inputSize + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a source of the samples {@code order[0, order.length)} in turn, for a {@link BatchLoader}
+     */
+    public BatchLoader.Source source(int[] order) {
+        return new BatchLoader.Source() {
+            private int next;
+
+            @Override
+            public int read(double[] inputs, double[] targets, int capacity) {
+                int count = Math.min(capacity, order.length - next);
+                Dataset.this.read(order, next, count, inputs, targets);
+                next += count;
+                return count;
+            }
+        };
+    }
+
+    /**
+     * @return the identity permutation of the sample indexes, to be {@link #shuffle shuffled} every epoch
+     */
+    public int[] order() {
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = k;
+        }
+        return order;
+    }
+
+    /**
+     * Shuffles {@code order} in place, Fisher-Yates.
+     */
+    public static void shuffle(int[] order, Random random) {
+        for (int k = order.length - 1; k > 0; k--) {
+            int other = random.nextInt(k + 1);
+            int swap = order[k];
+            order[k] = order[other];
+            order[other] = swap;
+        }
+    }
+
+    private static int recordSize(Precision precision, int inputSize, int targetSize) {
+        long size = ((long) (inputSize + targetSize) * precision.bytes() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        if (size > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Record too large, " + size + " bytes");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Streams samples to a dataset file through a reused direct buffer.
+     */
+    public static class Writer implements AutoCloseable {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final Path        file;
+        private final Path        temporary;
+        private final FileChannel channel;
+        private final Precision   precision;
+        private final int         inputSize;
+        private final int         targetSize;
+        private final int         recordSize;
+        private final ByteBuffer  bytes;
+
+        private long    count;
+        private boolean closed;
+
+        private Writer(Path file, int inputSize, int targetSize, Precision precision) throws IOException {
+            if (inputSize < 1 || targetSize < 0) {
+                throw new IllegalArgumentException("Illegal sizes " + inputSize + ", " + targetSize);
+            }
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.precision = precision;
+            this.inputSize = inputSize;
+            this.targetSize = targetSize;
+            this.recordSize = recordSize(precision, inputSize, targetSize);
+            this.bytes = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            this.channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE);
+            channel.position(HEADER_SIZE);
+        }
+
+        public void add(double[] input, double[] target) throws IOException {
+            if (input.length != inputSize || target.length != targetSize) {
+                throw new IllegalArgumentException("Expected " + inputSize + " inputs and " + targetSize +
+                        " targets, was " + input.length + " and " + target.length);
+            }
+            if (bytes.remaining() < recordSize) {
+                flush();
+            }
+            int start = bytes.position();
+            if (precision == Precision.FLOAT) {
+                for (double x : input) {
+                    bytes.putFloat((float) x);
+                }
+                for (double y : target) {
+                    bytes.putFloat((float) y);
+                }
+            } else {
+                for (double x : input) {
+                    bytes.putDouble(x);
+                }
+                for (double y : target) {
+                    bytes.putDouble(y);
+                }
+            }
+            while (bytes.position() < start + recordSize) {
+                bytes.put((byte) 0);
+            }
+            count++;
+        }
+
+        private void flush() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+
+        /**
+         * Writes the header, then renames the file into place. To be called once the last sample is added.
+         */
+        public void commit() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer closed");
+            }
+            closed = true;
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(VERSION);
+                header.putInt(precision == Precision.DOUBLE ? ENCODING_DOUBLE : ENCODING_FLOAT);
+                header.putInt(inputSize);
+                header.putInt(targetSize);
+                header.putInt(recordSize);
+                header.putLong(count);
+                header.clear();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+                channel.close();
+                try {
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        /**
+         * Deletes the temporary file unless {@link #commit()} was called.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+    }
+
+}
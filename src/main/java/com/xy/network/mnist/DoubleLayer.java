@@ -0,0 +1,61 @@
+package com.xy.network.mnist;
+
+/**
+ * A layer storing its weights as {@code double}s.
+ */
+final class DoubleLayer extends Layer {
+    final double[] weight;
+
+    DoubleLayer(int rows, int cols, Activation activation) {
+        this(rows, cols, activation, new double[rows * cols]);
+    }
+
+    DoubleLayer(int rows, int cols, Activation activation, double[] weight) {
+        super(rows, cols, activation);
+        if (weight.length != rows * cols) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " weights, was " + weight.length);
+        }
+        this.weight = weight;
+    }
+
+    @Override
+    Precision precision() {
+        return Precision.DOUBLE;
+    }
+
+    @Override
+    double get(int index) {
+        return weight[index];
+    }
+
+    @Override
+    void set(int index, double value) {
+        weight[index] = value;
+    }
+
+    @Override
+    void addRow(double a, int offset, double[] y, int yOffset, int length) {
+        KERNELS.axpy(a, weight, offset, y, yOffset, length);
+    }
+
+    @Override
+    double dotRow(int offset, double[] y, int length) {
+        return KERNELS.dot(weight, offset, y, length);
+    }
+
+    @Override
+    void addToRow(double a, double[] x, int xOffset, int offset, int length) {
+        KERNELS.axpy(a, x, xOffset, weight, offset, length);
+    }
+
+    @Override
+    DoubleLayer copy() {
+        return new DoubleLayer(rows, cols, activation, weight.clone());
+    }
+
+    @Override
+    void copyFrom(Layer source) {
+        System.arraycopy(((DoubleLayer) source).weight, 0, weight, 0, weight.length);
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.xy.network.mnist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel evaluation of a classifier over a {@link Dataset}, the label of a sample being the index of its largest
+ * target and the decision the index of the largest output.
+ * <p>
+ * The samples are cut into {@code parallelism} contiguous shards, each shard being decided in batches by a worker with
+ * its own buffers and its own partial counts. Partial counts are only summed once all workers are done, so workers
+ * share nothing but the read-only model and dataset.
+ */
+public class Evaluator implements AutoCloseable {
+    private static final int CHUNK = 64;
+
+    private final ExecutorService executor;
+    private final boolean         ownExecutor;
+    private final int             parallelism;
+    private final int             maxK;
+
+    /**
+     * @param maxK the largest k for which top-k accuracy is counted
+     */
+    public Evaluator(int parallelism, int maxK) {
+        this(new ForkJoinPool(parallelism), true, parallelism, maxK);
+    }
+
+    /**
+     * @param executor used to run the workers, it is not shut down on {@link #close()}
+     */
+    public Evaluator(ExecutorService executor, int parallelism, int maxK) {
+        this(executor, false, parallelism, maxK);
+    }
+
+    private Evaluator(ExecutorService executor, boolean ownExecutor, int parallelism, int maxK) {
+        if (parallelism < 1 || maxK < 1) {
+            throw new IllegalArgumentException("Illegal parallelism " + parallelism + " or k " + maxK);
+        }
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.parallelism = parallelism;
+        this.maxK = maxK;
+    }
+
+    /**
+     * @return {@code count} distinct sample indexes out of {@code size}, in ascending order for locality
+     */
+    public static int[] subsample(int size, int count, Random random) {
+        if (count < 0 || count > size) {
+            throw new IllegalArgumentException("Cannot pick " + count + " of " + size);
+        }
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = k;
+        }
+        for (int k = 0; k < count; k++) {
+            int other = k + random.nextInt(size - k);
+            int swap = order[k];
+            order[k] = order[other];
+            order[other] = swap;
+        }
+        int[] samples = Arrays.copyOf(order, count);
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    public Result evaluate(InferenceModel model, Dataset dataset) {
+        return evaluate(model, dataset, dataset.order());
+    }
+
+    /**
+     * Evaluates the samples {@code samples} of {@code dataset}, see {@link #subsample(int, int, Random)}.
+     */
+    public Result evaluate(InferenceModel model, Dataset dataset, int[] samples) {
+        if (dataset.getInputSize() != model.getInputSize()) {
+            throw new IllegalArgumentException("Expected " + model.getInputSize() + " inputs, was " +
+                    dataset.getInputSize());
+        }
+        int classes = model.getOutputSize();
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (int k = 0; k < parallelism; k++) {
+            int from = shardStart(k, samples.length);
+            int to = shardStart(k + 1, samples.length);
+            tasks.add(() -> evaluate(model, dataset, samples, from, to));
+        }
+        Result result = new Result(classes, maxK);
+        try {
+            for (Future<Result> future : executor.invokeAll(tasks)) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return result;
+    }
+
+    private Result evaluate(InferenceModel model, Dataset dataset, int[] samples, int from, int to) {
+        int classes = model.getOutputSize();
+        int targetSize = dataset.getTargetSize();
+        Result partial = new Result(classes, maxK);
+        double[] inputs = new double[CHUNK * dataset.getInputSize()];
+        double[] targets = new double[CHUNK * targetSize];
+        double[] outputs = new double[CHUNK * classes];
+        for (int start = from; start < to; start += CHUNK) {
+            int n = Math.min(CHUNK, to - start);
+            dataset.read(samples, start, n, inputs, targets);
+            model.decideBatch(inputs, outputs, n);
+            for (int s = 0; s < n; s++) {
+                int label = maxIndex(targets, s * targetSize, targetSize);
+                if (label >= classes) {
+                    throw new IllegalArgumentException("Label " + label + " of sample " + samples[start + s] +
+                            " out of " + classes + " classes");
+                }
+                partial.add(label, outputs, s * classes);
+            }
+        }
+        return partial;
+    }
+
+    private int shardStart(int shard, int size) {
+        return (int) ((long) size * shard / parallelism);
+    }
+
+    private static int maxIndex(double[] vector, int offset, int length) {
+        int index = 0;
+        for (int i = 1; i < length; i++) {
+            if (vector[offset + i] > vector[offset + index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The counts of an evaluation: a confusion matrix and the rank of the label among the outputs.
+     */
+    public static class Result {
+        private final int    classes;
+        private final long[] confusion;
+        private final long[] rank;
+
+        private long samples;
+
+        Result(int classes, int maxK) {
+            this.classes = classes;
+            confusion = new long[classes * classes];
+            rank = new long[maxK];
+        }
+
+        /**
+         * Counts one sample, ties between outputs going to the lowest index as in the decision.
+         */
+        void add(int label, double[] output, int offset) {
+            double expected = output[offset + label];
+            int above = 0;
+            int decision = label;
+            for (int j = 0; j < classes; j++) {
+                double y = output[offset + j];
+                if (y > expected || y == expected && j < label) {
+                    above++;
+                }
+                if (y > output[offset + decision] || y == output[offset + decision] && j < decision) {
+                    decision = j;
+                }
+            }
+            confusion[label * classes + decision]++;
+            if (above < rank.length) {
+                rank[above]++;
+            }
+            samples++;
+        }
+
+        void add(Result partial) {
+            for (int k = 0; k < confusion.length; k++) {
+                confusion[k] += partial.confusion[k];
+            }
+            for (int k = 0; k < rank.length; k++) {
+                rank[k] += partial.rank[k];
+            }
+            samples += partial.samples;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public int getClasses() {
+            return classes;
+        }
+
+        /**
+         * @return the number of samples labeled {@code label} that were decided as {@code decision}
+         */
+        public long getCount(int label, int decision) {
+            return confusion[label * classes + decision];
+        }
+
+        public long getErrors() {
+            long correct = 0;
+            for (int c = 0; c < classes; c++) {
+                correct += getCount(c, c);
+            }
+            return samples - correct;
+        }
+
+        public double getAccuracy() {
+            return getTopK(1);
+        }
+
+        /**
+         * @return the fraction of samples whose label is among the {@code k} largest outputs
+         */
+        public double getTopK(int k) {
+            if (k < 1 || k > rank.length) {
+                throw new IllegalArgumentException("Expected 1 to " + rank.length + ", was " + k);
+            }
+            long hits = 0;
+            for (int r = 0; r < k; r++) {
+                hits += rank[r];
+            }
+            return samples == 0 ? Double.NaN : (double) hits / samples;
+        }
+
+        /**
+         * @return the fraction of the decisions {@code c} that were right, {@code NaN} if there were none
+         */
+        public double getPrecision(int c) {
+            long decided = 0;
+            for (int label = 0; label < classes; label++) {
+                decided += getCount(label, c);
+            }
+            return decided == 0 ? Double.NaN : (double) getCount(c, c) / decided;
+        }
+
+        /**
+         * @return the fraction of the samples labeled {@code c} that were decided as such, {@code NaN} if there were
+         *         none
+         */
+        public double getRecall(int c) {
+            long labeled = 0;
+            for (int decision = 0; decision < classes; decision++) {
+                labeled += getCount(c, decision);
+            }
+            return labeled == 0 ? Double.NaN : (double) getCount(c, c) / labeled;
+        }
+
+        /**
+         * @return the accuracies, then the confusion matrix with labels as rows and decisions as columns, followed by
+         *         the recall of each label, then the precision of each decision
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%d samples, %d errors", samples, getErrors()));
+            for (int k = 1; k <= rank.length; k++) {
+                builder.append(String.format(", top-%d %.2f%%", k, 100 * getTopK(k)));
+            }
+            builder.append('\n');
+            for (int label = 0; label < classes; label++) {
+                builder.append(String.format("%4d |", label));
+                for (int decision = 0; decision < classes; decision++) {
+                    builder.append(String.format(" %6d", getCount(label, decision)));
+                }
+                builder.append(String.format(" | %6.2f%%%n", 100 * getRecall(label)));
+            }
+            builder.append("     |");
+            for (int decision = 0; decision < classes; decision++) {
+                builder.append(String.format(" %5.1f%%", 100 * getPrecision(decision)));
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.xy.network.mnist;
+
+/**
+ * A layer storing its weights as {@code float}s.
+ */
+final class FloatLayer extends Layer {
+    final float[] weight;
+
+    FloatLayer(int rows, int cols, Activation activation) {
+        this(rows, cols, activation, new float[rows * cols]);
+    }
+
+    FloatLayer(int rows, int cols, Activation activation, float[] weight) {
+        super(rows, cols, activation);
+        if (weight.length != rows * cols) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " weights, was " + weight.length);
+        }
+        this.weight = weight;
+    }
+
+    @Override
+    Precision precision() {
+        return Precision.FLOAT;
+    }
+
+    @Override
+    double get(int index) {
+        return weight[index];
+    }
+
+    @Override
+    void set(int index, double value) {
+        weight[index] = (float) value;
+    }
+
+    @Override
+    void addRow(double a, int offset, double[] y, int yOffset, int length) {
+        KERNELS.axpy(a, weight, offset, y, yOffset, length);
+    }
+
+    @Override
+    double dotRow(int offset, double[] y, int length) {
+        return KERNELS.dot(weight, offset, y, length);
+    }
+
+    @Override
+    void addToRow(double a, double[] x, int xOffset, int offset, int length) {
+        KERNELS.axpy(a, x, xOffset, weight, offset, length);
+    }
+
+    @Override
+    FloatLayer copy() {
+        return new FloatLayer(rows, cols, activation, weight.clone());
+    }
+
+    @Override
+    void copyFrom(Layer source) {
+        System.arraycopy(((FloatLayer) source).weight, 0, weight, 0, weight.length);
+    }
+
+}
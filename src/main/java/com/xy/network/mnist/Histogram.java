@@ -0,0 +1,72 @@
+package com.xy.network.mnist;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with power-of-two buckets: bucket {@code b} counts the values in
+ * {@code [2^(b-1), 2^b)}, bucket 0 counts zeros. Percentiles are therefore upper bounds within a factor of two.
+ */
+public class Histogram {
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final AtomicLongArray bucket = new AtomicLongArray(BUCKETS);
+    private final LongAdder       count  = new LongAdder();
+    private final LongAdder       sum    = new LongAdder();
+
+    public void record(long value) {
+        bucket.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, value)));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile in {@code [0, 100]}
+     * @return the upper bound of the bucket holding the percentile, 0 when empty
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = bucket.get(b);
+            total += counts[b];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank && seen > 0) {
+                return b == 0 ? 0 : b == Long.SIZE ? Long.MAX_VALUE : (1L << b) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            bucket.set(b, 0);
+        }
+        count.reset();
+        sum.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1f p50<=%d p99<=%d", getCount(), getMean(), getPercentile(50),
+                getPercentile(99));
+    }
+
+}
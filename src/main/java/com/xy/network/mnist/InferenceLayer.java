@@ -0,0 +1,84 @@
+package com.xy.network.mnist;
+
+/**
+ * A fully connected layer that can only be run forward, the read-only view an {@link InferenceModel} works on. Weights
+ * are laid out as in {@link Layer}: element {@code i * cols + j} connects input {@code i} to output {@code j}.
+ * <p>
+ * {@link Layer}, the trainable layer, is one; the others, {@link MappedLayer} and {@link SparseLayer}, store their
+ * weights in a form that cannot be written, off-heap or compressed, and are never trained.
+ */
+abstract class InferenceLayer {
+    static final Kernels KERNELS = Kernels.get();
+
+    final int        rows;
+    final int        cols;
+    final Activation activation;
+
+    InferenceLayer(int rows, int cols, Activation activation) {
+        if (rows < 1 || cols < 1) {
+            throw new IllegalArgumentException("Illegal layer " + rows + "x" + cols);
+        }
+        if (activation == null) {
+            throw new IllegalArgumentException("Missing activation");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.activation = activation;
+    }
+
+    /**
+     * @return the precision of the weights, the one they are written in
+     */
+    abstract Precision precision();
+
+    int size() {
+        return rows * cols;
+    }
+
+    abstract double get(int index);
+
+    /**
+     * @return a trainable copy of the weights in the given precision
+     */
+    Layer convert(Precision precision) {
+        Layer layer = Layer.create(precision, rows, cols, activation);
+        for (int k = 0; k < size(); k++) {
+            layer.set(k, get(k));
+        }
+        return layer;
+    }
+
+    /**
+     * {@code output = f(input * W)}
+     */
+    void forward(double[] input, double[] output) {
+        forward(input, output, 0, cols);
+    }
+
+    /**
+     * {@link #forward(double[], double[])} of the outputs {@code [from, to)} only, the other outputs being left
+     * untouched. Each output is summed in the same order whatever the range, so that disjoint ranges can be computed
+     * by different threads with the same result.
+     */
+    abstract void forward(double[] input, double[] output, int from, int to);
+
+    /**
+     * {@link #forward} of a sparse input, given as {@code count} non-zero {@code value}s at ascending {@code index}es.
+     * Zero inputs contribute nothing, so the result is the same as the dense one.
+     */
+    void forwardSparse(int[] index, double[] value, int count, double[] output) {
+        forwardSparse(index, value, count, output, 0, cols);
+    }
+
+    /**
+     * {@link #forwardSparse(int[], double[], int, double[])} of the outputs {@code [from, to)}.
+     */
+    abstract void forwardSparse(int[] index, double[] value, int count, double[] output, int from, int to);
+
+    /**
+     * {@code output = f(input * W)} for {@code count} row-major samples. Per output the products are summed in the
+     * same order as {@link #forward}.
+     */
+    abstract void forwardBatch(double[] input, double[] output, int count);
+
+}
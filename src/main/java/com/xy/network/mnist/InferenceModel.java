@@ -0,0 +1,161 @@
+package com.xy.network.mnist;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * An immutable copy of the weights of a {@link NeuralNetwork}, or a {@link #map mapping} of a model file, for inference
+ * only. Any number of threads may call {@code decide} concurrently: the weights are never written after construction
+ * and every thread works in its own scratch buffers.
+ *
+ * @see NeuralNetwork#snapshot()
+ */
+public class InferenceModel {
+    private static final int CHUNK = 64;
+
+    private final InferenceLayer[]     layer;
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * @param layer the layers, used as they are: they must not be written afterwards
+     */
+    InferenceModel(InferenceLayer[] layer) {
+        this.layer = layer;
+        int[] size = new int[layer.length + 1];
+        size[0] = layer[0].rows;
+        for (int i = 0; i < layer.length; i++) {
+            size[i + 1] = layer[i].cols;
+        }
+        scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+    }
+
+    /**
+     * Maps the weights of a file written by {@link NeuralNetwork#write(Path)} instead of loading them: they stay
+     * off-heap, in the page cache shared by every process mapping the same file, so that the heap used and the time
+     * taken do not grow with the model size. Weights are read as they are used, checksums are not verified.
+     */
+    public static InferenceModel map(Path file) throws IOException {
+        return new InferenceModel(ModelFile.map(file, false));
+    }
+
+    public int getInputSize() {
+        return layer[0].rows;
+    }
+
+    public int getOutputSize() {
+        return layer[layer.length - 1].cols;
+    }
+
+    public double[] decide(double[] input) {
+        double[] output = new double[getOutputSize()];
+        decide(input, output);
+        return output;
+    }
+
+    public void decide(double[] input, double[] output) {
+        checkSize(input, getInputSize());
+        checkSize(output, getOutputSize());
+        double[][] activation = scratch.get().vector;
+        activation[0] = input;
+        try {
+            for (int i = 0; i < layer.length; i++) {
+                layer[i].forward(activation[i], activation[i + 1]);
+            }
+            System.arraycopy(activation[layer.length], 0, output, 0, output.length);
+        } finally {
+            activation[0] = null;
+        }
+    }
+
+    /**
+     * Sparse variant of {@link #decide(double[], double[])}, see
+     * {@link NeuralNetwork#decide(int[], double[], int, double[])}.
+     */
+    public void decide(int[] index, double[] value, int count, double[] output) {
+        NeuralNetwork.checkSparse(index, value, count, getInputSize());
+        checkSize(output, getOutputSize());
+        double[][] activation = scratch.get().vector;
+        layer[0].forwardSparse(index, value, count, activation[1]);
+        for (int i = 1; i < layer.length; i++) {
+            layer[i].forward(activation[i], activation[i + 1]);
+        }
+        System.arraycopy(activation[layer.length], 0, output, 0, output.length);
+    }
+
+    /**
+     * Decides {@code in.length} samples, writing the results to the arrays of {@code out}. Samples are run through
+     * the batched kernels {@value #CHUNK} at a time.
+     */
+    public void decideBatch(double[][] in, double[][] out) {
+        if (in.length != out.length) {
+            throw new IllegalArgumentException("Expected " + in.length + " outputs, was " + out.length);
+        }
+        int inputSize = getInputSize();
+        int outputSize = getOutputSize();
+        double[][] activation = scratch.get().batch;
+        for (int from = 0; from < in.length; from += CHUNK) {
+            int count = Math.min(CHUNK, in.length - from);
+            for (int s = 0; s < count; s++) {
+                checkSize(in[from + s], inputSize);
+                checkSize(out[from + s], outputSize);
+                System.arraycopy(in[from + s], 0, activation[0], s * inputSize, inputSize);
+            }
+            forwardBatch(activation, count);
+            for (int s = 0; s < count; s++) {
+                System.arraycopy(activation[layer.length], s * outputSize, out[from + s], 0, outputSize);
+            }
+        }
+    }
+
+    /**
+     * Flat variant of {@link #decideBatch(double[][], double[][])}, {@code in} and {@code out} holding {@code count}
+     * row-major vectors.
+     */
+    public void decideBatch(double[] in, double[] out, int count) {
+        int inputSize = getInputSize();
+        int outputSize = getOutputSize();
+        if (count < 0 || in.length < count * inputSize || out.length < count * outputSize) {
+            throw new IllegalArgumentException("Illegal batch of " + count);
+        }
+        double[][] activation = scratch.get().batch;
+        for (int from = 0; from < count; from += CHUNK) {
+            int n = Math.min(CHUNK, count - from);
+            System.arraycopy(in, from * inputSize, activation[0], 0, n * inputSize);
+            forwardBatch(activation, n);
+            System.arraycopy(activation[layer.length], 0, out, from * outputSize, n * outputSize);
+        }
+    }
+
+    private void forwardBatch(double[][] activation, int count) {
+        for (int i = 0; i < layer.length; i++) {
+            layer[i].forwardBatch(activation[i], activation[i + 1], count);
+        }
+    }
+
+    private static void checkSize(double[] vector, int size) {
+        if (vector.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " elements, was " + vector.length);
+        }
+    }
+
+    /**
+     * The buffers of one thread. Static and built from the activation sizes only: the thread-local map of every
+     * thread that ever decided strongly references its scratch, which must not keep the model reachable.
+     */
+    private static final class Scratch {
+        final double[][] vector;
+        final double[][] batch;
+
+        Scratch(int[] size) {
+            vector = new double[size.length][];
+            batch = new double[size.length][];
+            batch[0] = new double[CHUNK * size[0]];
+            for (int i = 1; i < size.length; i++) {
+                vector[i] = new double[size[i]];
+                batch[i] = new double[CHUNK * size[i]];
+            }
+        }
+
+    }
+
+}
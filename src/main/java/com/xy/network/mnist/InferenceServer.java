@@ -0,0 +1,350 @@
+package com.xy.network.mnist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a model file written by {@link NeuralNetwork#write(Path)} over HTTP on the loopback interface. The model is
+ * {@link InferenceModel#map mapped}, so that servers of the same file share its weights.
+ * <ul>
+ * <li>{@code POST /decide} with the inputs as text, separated by commas or white space, answers the outputs separated
+ * by commas</li>
+ * <li>{@code POST /reload} reloads the model file, see {@link #reload()}</li>
+ * <li>{@code GET /metrics} answers {@link #toString()}</li>
+ * </ul>
+ * Concurrent requests are coalesced into micro-batches run through
+ * {@link InferenceModel#decideBatch(double[], double[], int)} by a single batcher thread. A batch is closed once it
+ * holds {@code maxBatch} requests, or once its first request waited {@code maxDelay}, whichever comes first.
+ */
+public class InferenceServer implements AutoCloseable {
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final Path                   file;
+    private final HttpServer             server;
+    private final ExecutorService        handlers;
+    private final Thread                 batcher;
+    private final BlockingQueue<Request> queue;
+    private final int                    maxBatch;
+    private final long                   maxDelay;
+    private final Histogram              latency    = new Histogram();
+    private final Histogram              queueWait  = new Histogram();
+    private final Histogram              batchTime  = new Histogram();
+    private final Histogram              batchSizes = new Histogram();
+    private final LongAdder              failures   = new LongAdder();
+    private final AtomicInteger          reloads    = new AtomicInteger();
+
+    private volatile InferenceModel model;
+    private volatile boolean        running = true;
+
+    /**
+     * @param port     the loopback port, 0 for any free one, see {@link #getPort()}
+     * @param threads  the number of connection handler threads, and so the maximum number of requests in flight
+     * @param maxBatch the maximum number of requests per batch
+     * @param maxDelay the maximum time a request waits for its batch to fill
+     */
+    public InferenceServer(Path file, int port, int threads, int maxBatch, long maxDelay, TimeUnit unit)
+            throws IOException {
+        if (threads < 1 || maxBatch < 1 || maxDelay < 0) {
+            throw new IllegalArgumentException("Illegal threads " + threads + ", batch " + maxBatch + " or delay " +
+                    maxDelay);
+        }
+        this.file = file;
+        this.model = InferenceModel.map(file);
+        this.maxBatch = maxBatch;
+        this.maxDelay = unit.toNanos(maxDelay);
+        queue = new ArrayBlockingQueue<>(threads);
+        batcher = new Thread(this::batch, "inference-batcher");
+        batcher.setDaemon(true);
+        handlers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "inference-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads);
+        server.setExecutor(handlers);
+        server.createContext("/decide", this::decide);
+        server.createContext("/reload", this::reload);
+        server.createContext("/metrics", this::metrics);
+        batcher.start();
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Maps the model file again and swaps it in between batches, requests in flight are answered by either model.
+     * The file is expected to be replaced atomically, as by {@link NeuralNetwork#write(Path)}.
+     *
+     * @throws IllegalArgumentException if the new model has different input or output sizes
+     */
+    public void reload() throws IOException {
+        InferenceModel reloaded = InferenceModel.map(file);
+        InferenceModel current = model;
+        if (reloaded.getInputSize() != current.getInputSize() ||
+                reloaded.getOutputSize() != current.getOutputSize()) {
+            throw new IllegalArgumentException("Expected " + current.getInputSize() + " inputs and " +
+                    current.getOutputSize() + " outputs, was " + reloaded.getInputSize() + " and " +
+                    reloaded.getOutputSize());
+        }
+        model = reloaded;
+        reloads.incrementAndGet();
+    }
+
+    /**
+     * @return the time from receiving a request to sending its response, in nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the time requests waited for their batch to start, in nanoseconds
+     */
+    public Histogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return the time to decide a batch, in nanoseconds
+     */
+    public Histogram getBatchTime() {
+        return batchTime;
+    }
+
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return the number of requests waiting for a batch
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public int getReloads() {
+        return reloads.get();
+    }
+
+    private void decide(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Expected POST");
+                return;
+            }
+            Request request = new Request(parse(read(exchange.getRequestBody()), model.getInputSize()));
+            if (!queue.offer(request)) {
+                respond(exchange, 503, "Queue full");
+                return;
+            }
+            double[] output = request.result.get(TIMEOUT, TimeUnit.NANOSECONDS);
+            StringBuilder builder = new StringBuilder();
+            for (int j = 0; j < output.length; j++) {
+                builder.append(j == 0 ? "" : ",").append(output[j]);
+            }
+            respond(exchange, 200, builder.toString());
+            latency.record(System.nanoTime() - start);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(exchange, e);
+        } catch (ExecutionException | TimeoutException e) {
+            fail(exchange, e);
+        }
+    }
+
+    private void fail(HttpExchange exchange, Exception e) throws IOException {
+        failures.increment();
+        respond(exchange, 500, String.valueOf(e));
+    }
+
+    private void reload(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Expected POST");
+            return;
+        }
+        try {
+            reload();
+            respond(exchange, 200, "Reloaded " + file);
+        } catch (IOException | RuntimeException e) {
+            respond(exchange, 500, String.valueOf(e));
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, toString());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static double[] parse(String text, int size) {
+        String trimmed = text.trim();
+        String[] values = trimmed.isEmpty() ? new String[0] : trimmed.split("[,\\s]+");
+        if (values.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " inputs, was " + values.length);
+        }
+        double[] input = new double[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                input[i] = Double.parseDouble(values[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Illegal input #" + i + ": " + values[i]);
+            }
+        }
+        return input;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * The batcher loop: waits for a first request, then for more until the batch is full or the first request's delay
+     * ran out.
+     */
+    private void batch() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        double[] in = new double[0];
+        double[] out = new double[0];
+        while (running) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueued + maxDelay;
+                while (batch.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            InferenceModel model = this.model;
+            int inputSize = model.getInputSize();
+            int outputSize = model.getOutputSize();
+            int count = batch.size();
+            if (in.length < count * inputSize || out.length < count * outputSize) {
+                in = new double[maxBatch * inputSize];
+                out = new double[maxBatch * outputSize];
+            }
+            long start = System.nanoTime();
+            for (int s = 0; s < count; s++) {
+                Request request = batch.get(s);
+                queueWait.record(start - request.enqueued);
+                System.arraycopy(request.input, 0, in, s * inputSize, inputSize);
+            }
+            try {
+                model.decideBatch(in, out, count);
+                batchTime.record(System.nanoTime() - start);
+                batchSizes.record(count);
+                for (int s = 0; s < count; s++) {
+                    double[] output = new double[outputSize];
+                    System.arraycopy(out, s * outputSize, output, 0, outputSize);
+                    batch.get(s).result.complete(output);
+                }
+            } catch (RuntimeException e) {
+                for (Request request : batch) {
+                    request.result.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        for (Request request : batch) {
+            request.result.completeExceptionally(new IllegalStateException("Closed"));
+        }
+    }
+
+    /**
+     * Stops accepting requests, then stops the batcher and the handlers.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        running = false;
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.result.completeExceptionally(new IllegalStateException("Closed"));
+        }
+        handlers.shutdown();
+    }
+
+    /**
+     * @return the request counts and the histograms, times in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("requests %d, failures %d, queue depth %d, reloads %d%n" +
+                        "latency      %s%nqueue wait   %s%nbatch time   %s%nbatch size   %s", latency.getCount(),
+                getFailures(), getQueueDepth(), getReloads(), micros(latency), micros(queueWait), micros(batchTime),
+                batchSizes);
+    }
+
+    private static String micros(Histogram histogram) {
+        return String.format("n=%d mean=%.1f p50<=%d p99<=%d us", histogram.getCount(), histogram.getMean() / 1e3,
+                histogram.getPercentile(50) / 1000, histogram.getPercentile(99) / 1000);
+    }
+
+    private static final class Request {
+        final double[]                    input;
+        final long                        enqueued = System.nanoTime();
+        final CompletableFuture<double[]> result   = new CompletableFuture<>();
+
+        Request(double[] input) {
+            this.input = input;
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The innermost loops of the layers and activations, as scalar Java 8 code. On Java 17 and later, with the
+ * {@code jdk.incubator.vector} module added ({@code --add-modules jdk.incubator.vector}), {@link #get()} returns the
+ * {@code VectorKernels} subclass instead, compiled from {@code src/main/java17} into the multi-release part of the jar,
+ * which runs the same loops on SIMD registers.
+ * <p>
+ * Element-wise kernels give identical results either way, except for the vectorized {@code exp} and {@code tanh},
+ * which may differ from {@link Math}'s by a few units in the last place. Dot products sum in a different order.
+ */
+class Kernels {
+    private static final Kernels INSTANCE = load();
+
+    /**
+     * @return the vectorized kernels if available, the scalar ones otherwise
+     */
+    static Kernels get() {
+        return INSTANCE;
+    }
+
+    private static Kernels load() {
+        try {
+            return (Kernels) Class.forName(Kernels.class.getPackage().getName() + ".VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new Kernels();
+        }
+    }
+
+    /**
+     * @return a short description of the implementation, e.g. its vector width
+     */
+    String name() {
+        return "scalar";
+    }
+
+    /**
+     * {@code y[yOffset + k] += a * x[xOffset + k]} for {@code k} in {@code [0, length)}
+     */
+    void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    /**
+     * {@link #axpy(double, double[], int, double[], int, int)} with {@code float} weights read.
+     */
+    void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    /**
+     * {@link #axpy(double, double[], int, double[], int, int)} with {@code float} weights updated, summing in
+     * {@code double} and rounding the result.
+     */
+    void axpy(double a, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    /**
+     * {@link #axpy(double, double[], int, double[], int, int)} with {@code double} weights read from a little-endian
+     * buffer, such as a mapping of a model file, {@code xOffset} counting weights rather than bytes.
+     */
+    void axpyDoubles(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            y[yOffset + k] += a * x.getDouble((xOffset + k) * Double.BYTES);
+        }
+    }
+
+    /**
+     * {@link #axpyDoubles} of {@code float} weights.
+     */
+    void axpyFloats(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            y[yOffset + k] += a * x.getFloat((xOffset + k) * Float.BYTES);
+        }
+    }
+
+    /**
+     * {@code y[yOffset + index[k]] += a * x[k]} for {@code k} in {@code [from, to)}, the sparse counterpart of
+     * {@link #axpy(double, double[], int, double[], int, int)}.
+     */
+    void scatter(double a, double[] x, int[] index, int from, int to, double[] y, int yOffset) {
+        for (int k = from; k < to; k++) {
+            y[yOffset + index[k]] += a * x[k];
+        }
+    }
+
+    void scatter(double a, float[] x, int[] index, int from, int to, double[] y, int yOffset) {
+        for (int k = from; k < to; k++) {
+            y[yOffset + index[k]] += a * x[k];
+        }
+    }
+
+    /**
+     * @return the sum of {@code x[xOffset + k] * y[k]} for {@code k} in {@code [0, length)}
+     */
+    double dot(double[] x, int xOffset, double[] y, int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += x[xOffset + k] * y[k];
+        }
+        return sum;
+    }
+
+    double dot(float[] x, int xOffset, double[] y, int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += x[xOffset + k] * y[k];
+        }
+        return sum;
+    }
+
+    /**
+     * {@code x = 1 / (1 + exp(-x))} over {@code [from, to)}
+     */
+    void sigmoid(double[] x, int from, int to) {
+        for (int k = from; k < to; k++) {
+            x[k] = 1 / (1 + Math.exp(-x[k]));
+        }
+    }
+
+    void tanh(double[] x, int from, int to) {
+        for (int k = from; k < to; k++) {
+            x[k] = Math.tanh(x[k]);
+        }
+    }
+
+    void relu(double[] x, int from, int to) {
+        for (int k = from; k < to; k++) {
+            x[k] = x[k] > 0 ? x[k] : 0;
+        }
+    }
+
+    /**
+     * {@code x = x > 0 ? x : leak * x} over {@code [from, to)}
+     */
+    void leakyRelu(double[] x, double leak, int from, int to) {
+        for (int k = from; k < to; k++) {
+            x[k] = x[k] > 0 ? x[k] : leak * x[k];
+        }
+    }
+
+}
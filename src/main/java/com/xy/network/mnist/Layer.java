@@ -0,0 +1,506 @@
+package com.xy.network.mnist;
+
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A trainable fully connected layer with an {@link Activation}. Weights are kept row-major in one contiguous array,
+ * {@code rows} being the input size and {@code cols} the output size, so that element {@code i * cols + j} connects
+ * input {@code i} to output {@code j}. Subclasses store the weights in a given {@link Precision}; activations and
+ * errors are always doubles.
+ * <p>
+ * The loops over the weights live here, written against a few typed accessors: {@link #get} and {@link #set} for
+ * single weights, and the row kernels {@link #addRow}, {@link #dotRow} and {@link #addToRow}, which subclasses pass on
+ * to the {@link Kernels} overloads of their weight array.
+ */
+abstract class Layer extends InferenceLayer {
+    static final int ROW_BLOCK = 64;
+    static final int COL_BLOCK = 256;
+
+    Layer(int rows, int cols, Activation activation) {
+        super(rows, cols, activation);
+    }
+
+    static Layer create(Precision precision, int rows, int cols, Activation activation) {
+        switch (precision) {
+        case DOUBLE:
+            return new DoubleLayer(rows, cols, activation);
+        case FLOAT:
+            return new FloatLayer(rows, cols, activation);
+        default:
+            throw new IllegalArgumentException("Unsupported precision " + precision);
+        }
+    }
+
+    abstract void set(int index, double value);
+
+    /**
+     * {@code y[yOffset, yOffset + length) += a * W[offset, offset + length)}
+     */
+    abstract void addRow(double a, int offset, double[] y, int yOffset, int length);
+
+    /**
+     * @return the dot product of {@code W[offset, offset + length)} and {@code y[0, length)}
+     */
+    abstract double dotRow(int offset, double[] y, int length);
+
+    /**
+     * {@code W[offset, offset + length) += a * x[xOffset, xOffset + length)}
+     */
+    abstract void addToRow(double a, double[] x, int xOffset, int offset, int length);
+
+    abstract Layer copy();
+
+    /**
+     * Copies the weights of {@code source}, a layer of the same shape and precision.
+     */
+    abstract void copyFrom(Layer source);
+
+    @Override
+    Layer convert(Precision precision) {
+        return precision == precision() ? copy() : super.convert(precision);
+    }
+
+    /**
+     * Sets the weights to values of {@code supplier}, scaled to a unit Frobenius norm.
+     */
+    void randomize(DoubleSupplier supplier) {
+        double sum = 0;
+        for (int k = 0; k < size(); k++) {
+            double value = supplier.getAsDouble();
+            set(k, value);
+            sum += value * value;
+        }
+        double factor = 1 / Math.sqrt(sum);
+        for (int k = 0; k < size(); k++) {
+            set(k, get(k) * factor);
+        }
+    }
+
+    /**
+     * {@inheritDoc} Row by row through {@link #addRow}.
+     */
+    @Override
+    void forward(double[] input, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            double x = input[i];
+            if (x == 0) {
+                continue;
+            }
+            addRow(x, offset + from, output, from, to - from);
+        }
+        activation.apply(output, from, to);
+    }
+
+    @Override
+    void forwardSparse(int[] index, double[] value, int count, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int k = 0; k < count; k++) {
+            addRow(value[k], index[k] * cols + from, output, from, to - from);
+        }
+        activation.apply(output, from, to);
+    }
+
+    /**
+     * {@code previous = W * error}
+     */
+    void backward(double[] error, double[] previous) {
+        backward(error, previous, 0, rows);
+    }
+
+    /**
+     * {@link #backward(double[], double[])} of the inputs {@code [from, to)}, that is of the weight rows.
+     */
+    void backward(double[] error, double[] previous, int from, int to) {
+        for (int i = from, offset = from * cols; i < to; i++, offset += cols) {
+            previous[i] = dotRow(offset, error, cols);
+        }
+    }
+
+    /**
+     * {@code W -= rate * input (x) gradient}, {@code gradient} being a scratch buffer of {@code cols} elements
+     * receiving {@link Activation#gradient} of {@code output} and {@code error}, scaled by {@code -rate}. Each weight
+     * gets {@code input[i] * (gradient[j] * -rate)} added, rounded as in {@link #updateBatch} of one sample.
+     */
+    void update(double[] input, double[] output, double[] error, double[] gradient, double rate) {
+        update(input, output, error, gradient, rate, 0, cols);
+    }
+
+    /**
+     * {@link #update(double[], double[], double[], double[], double)} of the weight columns {@code [from, to)}.
+     */
+    void update(double[] input, double[] output, double[] error, double[] gradient, double rate, int from, int to) {
+        activation.gradient(output, error, gradient, from, to);
+        scale(gradient, from, to, -rate);
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            double x = input[i];
+            if (x == 0) {
+                continue;
+            }
+            addToRow(x, gradient, from, offset + from, to - from);
+        }
+    }
+
+    /**
+     * {@link #update} of a sparse input, only touching the rows of the non-zero inputs.
+     */
+    void updateSparse(int[] index, double[] value, int count, double[] output, double[] error, double[] gradient,
+            double rate) {
+        updateSparse(index, value, count, output, error, gradient, rate, 0, cols);
+    }
+
+    /**
+     * {@link #updateSparse(int[], double[], int, double[], double[], double[], double)} of the weight columns
+     * {@code [from, to)}.
+     */
+    void updateSparse(int[] index, double[] value, int count, double[] output, double[] error, double[] gradient,
+            double rate, int from, int to) {
+        activation.gradient(output, error, gradient, from, to);
+        scale(gradient, from, to, -rate);
+        for (int k = 0; k < count; k++) {
+            addToRow(value[k], gradient, from, index[k] * cols + from, to - from);
+        }
+    }
+
+    /**
+     * {@link #update} through an {@link Optimizer}: each row of the weight gradient is built in {@code row}, a scratch
+     * buffer of {@code cols} elements, turned into a step by the optimizer and subtracted.
+     *
+     * @param state the optimizer state of this layer
+     * @param t     the one-based number of the update
+     */
+    void optimize(double[] input, double[] output, double[] error, double[] gradient, Optimizer optimizer,
+            double[][] state, double rate, long t, double[] row) {
+        activation.gradient(output, error, gradient, 0, cols);
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            double x = input[i];
+            for (int j = 0; j < cols; j++) {
+                row[j] = x * gradient[j];
+            }
+            optimizer.step(state, row, 0, offset, cols, rate, t);
+            subtractTile(row, i, i + 1, 0, cols, 1);
+        }
+    }
+
+    /**
+     * {@inheritDoc} The weight matrix is walked in {@link #ROW_BLOCK} x {@link #COL_BLOCK} tiles, each tile being
+     * applied to every sample while it is hot in cache.
+     */
+    @Override
+    void forwardBatch(double[] input, double[] output, int count) {
+        Arrays.fill(output, 0, count * cols, 0);
+        for (int i0 = 0; i0 < rows; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, rows);
+            for (int j0 = 0; j0 < cols; j0 += COL_BLOCK) {
+                int j1 = Math.min(j0 + COL_BLOCK, cols);
+                int s = 0;
+                for (; s + 4 <= count; s += 4) {
+                    forwardTile(input, output, s, i0, i1, j0, j1);
+                }
+                for (; s < count; s++) {
+                    int in = s * rows, out = s * cols;
+                    for (int i = i0; i < i1; i++) {
+                        double x = input[in + i];
+                        int offset = i * cols;
+                        for (int j = j0; j < j1; j++) {
+                            output[out + j] += x * get(offset + j);
+                        }
+                    }
+                }
+            }
+        }
+        activation.apply(output, 0, count * cols);
+    }
+
+    /**
+     * Four samples starting at {@code s} against the weight tile {@code [i0, i1) x [j0, j1)}, keeping a 4 x 4 block of
+     * outputs in registers while walking down the rows.
+     */
+    private void forwardTile(double[] input, double[] output, int s, int i0, int i1, int j0, int j1) {
+        int in0 = s * rows, in1 = in0 + rows, in2 = in1 + rows, in3 = in2 + rows;
+        int out0 = s * cols, out1 = out0 + cols, out2 = out1 + cols, out3 = out2 + cols;
+        int j = j0;
+        for (; j + 4 <= j1; j += 4) {
+            double y00 = output[out0 + j], y01 = output[out0 + j + 1], y02 = output[out0 + j + 2];
+            double y03 = output[out0 + j + 3];
+            double y10 = output[out1 + j], y11 = output[out1 + j + 1], y12 = output[out1 + j + 2];
+            double y13 = output[out1 + j + 3];
+            double y20 = output[out2 + j], y21 = output[out2 + j + 1], y22 = output[out2 + j + 2];
+            double y23 = output[out2 + j + 3];
+            double y30 = output[out3 + j], y31 = output[out3 + j + 1], y32 = output[out3 + j + 2];
+            double y33 = output[out3 + j + 3];
+            for (int i = i0, w = i0 * cols + j; i < i1; i++, w += cols) {
+                double w0 = get(w), w1 = get(w + 1), w2 = get(w + 2), w3 = get(w + 3);
+                double x0 = input[in0 + i], x1 = input[in1 + i], x2 = input[in2 + i], x3 = input[in3 + i];
+                y00 += x0 * w0;
+                y01 += x0 * w1;
+                y02 += x0 * w2;
+                y03 += x0 * w3;
+                y10 += x1 * w0;
+                y11 += x1 * w1;
+                y12 += x1 * w2;
+                y13 += x1 * w3;
+                y20 += x2 * w0;
+                y21 += x2 * w1;
+                y22 += x2 * w2;
+                y23 += x2 * w3;
+                y30 += x3 * w0;
+                y31 += x3 * w1;
+                y32 += x3 * w2;
+                y33 += x3 * w3;
+            }
+            output[out0 + j] = y00;
+            output[out0 + j + 1] = y01;
+            output[out0 + j + 2] = y02;
+            output[out0 + j + 3] = y03;
+            output[out1 + j] = y10;
+            output[out1 + j + 1] = y11;
+            output[out1 + j + 2] = y12;
+            output[out1 + j + 3] = y13;
+            output[out2 + j] = y20;
+            output[out2 + j + 1] = y21;
+            output[out2 + j + 2] = y22;
+            output[out2 + j + 3] = y23;
+            output[out3 + j] = y30;
+            output[out3 + j + 1] = y31;
+            output[out3 + j + 2] = y32;
+            output[out3 + j + 3] = y33;
+        }
+        for (; j < j1; j++) {
+            double y0 = output[out0 + j], y1 = output[out1 + j], y2 = output[out2 + j], y3 = output[out3 + j];
+            for (int i = i0, w = i0 * cols + j; i < i1; i++, w += cols) {
+                double wij = get(w);
+                y0 += input[in0 + i] * wij;
+                y1 += input[in1 + i] * wij;
+                y2 += input[in2 + i] * wij;
+                y3 += input[in3 + i] * wij;
+            }
+            output[out0 + j] = y0;
+            output[out1 + j] = y1;
+            output[out2 + j] = y2;
+            output[out3 + j] = y3;
+        }
+    }
+
+    /**
+     * {@code previous = error * W^T} for {@code count} row-major samples, blocked like {@link #forwardBatch}.
+     */
+    void backwardBatch(double[] error, double[] previous, int count) {
+        Arrays.fill(previous, 0, count * rows, 0);
+        for (int i0 = 0; i0 < rows; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, rows);
+            for (int j0 = 0; j0 < cols; j0 += COL_BLOCK) {
+                int j1 = Math.min(j0 + COL_BLOCK, cols);
+                int s = 0;
+                for (; s + 4 <= count; s += 4) {
+                    int err0 = s * cols, err1 = err0 + cols, err2 = err1 + cols, err3 = err2 + cols;
+                    int prev0 = s * rows, prev1 = prev0 + rows, prev2 = prev1 + rows, prev3 = prev2 + rows;
+                    int i = i0;
+                    for (; i + 2 <= i1; i += 2) {
+                        int offset = i * cols, next = offset + cols;
+                        double sum00 = previous[prev0 + i], sum01 = previous[prev0 + i + 1];
+                        double sum10 = previous[prev1 + i], sum11 = previous[prev1 + i + 1];
+                        double sum20 = previous[prev2 + i], sum21 = previous[prev2 + i + 1];
+                        double sum30 = previous[prev3 + i], sum31 = previous[prev3 + i + 1];
+                        for (int j = j0; j < j1; j++) {
+                            double w0 = get(offset + j), w1 = get(next + j);
+                            double e0 = error[err0 + j], e1 = error[err1 + j];
+                            double e2 = error[err2 + j], e3 = error[err3 + j];
+                            sum00 += w0 * e0;
+                            sum01 += w1 * e0;
+                            sum10 += w0 * e1;
+                            sum11 += w1 * e1;
+                            sum20 += w0 * e2;
+                            sum21 += w1 * e2;
+                            sum30 += w0 * e3;
+                            sum31 += w1 * e3;
+                        }
+                        previous[prev0 + i] = sum00;
+                        previous[prev0 + i + 1] = sum01;
+                        previous[prev1 + i] = sum10;
+                        previous[prev1 + i + 1] = sum11;
+                        previous[prev2 + i] = sum20;
+                        previous[prev2 + i + 1] = sum21;
+                        previous[prev3 + i] = sum30;
+                        previous[prev3 + i + 1] = sum31;
+                    }
+                    for (; i < i1; i++) {
+                        int offset = i * cols;
+                        double sum0 = previous[prev0 + i], sum1 = previous[prev1 + i];
+                        double sum2 = previous[prev2 + i], sum3 = previous[prev3 + i];
+                        for (int j = j0; j < j1; j++) {
+                            double w = get(offset + j);
+                            sum0 += w * error[err0 + j];
+                            sum1 += w * error[err1 + j];
+                            sum2 += w * error[err2 + j];
+                            sum3 += w * error[err3 + j];
+                        }
+                        previous[prev0 + i] = sum0;
+                        previous[prev1 + i] = sum1;
+                        previous[prev2 + i] = sum2;
+                        previous[prev3 + i] = sum3;
+                    }
+                }
+                for (; s < count; s++) {
+                    int err = s * cols, prev = s * rows;
+                    for (int i = i0; i < i1; i++) {
+                        int offset = i * cols;
+                        double sum = previous[prev + i];
+                        for (int j = j0; j < j1; j++) {
+                            sum += get(offset + j) * error[err + j];
+                        }
+                        previous[prev + i] = sum;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns the {@code count} row-major errors into gradients in place, see {@link Activation#gradient}.
+     */
+    void gradientBatch(double[] output, double[] error, int count) {
+        activation.gradient(output, error, error, 0, count * cols);
+    }
+
+    /**
+     * {@code W -= scale * input^T * gradient} over {@code count} row-major samples. The gradients are scaled by
+     * {@code -scale} in place first, so that a batch of one sample adds the same products as {@link #update}. Each
+     * weight tile then accumulates its share of the product in {@code tile}, a scratch buffer of {@link #ROW_BLOCK} *
+     * {@link #COL_BLOCK} elements, and is written back once.
+     */
+    void updateBatch(double[] input, double[] gradient, int count, double scale, double[] tile) {
+        scale(gradient, 0, count * cols, -scale);
+        for (int i0 = 0; i0 < rows; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, rows);
+            for (int j0 = 0; j0 < cols; j0 += COL_BLOCK) {
+                int j1 = Math.min(j0 + COL_BLOCK, cols);
+                accumulateTile(input, gradient, count, tile, i0, i1, j0, j1);
+                subtractTile(tile, i0, i1, j0, j1, -1);
+            }
+        }
+    }
+
+    /**
+     * {@link #updateBatch} through an {@link Optimizer}, each tile of the mean gradient
+     * {@code input^T * gradient / count} being turned into a step by the optimizer before it is subtracted.
+     */
+    void optimizeBatch(double[] input, double[] gradient, int count, double[] tile, Optimizer optimizer,
+            double[][] state, double rate, long t) {
+        double scale = 1.0 / count;
+        for (int i0 = 0; i0 < rows; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, rows);
+            for (int j0 = 0; j0 < cols; j0 += COL_BLOCK) {
+                int j1 = Math.min(j0 + COL_BLOCK, cols);
+                int width = j1 - j0;
+                accumulateTile(input, gradient, count, tile, i0, i1, j0, j1);
+                for (int i = i0, from = 0; i < i1; i++, from += width) {
+                    for (int k = from; k < from + width; k++) {
+                        tile[k] *= scale;
+                    }
+                    optimizer.step(state, tile, from, i * cols + j0, width, rate, t);
+                }
+                subtractTile(tile, i0, i1, j0, j1, 1);
+            }
+        }
+    }
+
+    /**
+     * {@code target += input^T * gradient} over {@code count} row-major samples, {@code target} being in the weight
+     * layout. Tiled like {@link #updateBatch}.
+     */
+    void accumulateBatch(double[] input, double[] gradient, int count, double[] tile, double[] target) {
+        for (int i0 = 0; i0 < rows; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, rows);
+            for (int j0 = 0; j0 < cols; j0 += COL_BLOCK) {
+                int j1 = Math.min(j0 + COL_BLOCK, cols);
+                int width = j1 - j0;
+                accumulateTile(input, gradient, count, tile, i0, i1, j0, j1);
+                for (int i = i0, t = -j0; i < i1; i++, t += width) {
+                    int offset = i * cols;
+                    for (int j = j0; j < j1; j++) {
+                        target[offset + j] += tile[t + j];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code tile = input^T * gradient} restricted to the rows {@code [i0, i1)} and columns {@code [j0, j1)}, the
+     * tile being row-major with {@code j1 - j0} columns.
+     */
+    private void accumulateTile(double[] input, double[] gradient, int count, double[] tile, int i0, int i1, int j0,
+            int j1) {
+        int width = j1 - j0;
+        Arrays.fill(tile, 0, (i1 - i0) * width, 0);
+        int s = 0;
+        for (; s + 4 <= count; s += 4) {
+            int in0 = s * rows, in1 = in0 + rows, in2 = in1 + rows, in3 = in2 + rows;
+            int grad0 = s * cols, grad1 = grad0 + cols, grad2 = grad1 + cols, grad3 = grad2 + cols;
+            for (int i = i0, t = -j0; i < i1; i++, t += width) {
+                double x0 = input[in0 + i], x1 = input[in1 + i], x2 = input[in2 + i], x3 = input[in3 + i];
+                for (int j = j0; j < j1; j++) {
+                    tile[t + j] += x0 * gradient[grad0 + j] + x1 * gradient[grad1 + j] +
+                            x2 * gradient[grad2 + j] + x3 * gradient[grad3 + j];
+                }
+            }
+        }
+        for (; s < count; s++) {
+            int in = s * rows, grad = s * cols;
+            for (int i = i0, t = -j0; i < i1; i++, t += width) {
+                double x = input[in + i];
+                if (x == 0) {
+                    continue;
+                }
+                for (int j = j0; j < j1; j++) {
+                    tile[t + j] += x * gradient[grad + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code x[from, to) *= factor}
+     */
+    static void scale(double[] x, int from, int to, double factor) {
+        for (int k = from; k < to; k++) {
+            x[k] *= factor;
+        }
+    }
+
+    /**
+     * {@code W -= scale * tile} over the rows {@code [i0, i1)} and columns {@code [j0, j1)}.
+     */
+    void subtractTile(double[] tile, int i0, int i1, int j0, int j1, double scale) {
+        int width = j1 - j0;
+        for (int i = i0, t = 0; i < i1; i++, t += width) {
+            addToRow(-scale, tile, t, i * cols + j0, width);
+        }
+    }
+
+    /**
+     * {@code W[from, to) -= scale * delta[from, to)}, {@code delta} being in the weight layout.
+     */
+    void subtract(double[] delta, int from, int to, double scale) {
+        addToRow(-scale, delta, from, from, to - from);
+    }
+
+    /**
+     * Zeroes the weights in {@code [from, to)} whose bit is clear in {@code keep}, bit {@code k % 64} of word
+     * {@code k / 64} standing for weight {@code k}, see {@link NeuralNetwork#prune(double)}.
+     */
+    void mask(long[] keep, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if ((keep[k >>> 6] & 1L << k) == 0) {
+                set(k, 0);
+            }
+        }
+    }
+
+}
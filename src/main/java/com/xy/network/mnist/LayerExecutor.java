@@ -0,0 +1,199 @@
+package com.xy.network.mnist;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed pool of threads splitting the neurons of one layer at a time, to lower the latency of a single sample on
+ * wide layers, see {@link NeuralNetwork#setLayerExecutor(LayerExecutor)}.
+ * <p>
+ * Dispatch is a volatile write and an unpark per helper: helpers spin briefly on the next dispatch before parking, and
+ * the calling thread computes the first part itself before spinning on the others. Layers are only split when every
+ * part gets at least {@code minimumWork} multiply-adds, smaller ones run on the calling thread alone.
+ * <p>
+ * One layer is dispatched at a time: an executor may be shared by networks used on the same thread, concurrent
+ * dispatches are rejected.
+ */
+public class LayerExecutor implements AutoCloseable {
+    /**
+     * The default minimum work of a part, in multiply-adds, some tens of microseconds.
+     */
+    public static final int DEFAULT_MINIMUM_WORK = 1 << 15;
+
+    private static final int SPINS     = 1 << 14;
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * A computation over the index range {@code [from, to)}.
+     */
+    @FunctionalInterface
+    interface Range {
+
+        void run(int from, int to);
+
+    }
+
+    private final Thread[]        helper;
+    private final AtomicLongArray assigned;
+    private final long            minimumWork;
+    private final AtomicInteger   pending = new AtomicInteger();
+    private final AtomicBoolean   busy    = new AtomicBoolean();
+
+    private Range  range;
+    private int    size;
+    private int    parts;
+    private Thread caller;
+    private long   generation;
+
+    private volatile boolean   closed;
+    private volatile Throwable failure;
+
+    public LayerExecutor(int threads) {
+        this(threads, DEFAULT_MINIMUM_WORK);
+    }
+
+    /**
+     * @param threads     the number of helper threads, the calling thread being one more
+     * @param minimumWork the multiply-adds below which a part is not worth a thread
+     */
+    public LayerExecutor(int threads, long minimumWork) {
+        if (threads < 1 || minimumWork < 1) {
+            throw new IllegalArgumentException("Illegal threads " + threads + " or minimum work " + minimumWork);
+        }
+        this.minimumWork = minimumWork;
+        helper = new Thread[threads];
+        assigned = new AtomicLongArray(threads);
+        for (int k = 0; k < threads; k++) {
+            int part = k + 1;
+            helper[k] = new Thread(() -> work(part), "layer-executor-" + part);
+            helper[k].setDaemon(true);
+            helper[k].start();
+        }
+    }
+
+    /**
+     * @return the number of threads a layer may be split over, the calling thread included
+     */
+    public int getParallelism() {
+        return helper.length + 1;
+    }
+
+    /**
+     * Runs {@code range} over {@code [0, size)}, split in parts of at least {@code minimumWork} out of {@code work}
+     * multiply-adds. Returns once all parts are done, even when one throws: the exception of the calling thread's part
+     * is rethrown as is, that of a helper wrapped in an {@link IllegalStateException}.
+     */
+    void run(Range range, int size, long work) {
+        int parts = (int) Math.min(Math.min(helper.length + 1, work / minimumWork), size / ALIGNMENT);
+        if (parts <= 1) {
+            range.run(0, size);
+            return;
+        }
+        if (closed || !busy.compareAndSet(false, true)) {
+            throw new IllegalStateException(closed ? "Closed" : "Concurrent dispatch");
+        }
+        try {
+            this.range = range;
+            this.size = size;
+            this.parts = parts;
+            this.caller = Thread.currentThread();
+            pending.set(parts - 1);
+            generation++;
+            for (int k = 0; k < parts - 1; k++) {
+                assigned.set(k, generation);
+                LockSupport.unpark(helper[k]);
+            }
+            try {
+                range.run(0, bound(1));
+            } catch (RuntimeException | Error e) {
+                Throwable failure = await();
+                if (failure != null && failure != e) {
+                    e.addSuppressed(failure);
+                }
+                throw e;
+            }
+            Throwable failure = await();
+            if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+        } finally {
+            this.range = null;
+            this.caller = null;
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Waits for the helpers to finish their parts, so that none is still running the range once the dispatch is over.
+     *
+     * @return the failure of a helper, if any, cleared for the next dispatch
+     */
+    private Throwable await() {
+        for (int spins = SPINS; pending.get() > 0; ) {
+            if (spins > 0) {
+                spins--;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        Throwable failure = this.failure;
+        this.failure = null;
+        return failure;
+    }
+
+    private int bound(int part) {
+        return part == parts ? size : (int) ((long) size * part / parts) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Runs the parts assigned to helper {@code part - 1}, the assignment publishing the fields of the dispatch.
+     */
+    private void work(int part) {
+        long seen = 0;
+        while (true) {
+            long current;
+            for (int spins = SPINS; (current = assigned.get(part - 1)) == seen && !closed; ) {
+                if (spins > 0) {
+                    spins--;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            if (closed) {
+                return;
+            }
+            seen = current;
+            Thread caller = this.caller;
+            try {
+                range.run(bound(part), bound(part + 1));
+            } catch (Throwable e) {
+                failure = e;
+            }
+            if (pending.decrementAndGet() == 0) {
+                LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    /**
+     * Stops the helper threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : helper) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : helper) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.xy.network.mnist;
+
+/**
+ * Scales the learning rate passed to {@code learn} as training proceeds.
+ *
+ * @see NeuralNetwork#setSchedule(LearningRateSchedule)
+ */
+@FunctionalInterface
+public interface LearningRateSchedule {
+
+    /**
+     * @param step the one-based number of the weight update, see {@link NeuralNetwork#getStep()}
+     * @return the factor applied to the learning rate
+     */
+    double factor(long step);
+
+    static LearningRateSchedule constant() {
+        return step -> 1;
+    }
+
+    /**
+     * @return a factor multiplied by {@code decay} every {@code interval} updates
+     */
+    static LearningRateSchedule step(long interval, double decay) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Expected > 0, was " + interval);
+        }
+        return step -> Math.pow(decay, (step - 1) / interval);
+    }
+
+    /**
+     * @return {@code decay ^ (step - 1)}
+     */
+    static LearningRateSchedule exponential(double decay) {
+        return step -> Math.pow(decay, step - 1);
+    }
+
+    /**
+     * @return a linear warm-up from {@code 1 / warmup} to 1 over {@code warmup} updates, then a cosine decay down to
+     *         {@code minimum} at update {@code total}, staying there afterwards
+     */
+    static LearningRateSchedule cosine(long warmup, long total, double minimum) {
+        if (warmup < 0 || total <= warmup) {
+            throw new IllegalArgumentException("Illegal schedule " + warmup + "/" + total);
+        }
+        return step -> {
+            if (step <= warmup) {
+                return (double) step / warmup;
+            }
+            double progress = Math.min(1, (double) (step - warmup) / (total - warmup));
+            return minimum + (1 - minimum) * 0.5 * (1 + Math.cos(Math.PI * progress));
+        };
+    }
+
+}
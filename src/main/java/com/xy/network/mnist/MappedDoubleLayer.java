@@ -0,0 +1,29 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MappedLayer} of {@code double}s.
+ */
+final class MappedDoubleLayer extends MappedLayer {
+
+    MappedDoubleLayer(int rows, int cols, Activation activation, ByteBuffer weight) {
+        super(rows, cols, activation, weight);
+    }
+
+    @Override
+    Precision precision() {
+        return Precision.DOUBLE;
+    }
+
+    @Override
+    double get(int index) {
+        return weight.getDouble(index * Double.BYTES);
+    }
+
+    @Override
+    void addRow(double a, int offset, double[] y, int yOffset, int length) {
+        KERNELS.axpyDoubles(a, weight, offset, y, yOffset, length);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MappedLayer} of {@code float}s.
+ */
+final class MappedFloatLayer extends MappedLayer {
+
+    MappedFloatLayer(int rows, int cols, Activation activation, ByteBuffer weight) {
+        super(rows, cols, activation, weight);
+    }
+
+    @Override
+    Precision precision() {
+        return Precision.FLOAT;
+    }
+
+    @Override
+    double get(int index) {
+        return weight.getFloat(index * Float.BYTES);
+    }
+
+    @Override
+    void addRow(double a, int offset, double[] y, int yOffset, int length) {
+        KERNELS.axpyFloats(a, weight, offset, y, yOffset, length);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A layer whose weights live off-heap, in a little-endian buffer mapped over a model file, see {@link ModelFile#map}.
+ * Read-only and never trained: the weights are read in place through the {@link Kernels}, which load whole vectors
+ * from the buffer when vectorized.
+ */
+abstract class MappedLayer extends InferenceLayer {
+    final ByteBuffer weight;
+
+    MappedLayer(int rows, int cols, Activation activation, ByteBuffer weight) {
+        super(rows, cols, activation);
+        this.weight = weight;
+    }
+
+    static MappedLayer create(Precision precision, int rows, int cols, Activation activation, ByteBuffer weight) {
+        if (weight.capacity() != (long) rows * cols * precision.bytes()) {
+            throw new IllegalArgumentException("Expected " + (long) rows * cols * precision.bytes() + " bytes, was " +
+                    weight.capacity());
+        }
+        switch (precision) {
+        case DOUBLE:
+            return new MappedDoubleLayer(rows, cols, activation, weight);
+        case FLOAT:
+            return new MappedFloatLayer(rows, cols, activation, weight);
+        default:
+            throw new IllegalArgumentException("Unsupported precision " + precision);
+        }
+    }
+
+    /**
+     * {@code y[yOffset, yOffset + length) += a * W[offset, offset + length)}
+     */
+    abstract void addRow(double a, int offset, double[] y, int yOffset, int length);
+
+    @Override
+    void forward(double[] input, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int i = 0, offset = 0; i < rows; i++, offset += cols) {
+            double x = input[i];
+            if (x == 0) {
+                continue;
+            }
+            addRow(x, offset + from, output, from, to - from);
+        }
+        activation.apply(output, from, to);
+    }
+
+    @Override
+    void forwardSparse(int[] index, double[] value, int count, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int k = 0; k < count; k++) {
+            addRow(value[k], index[k] * cols + from, output, from, to - from);
+        }
+        activation.apply(output, from, to);
+    }
+
+    /**
+     * Walks the weights in blocks of {@link Layer#ROW_BLOCK} rows, each block being applied to every sample while it
+     * is hot in cache, so that the page cache is read once per batch rather than once per sample.
+     */
+    @Override
+    void forwardBatch(double[] input, double[] output, int count) {
+        Arrays.fill(output, 0, count * cols, 0);
+        for (int i0 = 0; i0 < rows; i0 += Layer.ROW_BLOCK) {
+            int i1 = Math.min(i0 + Layer.ROW_BLOCK, rows);
+            for (int s = 0; s < count; s++) {
+                int in = s * rows, out = s * cols;
+                for (int i = i0; i < i1; i++) {
+                    double x = input[in + i];
+                    if (x != 0) {
+                        addRow(x, i * cols, output, out, cols);
+                    }
+                }
+            }
+        }
+        activation.apply(output, 0, count * cols);
+    }
+
+}
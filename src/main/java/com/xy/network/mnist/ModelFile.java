@@ -0,0 +1,588 @@
+package com.xy.network.mnist;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes network files.
+ * <p>
+ * Version 2 layout, little-endian after the magic number:
+ * <pre>
+ * header       64 bytes   magic "XYNN", version, flags, layer count, table offset (long), file length (long),
+ *                         optimizer offset (long), zeros
+ * layer table  32 bytes   rows, cols, encoding, activation, block offset (long), block CRC-32, non-zero count
+ *              per layer
+ * blocks                  row-major weights of each layer, as doubles or floats depending on the encoding, every
+ *                         block starting at a multiple of 64 bytes; for the sparse encodings, the non-zero weights in
+ *                         compressed sparse row form instead: rows + 1 row starts and the column of every weight as
+ *                         ints, zeros up to a multiple of 8 bytes, then the weights
+ * optimizer    64 bytes   optional: optimizer id, state slots, update count (long), 3 parameters (doubles), CRC-32
+ *                         of the state, zeros; followed by the state arrays of every layer and slot as doubles, each
+ *                         starting at a multiple of 64 bytes
+ * </pre>
+ * The activation is the {@link Activation#id()}, 0 being the sigmoid. The block alignment lets the weights be
+ * bulk-copied or mapped and used in place. The CRC-32 of each block is written and verified when {@link #FLAG_CHECKSUM}
+ * is set.
+ * <p>
+ * The non-zero count is 0 for dense encodings. Sparse layers are read as {@link SparseLayer}s, on the heap even when
+ * mapped. Files without optimizer have a zero optimizer offset. Files are written to a temporary sibling, synced and
+ * renamed over the target, so that a crash never leaves a truncated file behind. Version 1 files, a big-endian layer
+ * count followed by rows, cols and the weights of every layer, are still read.
+ */
+final class ModelFile {
+    static final int MAGIC   = 0x58594E4E;
+    static final int VERSION = 2;
+
+    static final int FLAG_CHECKSUM   = 1;
+    static final int ENCODING_DOUBLE = 1;
+    static final int ENCODING_FLOAT  = 2;
+
+    static final int ENCODING_SPARSE_DOUBLE = 3;
+    static final int ENCODING_SPARSE_FLOAT  = 4;
+
+    static final int HEADER_SIZE = 64;
+    static final int ENTRY_SIZE  = 32;
+    static final int ALIGNMENT   = 64;
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    static final int OPTIMIZER_PARAMETERS = 3;
+
+    /**
+     * The layers of a network file, with the optimizer state if it was saved.
+     */
+    static final class Contents {
+        final InferenceLayer[] layer;
+        final Optimizer        optimizer;
+        final double[][][]     state;
+        final long             step;
+
+        Contents(InferenceLayer[] layer, Optimizer optimizer, double[][][] state, long step) {
+            this.layer = layer;
+            this.optimizer = optimizer;
+            this.state = state;
+            this.step = step;
+        }
+
+    }
+
+    static InferenceLayer[] read(Path file) throws IOException {
+        return readContents(file).layer;
+    }
+
+    static Contents readContents(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, magic, 0);
+            magic.flip();
+            return magic.getInt() == MAGIC ? readVersion2(channel) : new Contents(readVersion1(channel), null, null, 0);
+        }
+    }
+
+    private static Contents readVersion2(FileChannel channel) throws IOException {
+        Table table = new Table(channel);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        InferenceLayer[] layer = new InferenceLayer[table.size];
+        for (int i = 0; i < table.size; i++) {
+            CRC32 checksum = table.checksum ? new CRC32() : null;
+            if (table.sparse[i]) {
+                layer[i] = readSparse(channel, table, i, checksum);
+            } else {
+                Layer dense = Layer.create(table.precision[i], table.rows[i], table.cols[i], table.activation[i]);
+                readBlock(channel, table.offset[i], bytes, dense, checksum);
+                layer[i] = dense;
+            }
+            if (checksum != null && (int) checksum.getValue() != table.crc[i]) {
+                throw new IllegalArgumentException("Checksum mismatch in layer #" + i);
+            }
+        }
+        if (table.optimizerOffset == 0) {
+            return new Contents(layer, null, null, 0);
+        }
+        return readOptimizer(channel, table.optimizerOffset, table.length, bytes, layer, table.checksum);
+    }
+
+    /**
+     * Maps the weight blocks of a version 2 file read-only, without copying them: the layers read the weights from
+     * the page cache, which all processes mapping the file share. The mappings stay valid after the file is replaced
+     * by {@link #write}, as it is renamed over rather than rewritten, and are released when the layers are collected.
+     *
+     * @param verify whether to verify the checksums, reading every weight once
+     */
+    static InferenceLayer[] map(Path file, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, magic, 0);
+            magic.flip();
+            if (magic.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Only version " + VERSION + " files can be mapped");
+            }
+            Table table = new Table(channel);
+            InferenceLayer[] layer = new InferenceLayer[table.size];
+            for (int i = 0; i < table.size; i++) {
+                if (table.sparse[i]) {
+                    CRC32 checksum = verify && table.checksum ? new CRC32() : null;
+                    layer[i] = readSparse(channel, table, i, checksum);
+                    if (checksum != null && (int) checksum.getValue() != table.crc[i]) {
+                        throw new IllegalArgumentException("Checksum mismatch in layer #" + i);
+                    }
+                    continue;
+                }
+                long size = (long) table.rows[i] * table.cols[i] * table.precision[i].bytes();
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, table.offset[i], size)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (verify && table.checksum) {
+                    CRC32 checksum = new CRC32();
+                    checksum.update(bytes.duplicate());
+                    if ((int) checksum.getValue() != table.crc[i]) {
+                        throw new IllegalArgumentException("Checksum mismatch in layer #" + i);
+                    }
+                }
+                layer[i] = MappedLayer.create(table.precision[i], table.rows[i], table.cols[i], table.activation[i],
+                        bytes);
+            }
+            return layer;
+        }
+    }
+
+    /**
+     * The validated header and layer table of a version 2 file.
+     */
+    private static final class Table {
+        final boolean      checksum;
+        final int          size;
+        final long         length;
+        final long         optimizerOffset;
+        final int[]        rows;
+        final int[]        cols;
+        final Precision[]  precision;
+        final boolean[]    sparse;
+        final Activation[] activation;
+        final long[]       offset;
+        final int[]        crc;
+        final int[]        count;
+
+        Table(FileChannel channel) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            header.getInt();
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + version);
+            }
+            int flags = header.getInt();
+            size = header.getInt();
+            long tableOffset = header.getLong();
+            length = header.getLong();
+            optimizerOffset = header.getLong();
+            if (size < 1 || length != channel.size() || tableOffset < HEADER_SIZE ||
+                    tableOffset + (long) size * ENTRY_SIZE > length || optimizerOffset < 0 ||
+                    optimizerOffset % ALIGNMENT != 0 || optimizerOffset + HEADER_SIZE > length) {
+                throw new IllegalArgumentException("Corrupted file header");
+            }
+            checksum = (flags & FLAG_CHECKSUM) != 0;
+
+            ByteBuffer table = ByteBuffer.allocate(size * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, table, tableOffset);
+            table.flip();
+            rows = new int[size];
+            cols = new int[size];
+            precision = new Precision[size];
+            sparse = new boolean[size];
+            activation = new Activation[size];
+            offset = new long[size];
+            crc = new int[size];
+            count = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = table.getInt();
+                cols[i] = table.getInt();
+                int encoding = table.getInt();
+                precision[i] = precision(encoding);
+                sparse[i] = encoding == ENCODING_SPARSE_DOUBLE || encoding == ENCODING_SPARSE_FLOAT;
+                activation[i] = Activation.of(table.getInt());
+                offset[i] = table.getLong();
+                crc[i] = table.getInt();
+                count[i] = table.getInt();
+                int dense = checkedSize(rows[i], cols[i]);
+                if (count[i] < 0 || count[i] > (sparse[i] ? dense : 0)) {
+                    throw new IllegalArgumentException("Corrupted layer table");
+                }
+                long blockSize = sparse[i] ? sparseBlockSize(rows[i], count[i], precision[i]) :
+                        (long) dense * precision[i].bytes();
+                if (offset[i] % ALIGNMENT != 0 || offset[i] + blockSize > length) {
+                    throw new IllegalArgumentException("Corrupted layer table");
+                }
+            }
+        }
+
+    }
+
+    private static Contents readOptimizer(FileChannel channel, long offset, long length, ByteBuffer bytes,
+            InferenceLayer[] layer, boolean checksum) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, offset);
+        header.flip();
+        int id = header.getInt();
+        int slots = header.getInt();
+        long step = header.getLong();
+        double[] parameter = new double[OPTIMIZER_PARAMETERS];
+        for (int p = 0; p < parameter.length; p++) {
+            parameter[p] = header.getDouble();
+        }
+        int crc = header.getInt();
+        Optimizer optimizer = Optimizer.of(id, parameter);
+        if (slots != optimizer.slots() || step < 0) {
+            throw new IllegalArgumentException("Corrupted optimizer header");
+        }
+        CRC32 crc32 = checksum ? new CRC32() : null;
+        double[][][] state = new double[layer.length][slots][];
+        offset = align(offset + HEADER_SIZE);
+        for (int i = 0; i < layer.length; i++) {
+            for (int k = 0; k < slots; k++) {
+                state[i][k] = new double[layer[i].size()];
+                if (offset + (long) layer[i].size() * Double.BYTES > length) {
+                    throw new IllegalArgumentException("Truncated optimizer state");
+                }
+                readDoubles(channel, offset, bytes, state[i][k], crc32);
+                offset = align(offset + (long) layer[i].size() * Double.BYTES);
+            }
+        }
+        if (crc32 != null && (int) crc32.getValue() != crc) {
+            throw new IllegalArgumentException("Checksum mismatch in optimizer state");
+        }
+        return new Contents(layer, optimizer, state, step);
+    }
+
+    private static Layer[] readVersion1(FileChannel channel) throws IOException {
+        ByteBuffer ints = ByteBuffer.allocate(2 * Integer.BYTES);
+        ints.limit(Integer.BYTES);
+        long position = 0;
+        readFully(channel, ints, position);
+        position += Integer.BYTES;
+        int size = ints.getInt(0);
+        if (size < 1) {
+            throw new IllegalArgumentException("Corrupted file header");
+        }
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        Layer[] layer = new Layer[size];
+        for (int i = 0; i < size; i++) {
+            ints.clear();
+            readFully(channel, ints, position);
+            position += 2 * Integer.BYTES;
+            int rows = ints.getInt(0);
+            int cols = ints.getInt(Integer.BYTES);
+            checkedSize(rows, cols);
+            layer[i] = new DoubleLayer(rows, cols, Activation.SIGMOID);
+            readBlock(channel, position, bytes, layer[i], null);
+            position += blockSize(layer[i]);
+        }
+        return layer;
+    }
+
+    static void write(Path file, InferenceLayer[] layer, boolean checksum) throws IOException {
+        write(file, new Contents(layer, null, null, 0), checksum);
+    }
+
+    static void write(Path file, Contents contents, boolean checksum) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            writeTo(temporary, contents, checksum);
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeTo(Path file, Contents contents, boolean checksum) throws IOException {
+        InferenceLayer[] layer = contents.layer;
+        try (FileChannel channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            long tableOffset = HEADER_SIZE;
+            long offset = align(tableOffset + (long) layer.length * ENTRY_SIZE);
+
+            ByteBuffer table = ByteBuffer.allocate(layer.length * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            for (InferenceLayer l : layer) {
+                crc.reset();
+                if (l instanceof SparseLayer) {
+                    writeSparse(channel, offset, (SparseLayer) l, checksum ? crc : null);
+                } else {
+                    writeBlock(channel, offset, (Layer) l, bytes, checksum ? crc : null);
+                }
+                table.putInt(l.rows);
+                table.putInt(l.cols);
+                table.putInt(encoding(l));
+                table.putInt(l.activation.id());
+                table.putLong(offset);
+                table.putInt(checksum ? (int) crc.getValue() : 0);
+                table.putInt(l instanceof SparseLayer ? ((SparseLayer) l).count() : 0);
+                offset = align(offset + blockSize(l));
+            }
+            long optimizerOffset = 0;
+            if (contents.optimizer != null) {
+                optimizerOffset = offset;
+                writeOptimizer(channel, offset, bytes, contents, checksum);
+            }
+            long length = channel.size();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.order(ByteOrder.BIG_ENDIAN).putInt(MAGIC).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(VERSION);
+            header.putInt(checksum ? FLAG_CHECKSUM : 0);
+            header.putInt(layer.length);
+            header.putLong(tableOffset);
+            header.putLong(length);
+            header.putLong(optimizerOffset);
+            header.clear();
+            table.flip();
+            writeFully(channel, table, tableOffset);
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+    }
+
+    private static void writeOptimizer(FileChannel channel, long offset, ByteBuffer bytes, Contents contents,
+            boolean checksum) throws IOException {
+        CRC32 crc = checksum ? new CRC32() : null;
+        long position = align(offset + HEADER_SIZE);
+        for (double[][] slots : contents.state) {
+            for (double[] state : slots) {
+                writeDoubles(channel, position, state, bytes, crc);
+                position = align(position + (long) state.length * Double.BYTES);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(contents.optimizer.id());
+        header.putInt(contents.optimizer.slots());
+        header.putLong(contents.step);
+        double[] parameter = contents.optimizer.parameters();
+        for (int p = 0; p < OPTIMIZER_PARAMETERS; p++) {
+            header.putDouble(p < parameter.length ? parameter[p] : 0);
+        }
+        header.putInt(crc != null ? (int) crc.getValue() : 0);
+        header.clear();
+        writeFully(channel, header, offset);
+    }
+
+    /**
+     * Bulk-reads the weights of {@code layer}, in the byte order of {@code bytes}, a chunk at a time through the
+     * direct buffer {@code bytes}. Copying through a reused buffer rather than mapping the file avoids leaving
+     * mappings behind that would pin the file until they are collected.
+     */
+    private static void readBlock(FileChannel channel, long position, ByteBuffer bytes, Layer layer,
+            CRC32 checksum) throws IOException {
+        int elementSize = layer.precision().bytes();
+        int elementsPerChunk = bytes.capacity() / elementSize;
+        for (int from = 0; from < layer.size(); from += elementsPerChunk) {
+            int count = Math.min(elementsPerChunk, layer.size() - from);
+            bytes.clear();
+            bytes.limit(count * elementSize);
+            readFully(channel, bytes, position);
+            position += count * elementSize;
+            bytes.flip();
+            if (checksum != null) {
+                checksum.update(bytes);
+                bytes.flip();
+            }
+            if (layer instanceof FloatLayer) {
+                bytes.asFloatBuffer().get(((FloatLayer) layer).weight, from, count);
+            } else {
+                bytes.asDoubleBuffer().get(((DoubleLayer) layer).weight, from, count);
+            }
+        }
+    }
+
+    private static void writeBlock(FileChannel channel, long position, Layer layer, ByteBuffer bytes,
+            CRC32 checksum) throws IOException {
+        int elementSize = layer.precision().bytes();
+        int elementsPerChunk = bytes.capacity() / elementSize;
+        for (int from = 0; from < layer.size(); from += elementsPerChunk) {
+            int count = Math.min(elementsPerChunk, layer.size() - from);
+            bytes.clear();
+            if (layer instanceof FloatLayer) {
+                bytes.asFloatBuffer().put(((FloatLayer) layer).weight, from, count);
+            } else {
+                bytes.asDoubleBuffer().put(((DoubleLayer) layer).weight, from, count);
+            }
+            bytes.limit(count * elementSize);
+            if (checksum != null) {
+                checksum.update(bytes);
+                bytes.flip();
+            }
+            position += writeFully(channel, bytes, position);
+        }
+    }
+
+    /**
+     * Reads the sparse block of layer {@code i} at once: sparse blocks are small.
+     */
+    private static SparseLayer readSparse(FileChannel channel, Table table, int i, CRC32 checksum)
+            throws IOException {
+        int rows = table.rows[i];
+        int count = table.count[i];
+        long size = sparseBlockSize(rows, count, table.precision[i]);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sparse layer #" + i + " too large");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, bytes, table.offset[i]);
+        if (checksum != null) {
+            checksum.update(bytes.array(), 0, bytes.limit());
+        }
+        bytes.flip();
+        int[] start = new int[rows + 1];
+        int[] index = new int[count];
+        bytes.asIntBuffer().get(start).get(index);
+        bytes.position((int) align8((long) (rows + 1 + count) * Integer.BYTES));
+        if (table.precision[i] == Precision.FLOAT) {
+            float[] value = new float[count];
+            bytes.asFloatBuffer().get(value);
+            return new SparseLayer(rows, table.cols[i], table.activation[i], start, index, value);
+        }
+        double[] value = new double[count];
+        bytes.asDoubleBuffer().get(value);
+        return new SparseLayer(rows, table.cols[i], table.activation[i], start, index, value);
+    }
+
+    private static void writeSparse(FileChannel channel, long position, SparseLayer layer, CRC32 checksum)
+            throws IOException {
+        long size = sparseBlockSize(layer.rows, layer.count(), layer.precision());
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sparse layer too large");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asIntBuffer().put(layer.start).put(layer.index);
+        bytes.position((int) align8((long) (layer.rows + 1 + layer.count()) * Integer.BYTES));
+        if (layer.floats != null) {
+            bytes.asFloatBuffer().put(layer.floats);
+        } else {
+            bytes.asDoubleBuffer().put(layer.doubles);
+        }
+        bytes.clear();
+        if (checksum != null) {
+            checksum.update(bytes.array(), 0, bytes.limit());
+        }
+        writeFully(channel, bytes, position);
+    }
+
+    private static void readDoubles(FileChannel channel, long position, ByteBuffer bytes, double[] target,
+            CRC32 checksum) throws IOException {
+        int elementsPerChunk = bytes.capacity() / Double.BYTES;
+        for (int from = 0; from < target.length; from += elementsPerChunk) {
+            int count = Math.min(elementsPerChunk, target.length - from);
+            bytes.clear();
+            bytes.limit(count * Double.BYTES);
+            readFully(channel, bytes, position);
+            position += count * Double.BYTES;
+            bytes.flip();
+            if (checksum != null) {
+                checksum.update(bytes);
+                bytes.flip();
+            }
+            bytes.asDoubleBuffer().get(target, from, count);
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, long position, double[] source, ByteBuffer bytes,
+            CRC32 checksum) throws IOException {
+        int elementsPerChunk = bytes.capacity() / Double.BYTES;
+        for (int from = 0; from < source.length; from += elementsPerChunk) {
+            int count = Math.min(elementsPerChunk, source.length - from);
+            bytes.clear();
+            bytes.asDoubleBuffer().put(source, from, count);
+            bytes.limit(count * Double.BYTES);
+            if (checksum != null) {
+                checksum.update(bytes);
+                bytes.flip();
+            }
+            position += writeFully(channel, bytes, position);
+        }
+    }
+
+    private static long blockSize(InferenceLayer layer) {
+        if (layer instanceof SparseLayer) {
+            return sparseBlockSize(layer.rows, ((SparseLayer) layer).count(), layer.precision());
+        }
+        return (long) layer.size() * layer.precision().bytes();
+    }
+
+    private static long sparseBlockSize(int rows, int count, Precision precision) {
+        return align8((long) (rows + 1 + count) * Integer.BYTES) + (long) count * precision.bytes();
+    }
+
+    private static int encoding(InferenceLayer layer) {
+        if (layer instanceof SparseLayer) {
+            return layer.precision() == Precision.FLOAT ? ENCODING_SPARSE_FLOAT : ENCODING_SPARSE_DOUBLE;
+        }
+        return layer.precision() == Precision.FLOAT ? ENCODING_FLOAT : ENCODING_DOUBLE;
+    }
+
+    private static Precision precision(int encoding) {
+        switch (encoding) {
+        case ENCODING_DOUBLE:
+        case ENCODING_SPARSE_DOUBLE:
+            return Precision.DOUBLE;
+        case ENCODING_FLOAT:
+        case ENCODING_SPARSE_FLOAT:
+            return Precision.FLOAT;
+        default:
+            throw new IllegalArgumentException("Unsupported encoding " + encoding);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static int checkedSize(int rows, int cols) {
+        long size = (long) rows * cols;
+        if (rows < 1 || cols < 1 || size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Illegal layer " + rows + "x" + cols);
+        }
+        return (int) size;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int n = channel.read(bytes, position);
+            if (n == -1) {
+                throw new IllegalArgumentException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        int written = 0;
+        while (bytes.hasRemaining()) {
+            written += channel.write(bytes, position + written);
+        }
+        return written;
+    }
+
+    private ModelFile() {
+        //
+    }
+
+}
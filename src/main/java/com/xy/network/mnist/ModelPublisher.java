@@ -0,0 +1,220 @@
+package com.xy.network.mnist;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the weights of a network while it trains, for inference on other threads: a snapshot is taken every
+ * {@code sampleInterval} samples or {@code timeInterval} nanoseconds, whichever comes first, a zero interval being
+ * disabled, and {@code decide} runs on the latest published snapshot. Snapshots are never written while published,
+ * so an inference never sees weights from two updates.
+ * <p>
+ * Publishing copies the weights into the snapshot published before the current one, and swaps it in with one
+ * volatile write. Inference takes no lock: it reads the current snapshot, marks it in use and checks it is still
+ * current. A snapshot still in use when its turn to be reused comes is left to the garbage collector and a new one is
+ * allocated, so that publishing never waits for inference.
+ * <p>
+ * Install a publisher as the network's {@link TrainingListener} or call {@link #sample()} after every sample; either
+ * way, it must be called on the training thread, between updates. The {@code decide} methods may be called on any
+ * thread.
+ */
+public class ModelPublisher implements TrainingListener {
+    private final NeuralNetwork network;
+    private final long          sampleInterval;
+    private final long          timeInterval;
+
+    private long     samples;
+    private long     lastSamples;
+    private long     lastTime = System.nanoTime();
+    private long     allocations;
+    private long     publishNanos;
+    private Snapshot spare;
+
+    private volatile Snapshot current;
+
+    /**
+     * Publishes the current weights as the first snapshot.
+     *
+     * @param sampleInterval samples between snapshots, 0 for none
+     * @param timeInterval   time between snapshots, 0 for none
+     */
+    public ModelPublisher(NeuralNetwork network, long sampleInterval, long timeInterval, TimeUnit unit) {
+        if (sampleInterval < 0 || timeInterval < 0) {
+            throw new IllegalArgumentException("Illegal publishing policy");
+        }
+        this.network = network;
+        this.sampleInterval = sampleInterval;
+        this.timeInterval = unit.toNanos(timeInterval);
+        publish();
+    }
+
+    @Override
+    public void sample(int iterations, boolean converged) {
+        sample();
+    }
+
+    @Override
+    public void batch(int count, int learning) {
+        samples += count - 1;
+        sample();
+    }
+
+    /**
+     * Counts a sample and publishes a snapshot if one is due.
+     */
+    public void sample() {
+        samples++;
+        if (sampleInterval > 0 && samples - lastSamples >= sampleInterval ||
+                timeInterval > 0 && System.nanoTime() - lastTime >= timeInterval) {
+            publish();
+        }
+    }
+
+    /**
+     * Publishes a snapshot of the current weights now.
+     */
+    public void publish() {
+        long start = System.nanoTime();
+        Snapshot snapshot = spare;
+        if (snapshot == null || snapshot.readers.get() != 0) {
+            snapshot = new Snapshot(network.layers());
+            allocations++;
+        } else {
+            snapshot.copy(network.layers());
+        }
+        Snapshot previous = current;
+        snapshot.version = previous == null ? 0 : previous.version + 1;
+        snapshot.samples = samples;
+        current = snapshot;
+        spare = previous;
+        lastSamples = samples;
+        lastTime = System.nanoTime();
+        publishNanos += lastTime - start;
+    }
+
+    public int getInputSize() {
+        return network.getInputSize();
+    }
+
+    public int getOutputSize() {
+        return network.getOutputSize();
+    }
+
+    /**
+     * @return the number of snapshots published before the current one
+     */
+    public long getVersion() {
+        Snapshot snapshot = acquire();
+        long version = snapshot.version;
+        snapshot.readers.decrementAndGet();
+        return version;
+    }
+
+    /**
+     * @return the number of samples trained when the current snapshot was taken
+     */
+    public long getSamples() {
+        Snapshot snapshot = acquire();
+        long samples = snapshot.samples;
+        snapshot.readers.decrementAndGet();
+        return samples;
+    }
+
+    /**
+     * @return the number of snapshots allocated, the first one included, rather than reused because inference was
+     * still running on them
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * @return the total time spent publishing on the training thread, in nanoseconds
+     */
+    public long getPublishNanos() {
+        return publishNanos;
+    }
+
+    public double[] decide(double[] input) {
+        double[] output = new double[getOutputSize()];
+        decide(input, output);
+        return output;
+    }
+
+    /**
+     * @see InferenceModel#decide(double[], double[])
+     */
+    public void decide(double[] input, double[] output) {
+        Snapshot snapshot = acquire();
+        try {
+            snapshot.model.decide(input, output);
+        } finally {
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @see InferenceModel#decide(int[], double[], int, double[])
+     */
+    public void decide(int[] index, double[] value, int count, double[] output) {
+        Snapshot snapshot = acquire();
+        try {
+            snapshot.model.decide(index, value, count, output);
+        } finally {
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Decides the whole batch on one snapshot.
+     *
+     * @see InferenceModel#decideBatch(double[], double[], int)
+     */
+    public void decideBatch(double[] in, double[] out, int count) {
+        Snapshot snapshot = acquire();
+        try {
+            snapshot.model.decideBatch(in, out, count);
+        } finally {
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the current snapshot in use. Once marked, a snapshot that is still current cannot be reused by
+     * {@link #publish()}; one that is not current any more may be being written and is released again.
+     */
+    private Snapshot acquire() {
+        while (true) {
+            Snapshot snapshot = current;
+            snapshot.readers.incrementAndGet();
+            if (snapshot == current) {
+                return snapshot;
+            }
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    private static final class Snapshot {
+        final Layer[]        layer;
+        final InferenceModel model;
+        final AtomicInteger  readers = new AtomicInteger();
+        long                 version;
+        long                 samples;
+
+        Snapshot(Layer[] source) {
+            layer = new Layer[source.length];
+            for (int i = 0; i < source.length; i++) {
+                layer[i] = source[i].copy();
+            }
+            model = new InferenceModel(layer);
+        }
+
+        void copy(Layer[] source) {
+            for (int i = 0; i < source.length; i++) {
+                layer[i].copyFrom(source[i]);
+            }
+        }
+
+    }
+
+}
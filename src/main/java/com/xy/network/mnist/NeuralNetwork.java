@@ -1,185 +1,782 @@
 package com.xy.network.mnist;
 
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-import static java.nio.file.StandardOpenOption.WRITE;
-
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.function.DoubleSupplier;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.function.Sigmoid;
-import org.apache.commons.math3.linear.DefaultRealMatrixChangingVisitor;
-import org.apache.commons.math3.linear.DefaultRealMatrixPreservingVisitor;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
+/**
+ * Layered network, sigmoid unless other {@link Activation}s are given. Weights, activations and errors live in
+ * preallocated primitive arrays, so that {@link #learn(double[], double[], double, int, double)} and {@link
+ * #decide(double[], double[])} do not allocate. Instances are not thread-safe, see {@link ParallelTrainer} for training
+ * on several threads, and {@link #snapshot()} or, while training, {@link ModelPublisher} for concurrent inference.
+ */
 public class NeuralNetwork {
-    private final UnivariateFunction sigmoid = new Sigmoid(0, 1);
-    private final List<RealMatrix>   weight;
+    private final Layer[]        layer;
+    private final double[][]     activation;
+    private final double[][]     error;
+    private final double[][]     gradient;
+    private final BatchWorkspace batch;
+    private TrainingMetrics      metrics;
+    private TrainingListener     listener;
+    private Optimizer            optimizer;
+    private double[][][]         optimizerState;
+    private LearningRateSchedule schedule;
+    private long                 step;
+    private double[]             row;
+    private double[]             dense;
+    private LayerExecutor        executor;
+    private long[][]             mask;
+
+    private int[]    sparseIndex;
+    private double[] sparseValue;
+    private int      sparseCount;
+
+    // the layer and learning rate of the range being dispatched to the executor
+    private int    current;
+    private double currentRate;
+
+    private final LayerExecutor.Range forwardRange;
+    private final LayerExecutor.Range forwardSparseRange;
+    private final LayerExecutor.Range backwardRange;
+    private final LayerExecutor.Range updateRange;
+    private final LayerExecutor.Range updateSparseRange;
 
     public NeuralNetwork(int... dimension) {
+        this(Precision.DOUBLE, dimension);
+    }
+
+    public NeuralNetwork(Precision precision, int... dimension) {
+        this(createLayers(precision, null, dimension));
+    }
+
+    /**
+     * @param activation the activation of each layer, one less than dimensions
+     */
+    public NeuralNetwork(Precision precision, Activation[] activation, int... dimension) {
+        this(createLayers(precision, activation, dimension));
+    }
+
+    /**
+     * Loads a network written by {@link #write(Path)}, or in the original unversioned format, in the precision it
+     * was written in. A saved optimizer state is restored.
+     */
+    public NeuralNetwork(Path file) throws IOException {
+        this(ModelFile.readContents(file), null);
+    }
+
+    /**
+     * Loads a network, converting it to the given precision.
+     */
+    public NeuralNetwork(Path file, Precision precision) throws IOException {
+        this(ModelFile.readContents(file), precision);
+    }
+
+    private NeuralNetwork(ModelFile.Contents contents, Precision precision) {
+        this(convert(contents.layer, precision));
+        if (contents.optimizer != null) {
+            setOptimizer(contents.optimizer);
+            for (int i = 0; i < layer.length; i++) {
+                optimizerState[i] = contents.state[i];
+            }
+            step = contents.step;
+        }
+    }
+
+    NeuralNetwork(Layer[] layer) {
+        this.layer = layer;
+        activation = new double[layer.length + 1][];
+        error = new double[layer.length][];
+        gradient = new double[layer.length][];
+        for (int i = 0; i < layer.length; i++) {
+            if (i > 0 && layer[i].rows != layer[i - 1].cols) {
+                throw new IllegalArgumentException("Layer #" + i + " expects " + layer[i].rows + " inputs, was " +
+                        layer[i - 1].cols);
+            }
+            activation[i + 1] = new double[layer[i].cols];
+            error[i] = new double[layer[i].cols];
+            gradient[i] = new double[layer[i].cols];
+        }
+        batch = new BatchWorkspace(layer);
+        forwardRange = (from, to) -> layer[current].forward(activation[current], activation[current + 1], from, to);
+        forwardSparseRange = (from, to) -> layer[0].forwardSparse(sparseIndex, sparseValue, sparseCount,
+                activation[1], from, to);
+        backwardRange = (from, to) -> layer[current].backward(error[current], error[current - 1], from, to);
+        updateRange = (from, to) -> layer[current].update(activation[current], activation[current + 1],
+                error[current], gradient[current], currentRate, from, to);
+        updateSparseRange = (from, to) -> layer[0].updateSparse(sparseIndex, sparseValue, sparseCount, activation[1],
+                error[0], gradient[0], currentRate, from, to);
+    }
+
+    private static Layer[] createLayers(Precision precision, Activation[] activation, int... dimension) {
         if (dimension.length < 2) {
             throw new IllegalArgumentException("Expected > 1, was " + dimension.length);
         }
-        List<RealMatrix> weightBuilder = new LinkedList<>();
+        if (activation != null && activation.length != dimension.length - 1) {
+            throw new IllegalArgumentException("Expected " + (dimension.length - 1) + " activations, was " +
+                    activation.length);
+        }
+        Layer[] layer = new Layer[dimension.length - 1];
         for (int i = 1; i < dimension.length; i++) {
-            weightBuilder.add(MatrixUtils.createRealMatrix(dimension[i - 1], dimension[i]));
+            layer[i - 1] = Layer.create(precision, dimension[i - 1], dimension[i],
+                    activation == null ? Activation.SIGMOID : activation[i - 1]);
         }
-        weight = Collections.unmodifiableList(new ArrayList<>(weightBuilder));
+        return layer;
     }
 
-    public NeuralNetwork(Path file) throws IOException {
-        List<RealMatrix> matrixList = new LinkedList<>();
-        try (FileChannel channel = FileChannel.open(file, READ)) {
+    /**
+     * @param precision the precision to convert to, {@code null} to only make read-only layers, such as
+     *                  {@link SparseLayer}s, trainable in their own precision
+     */
+    private static Layer[] convert(InferenceLayer[] source, Precision precision) {
+        Layer[] layer = new Layer[source.length];
+        for (int i = 0; i < source.length; i++) {
+            if (precision != null) {
+                layer[i] = source[i].convert(precision);
+            } else if (source[i] instanceof Layer) {
+                layer[i] = (Layer) source[i];
+            } else {
+                layer[i] = source[i].convert(source[i].precision());
+            }
+        }
+        return layer;
+    }
 
-            ByteBuffer bytes = ByteBuffer.allocate(16 * 1024);
-            bytes.flip();
+    /**
+     * @return the precision of the weights
+     */
+    public Precision getPrecision() {
+        return layer[0].precision();
+    }
 
-            int size = getInt(channel, bytes);
-            for (int i = 0; i < size; i++) {
-                int rows = getInt(channel, bytes);
-                int cols = getInt(channel, bytes);
-                RealMatrix matrix = MatrixUtils.createRealMatrix(rows, cols);
-                matrix.walkInRowOrder(new DefaultRealMatrixChangingVisitor() {
+    /**
+     * @return the activation of every layer
+     */
+    public Activation[] getActivations() {
+        Activation[] activation = new Activation[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+            activation[i] = layer[i].activation;
+        }
+        return activation;
+    }
 
-                    @Override
-                    public double visit(int row, int column, double value) {
-                        return getDouble(channel, bytes);
-                    }
+    /**
+     * @return a copy of this network with weights converted to the given precision
+     */
+    public NeuralNetwork convert(Precision precision) {
+        return new NeuralNetwork(convert(layer, precision));
+    }
 
-                });
-                matrixList.add(matrix);
-            }
-        }
-        weight = Collections.unmodifiableList(new ArrayList<>(matrixList));
+    public int getInputSize() {
+        return layer[0].rows;
+    }
+
+    public int getOutputSize() {
+        return layer[layer.length - 1].cols;
     }
 
     public void randomize(DoubleSupplier supplier) {
-        for (RealMatrix matrix : weight) {
-            for (int i = 0; i < matrix.getRowDimension(); i++) {
-                for (int j = 0; j < matrix.getColumnDimension(); j++) {
-                    matrix.setEntry(i, j, supplier.getAsDouble());
-                }
-            }
-            double factor = 1 / matrix.getFrobeniusNorm();
-            matrix.walkInOptimizedOrder(new DefaultRealMatrixChangingVisitor() {
+        for (Layer l : layer) {
+            l.randomize(supplier);
+        }
+    }
 
-                @Override
-                public double visit(int row, int column, double value) {
-                    return value * factor;
-                }
+    /**
+     * @param metrics where to record training counters and phase timings, {@code null} to disable
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public TrainingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param listener training event callback, {@code null} to disable
+     */
+    public void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
+    public TrainingListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Splits the forward pass, the backward pass and the plain SGD update of every single sample over the threads of
+     * {@code executor}, by output neuron and weight column, the backward pass by input neuron. Results are the same
+     * as without executor. Mini-batches and {@link #setOptimizer optimizer} updates are not split, see
+     * {@link ParallelTrainer} for those.
+     *
+     * @param executor {@code null} to run on the calling thread only, the default
+     */
+    public void setLayerExecutor(LayerExecutor executor) {
+        this.executor = executor;
+    }
+
+    public LayerExecutor getLayerExecutor() {
+        return executor;
+    }
 
-            });
+    /**
+     * Sets how weight gradients turn into weight updates, with zeroed optimizer state arrays mirroring the weights.
+     * The state is saved by {@link #write(Path)} and restored on load. Without optimizer, the default, updates are
+     * plain SGD and nothing is saved.
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        optimizerState = null;
+        row = null;
+        dense = null;
+        if (optimizer == null) {
+            return;
+        }
+        optimizerState = new double[layer.length][optimizer.slots()][];
+        int cols = 0;
+        for (int i = 0; i < layer.length; i++) {
+            for (int k = 0; k < optimizer.slots(); k++) {
+                optimizerState[i][k] = new double[layer[i].size()];
+            }
+            cols = Math.max(cols, layer[i].cols);
         }
+        if (optimizer.slots() > 0) {
+            row = new double[cols];
+            dense = new double[getInputSize()];
+        }
+    }
+
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * @param schedule scales the learning rate of every update, {@code null} to keep it constant
+     */
+    public void setSchedule(LearningRateSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    public LearningRateSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * @return the number of weight updates so far, saved with the optimizer state
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * Counts a weight update.
+     *
+     * @return the scheduled learning rate of the update
+     */
+    double nextRate(double rate) {
+        step++;
+        return schedule == null ? rate : rate * schedule.factor(step);
+    }
+
+    /**
+     * @return the scheduled learning rate of the next update, without counting it
+     */
+    double peekRate(double rate) {
+        return schedule == null ? rate : rate * schedule.factor(step + 1);
+    }
+
+    /**
+     * @return whether updates go through optimizer state
+     */
+    boolean stateful() {
+        return optimizer != null && optimizer.slots() > 0;
+    }
+
+    double[][][] optimizerState() {
+        return optimizerState;
     }
 
     public int learn(RealVector input, RealVector target, double rate, int maxIterations, double epsilon) {
-        int size = weight.size();
+        return learn(toArray(input), toArray(target), rate, maxIterations, epsilon);
+    }
+
+    public int learn(double[] input, double[] target, double rate, int maxIterations, double epsilon) {
+        checkSize(input, getInputSize());
+        checkSize(target, getOutputSize());
+        activation[0] = input;
+        try {
+            return learn(target, rate, maxIterations, epsilon);
+        } finally {
+            activation[0] = null;
+        }
+    }
+
+    /**
+     * Sparse variant of {@link #learn(double[], double[], double, int, double)}, the input being given by its
+     * {@code count} non-zero {@code value}s at ascending {@code index}es. The first layer only visits the weight rows
+     * of those inputs, the result is the same as with the dense input.
+     */
+    public int learn(int[] index, double[] value, int count, double[] target, double rate, int maxIterations,
+            double epsilon) {
+        checkSparse(index, value, count, getInputSize());
+        checkSize(target, getOutputSize());
+        setSparse(index, value, count);
+        try {
+            return learn(target, rate, maxIterations, epsilon);
+        } finally {
+            setSparse(null, null, 0);
+        }
+    }
+
+    private int learn(double[] target, double rate, int maxIterations, double epsilon) {
+        int size = layer.length;
         for (int lap = 0; lap < maxIterations; lap++) {
-            List<RealVector> o = new ArrayList<>(size + 1);
+            long time = start();
+            forward();
+            time = mark(TrainingMetrics.Phase.FORWARD, time);
 
-            RealVector output = input;
-            o.add(output);
-            for (int i = 0; i < size; i++) {
-                o.add(output = weight.get(i).preMultiply(output).map(sigmoid));
+            double[] output = activation[size];
+            double[] e = error[size - 1];
+            double maxError = 0;
+            for (int j = 0; j < e.length; j++) {
+                e[j] = target[j] - output[j];
+                maxError = Math.max(maxError, Math.abs(e[j]));
             }
-
-            RealVector error = target.subtract(output);
-            if (Arrays.stream(error.toArray()).allMatch(v -> Math.abs(v) < epsilon)) {
+            boolean converged = maxError < epsilon;
+            time = mark(TrainingMetrics.Phase.CONVERGENCE, time);
+            if (listener != null) {
+                listener.lap(lap, maxError);
+            }
+            if (converged) {
+                sample(lap, true);
                 return lap;
             }
 
-            List<RealVector> e = new ArrayList<>(size);
-            e.add(error);
             for (int i = size - 1; i >= 1; i--) {
-                e.add(error = weight.get(i).transpose().preMultiply(error));
+                backward(i);
             }
-            Collections.reverse(e);
+            time = mark(TrainingMetrics.Phase.BACKWARD, time);
 
-            for (int i = size - 1; i >= 0; i--) {
-                RealMatrix delta = o.get(i)
-                        .outerProduct(e.get(i).ebeMultiply(o.get(i + 1)).ebeMultiply(o.get(i + 1).mapSubtract(1)));
-                weight.get(i).setSubMatrix(weight.get(i).subtract(delta.scalarMultiply(rate)).getData(), 0, 0);
+            double r = nextRate(rate);
+            if (stateful()) {
+                optimize(r);
+                applyMask();
+            } else {
+                for (int i = size - 1; i >= 0; i--) {
+                    update(i, r);
+                    applyMask(i, activation[i]);
+                }
             }
+            mark(TrainingMetrics.Phase.UPDATE, time);
         }
+        sample(maxIterations, false);
         return maxIterations;
     }
 
-    public RealVector decide(RealVector input) {
-        for (int i = 0; i < weight.size(); i++) {
-            input = weight.get(i).preMultiply(input).map(sigmoid);
+    /**
+     * Optimizer updates visit every weight, a sparse input is scattered into a dense buffer.
+     */
+    private void optimize(double rate) {
+        for (int i = layer.length - 1; i >= 0; i--) {
+            double[] input = activation[i];
+            if (i == 0 && sparseIndex != null) {
+                input = dense;
+                for (int k = 0; k < sparseCount; k++) {
+                    input[sparseIndex[k]] = sparseValue[k];
+                }
+            }
+            layer[i].optimize(input, activation[i + 1], error[i], gradient[i], optimizer, optimizerState[i], rate,
+                    step, row);
+            if (input == dense) {
+                for (int k = 0; k < sparseCount; k++) {
+                    input[sparseIndex[k]] = 0;
+                }
+            }
         }
-        return input;
     }
 
-    public void write(Path file) throws IOException {
-        try (FileChannel output = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
-            int maxSize = weight.stream().mapToInt(m -> m.getRowDimension() * m.getColumnDimension() * Double.BYTES +
-                    3 * Integer.BYTES).max().getAsInt();
-            ByteBuffer bytes = ByteBuffer.allocate(maxSize);
-            bytes.putInt(weight.size());
-
-            for (int i = 0; i < weight.size(); i++) {
-                RealMatrix w = weight.get(i);
-                bytes.putInt(w.getRowDimension());
-                bytes.putInt(w.getColumnDimension());
-                w.walkInRowOrder(new DefaultRealMatrixPreservingVisitor() {
-
-                    @Override
-                    public void visit(int row, int column, double value) {
-                        bytes.putDouble(value);
-                    }
-
-                });
-
-                bytes.flip();
-                while (bytes.hasRemaining()) {
-                    output.write(bytes);
+    private long start() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private long mark(TrainingMetrics.Phase phase, long start) {
+        return metrics == null ? 0 : metrics.lap(phase, start);
+    }
+
+    private void sample(int iterations, boolean converged) {
+        if (metrics != null) {
+            metrics.sample(iterations, converged);
+        }
+        if (listener != null) {
+            listener.sample(iterations, converged);
+        }
+    }
+
+    /**
+     * Mini-batch variant of {@link #learn(double[], double[], double, int, double)}: runs one forward and backward pass
+     * over all samples and applies one weight update, the mean of the per-sample updates. Samples whose output is
+     * already within {@code epsilon} of the target do not contribute to the update.
+     * <p>
+     * Per output and weight, products are summed and rounded in the same order as in {@code learn}, so that a batch
+     * of one sample gives the same weights as {@code learn} with {@code maxIterations} 1. This holds with the scalar
+     * {@link Kernels} only: the vectorized dot product of the single-sample backward pass sums in a different order.
+     *
+     * @return the number of samples that were not within {@code epsilon}
+     */
+    public int learnBatch(double[][] inputs, double[][] targets, double rate, double epsilon) {
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Expected " + inputs.length + " targets, was " + targets.length);
+        }
+        int count = inputs.length;
+        int inputSize = getInputSize();
+        int outputSize = getOutputSize();
+        double[] input = batch.inputBuffer(count);
+        double[] target = batch.targetBuffer(count);
+        for (int s = 0; s < count; s++) {
+            checkSize(inputs[s], inputSize);
+            checkSize(targets[s], outputSize);
+            System.arraycopy(inputs[s], 0, input, s * inputSize, inputSize);
+            System.arraycopy(targets[s], 0, target, s * outputSize, outputSize);
+        }
+        return learnBatch(input, target, count, rate, epsilon);
+    }
+
+    /**
+     * @param inputs  {@code count} row-major input vectors
+     * @param targets {@code count} row-major target vectors
+     * @see #learnBatch(double[][], double[][], double, double)
+     */
+    public int learnBatch(double[] inputs, double[] targets, int count, double rate, double epsilon) {
+        try {
+            long time = start();
+            int learning = batch.forward(inputs, targets, count, epsilon);
+            time = mark(TrainingMetrics.Phase.FORWARD, time);
+            if (learning > 0) {
+                batch.backward();
+                time = mark(TrainingMetrics.Phase.BACKWARD, time);
+                double r = nextRate(rate);
+                if (stateful()) {
+                    batch.optimize(optimizer, optimizerState, r, step);
+                } else {
+                    batch.update(r / count);
                 }
-                bytes.clear();
+                applyMask();
+                mark(TrainingMetrics.Phase.UPDATE, time);
+            }
+            if (metrics != null) {
+                metrics.batch(count);
+            }
+            if (listener != null) {
+                listener.batch(count, learning);
             }
+            return learning;
+        } finally {
+            batch.release();
         }
     }
 
-    private static int getInt(FileChannel channel, ByteBuffer bytes) {
-        readMoreBytes(channel, bytes, Integer.BYTES);
-        return bytes.getInt();
+    /**
+     * @return an immutable copy of the current weights that can be shared by inference threads
+     */
+    public InferenceModel snapshot() {
+        Layer[] copy = new Layer[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+            copy[i] = layer[i].copy();
+        }
+        return new InferenceModel(copy);
     }
 
-    private static double getDouble(FileChannel channel, ByteBuffer bytes) {
-        readMoreBytes(channel, bytes, Double.BYTES);
-        return bytes.getDouble();
+    /**
+     * @return an immutable copy of the current weights that only stores the non-zero ones, faster than
+     * {@link #snapshot()} once most weights are {@link #prune pruned}
+     */
+    public InferenceModel sparseSnapshot() {
+        return new InferenceModel(sparse());
     }
 
-    private static void readMoreBytes(FileChannel channel, ByteBuffer bytes, int size) {
-        if (bytes.remaining() < size) {
-            bytes.compact();
-            try {
-                readBytes(channel, bytes);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
+    /**
+     * Magnitude pruning: zeroes the weights of every layer that are smaller in magnitude than the given fraction of
+     * the layer's weights, then masks all zero weights, see {@link #pruneBelow(double)}.
+     *
+     * @param sparsity the fraction of the weights of every layer to zero, in {@code [0, 1)}
+     * @return the number of zero weights
+     */
+    public long prune(double sparsity) {
+        if (!(sparsity >= 0 && sparsity < 1)) {
+            throw new IllegalArgumentException("Expected a sparsity in [0, 1), was " + sparsity);
+        }
+        double[] threshold = new double[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+            double[] magnitude = new double[layer[i].size()];
+            for (int k = 0; k < magnitude.length; k++) {
+                magnitude[k] = Math.abs(layer[i].get(k));
             }
-            bytes.flip();
+            threshold[i] = Selection.select(magnitude, (int) (sparsity * magnitude.length));
+        }
+        return prune(threshold);
+    }
+
+    /**
+     * Zeroes the weights smaller in magnitude than {@code threshold}, then masks all zero weights: the learn methods,
+     * and {@link ParallelTrainer}, keep them at zero, so that training fine-tunes the remaining weights only. A zero
+     * threshold only masks the weights that are already zero, as those of a network loaded from a pruned file.
+     *
+     * @return the number of zero weights
+     */
+    public long pruneBelow(double threshold) {
+        if (!(threshold >= 0)) {
+            throw new IllegalArgumentException("Expected >= 0, was " + threshold);
         }
+        double[] thresholds = new double[layer.length];
+        Arrays.fill(thresholds, threshold);
+        return prune(thresholds);
     }
 
-    private static void readBytes(FileChannel channel, ByteBuffer bytes) throws IOException {
-        while (bytes.hasRemaining()) {
-            int n = channel.read(bytes);
-            if (n == -1) {
-                break;
+    private long prune(double[] threshold) {
+        long[][] keep = new long[layer.length][];
+        long zeros = 0;
+        for (int i = 0; i < layer.length; i++) {
+            Layer l = layer[i];
+            keep[i] = new long[(l.size() + 63) >>> 6];
+            for (int k = 0; k < l.size(); k++) {
+                double w = l.get(k);
+                if (Math.abs(w) < threshold[i]) {
+                    l.set(k, 0);
+                } else if (w != 0) {
+                    keep[i][k >>> 6] |= 1L << k;
+                    continue;
+                }
+                zeros++;
             }
         }
+        mask = keep;
+        return zeros;
+    }
+
+    /**
+     * Lets training update the pruned weights again.
+     */
+    public void clearMask() {
+        mask = null;
+    }
+
+    public boolean isMasked() {
+        return mask != null;
+    }
+
+    /**
+     * @return the fraction of zero weights
+     */
+    public double getSparsity() {
+        long zeros = 0;
+        long size = 0;
+        for (Layer l : layer) {
+            for (int k = 0; k < l.size(); k++) {
+                if (l.get(k) == 0) {
+                    zeros++;
+                }
+            }
+            size += l.size();
+        }
+        return (double) zeros / size;
+    }
+
+    /**
+     * Applies the mask, if any, to all weights.
+     */
+    void applyMask() {
+        if (mask != null) {
+            for (int i = 0; i < layer.length; i++) {
+                layer[i].mask(mask[i], 0, layer[i].size());
+            }
+        }
+    }
+
+    /**
+     * Applies the mask, if any, to the weights {@code [from, to)} of layer {@code i}.
+     */
+    void applyMask(int i, int from, int to) {
+        if (mask != null) {
+            layer[i].mask(mask[i], from, to);
+        }
+    }
+
+    /**
+     * Applies the mask, if any, to the rows of layer {@code i} that an update with the given input touched, those of
+     * the non-zero inputs, in runs of consecutive rows.
+     */
+    private void applyMask(int i, double[] input) {
+        if (mask == null) {
+            return;
+        }
+        int cols = layer[i].cols;
+        if (i == 0 && sparseIndex != null) {
+            for (int k = 0; k < sparseCount; k++) {
+                applyMask(i, sparseIndex[k] * cols, (sparseIndex[k] + 1) * cols);
+            }
+            return;
+        }
+        for (int from = 0, rows = layer[i].rows; from < rows; ) {
+            if (input[from] == 0) {
+                from++;
+                continue;
+            }
+            int to = from + 1;
+            while (to < rows && input[to] != 0) {
+                to++;
+            }
+            applyMask(i, from * cols, to * cols);
+            from = to;
+        }
+    }
+
+    private SparseLayer[] sparse() {
+        SparseLayer[] sparse = new SparseLayer[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+            sparse[i] = SparseLayer.of(layer[i]);
+        }
+        return sparse;
+    }
+
+    Layer[] layers() {
+        return layer;
+    }
+
+    public RealVector decide(RealVector input) {
+        return new ArrayRealVector(decide(toArray(input)), false);
+    }
+
+    public double[] decide(double[] input) {
+        double[] output = new double[getOutputSize()];
+        decide(input, output);
+        return output;
+    }
+
+    public void decide(double[] input, double[] output) {
+        checkSize(input, getInputSize());
+        checkSize(output, getOutputSize());
+        activation[0] = input;
+        try {
+            forward();
+            System.arraycopy(activation[layer.length], 0, output, 0, output.length);
+        } finally {
+            activation[0] = null;
+        }
+    }
+
+    /**
+     * Sparse variant of {@link #decide(double[], double[])}.
+     *
+     * @see #learn(int[], double[], int, double[], double, int, double)
+     */
+    public void decide(int[] index, double[] value, int count, double[] output) {
+        checkSparse(index, value, count, getInputSize());
+        checkSize(output, getOutputSize());
+        setSparse(index, value, count);
+        try {
+            forward();
+            System.arraycopy(activation[layer.length], 0, output, 0, output.length);
+        } finally {
+            setSparse(null, null, 0);
+        }
+    }
+
+    private void setSparse(int[] index, double[] value, int count) {
+        sparseIndex = index;
+        sparseValue = value;
+        sparseCount = count;
+    }
+
+    private void forward() {
+        for (int i = 0; i < layer.length; i++) {
+            Layer l = layer[i];
+            if (i == 0 && sparseIndex != null) {
+                if (executor == null) {
+                    l.forwardSparse(sparseIndex, sparseValue, sparseCount, activation[1]);
+                } else {
+                    executor.run(forwardSparseRange, l.cols, (long) sparseCount * l.cols);
+                }
+            } else if (executor == null) {
+                l.forward(activation[i], activation[i + 1]);
+            } else {
+                current = i;
+                executor.run(forwardRange, l.cols, l.size());
+            }
+        }
+    }
+
+    private void backward(int i) {
+        if (executor == null) {
+            layer[i].backward(error[i], error[i - 1]);
+        } else {
+            current = i;
+            executor.run(backwardRange, layer[i].rows, layer[i].size());
+        }
+    }
+
+    private void update(int i, double rate) {
+        Layer l = layer[i];
+        if (i == 0 && sparseIndex != null) {
+            if (executor == null) {
+                l.updateSparse(sparseIndex, sparseValue, sparseCount, activation[1], error[0], gradient[0], rate);
+            } else {
+                currentRate = rate;
+                executor.run(updateSparseRange, l.cols, (long) sparseCount * l.cols);
+            }
+        } else if (executor == null) {
+            l.update(activation[i], activation[i + 1], error[i], gradient[i], rate);
+        } else {
+            current = i;
+            currentRate = rate;
+            executor.run(updateRange, l.cols, l.size());
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        write(file, true);
+    }
+
+    /**
+     * Writes the network in the current, versioned format, with the optimizer state if any, so that training can be
+     * resumed from the file.
+     *
+     * @param checksum whether to store a CRC-32 of every layer, verified on load
+     */
+    public void write(Path file, boolean checksum) throws IOException {
+        ModelFile.write(file, new ModelFile.Contents(layer, optimizer, optimizerState, step), checksum);
+    }
+
+    /**
+     * Writes only the non-zero weights of every layer, in compressed sparse row form, and no optimizer state: a file
+     * for {@link InferenceModel#map(Path)}, several times smaller than {@link #write(Path)}'s once most weights are
+     * {@link #prune pruned}. Loading it into a network makes the layers dense again.
+     */
+    public void writeSparse(Path file) throws IOException {
+        ModelFile.write(file, sparse(), true);
+    }
+
+    private static double[] toArray(RealVector vector) {
+        return vector instanceof ArrayRealVector ? ((ArrayRealVector) vector).getDataRef() : vector.toArray();
+    }
+
+    static void checkSparse(int[] index, double[] value, int count, int size) {
+        if (count < 0 || count > index.length || count > value.length) {
+            throw new IllegalArgumentException("Illegal sparse vector of " + count + " elements");
+        }
+        for (int k = 0, last = -1; k < count; k++) {
+            if (index[k] <= last || index[k] >= size) {
+                throw new IllegalArgumentException("Illegal index " + index[k] + " at #" + k);
+            }
+            last = index[k];
+        }
+    }
+
+    private static void checkSize(double[] vector, int size) {
+        if (vector.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " elements, was " + vector.length);
+        }
     }
 
 }
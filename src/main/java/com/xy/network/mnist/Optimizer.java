@@ -0,0 +1,175 @@
+package com.xy.network.mnist;
+
+/**
+ * Turns weight gradients into weight updates. Optimizers only hold their hyper-parameters; their per-weight state,
+ * such as velocities or moment estimates, lives in arrays mirroring the weight layout, owned by the network and
+ * written with it.
+ *
+ * @see NeuralNetwork#setOptimizer(Optimizer)
+ */
+public abstract class Optimizer {
+    static final int SGD      = 0;
+    static final int MOMENTUM = 1;
+    static final int NESTEROV = 2;
+    static final int ADAM     = 3;
+
+    private final int      id;
+    private final int      slots;
+    private final double[] parameter;
+
+    private Optimizer(int id, int slots, double... parameter) {
+        this.id = id;
+        this.slots = slots;
+        this.parameter = parameter;
+    }
+
+    /**
+     * @return plain stochastic gradient descent, {@code W -= rate * g}
+     */
+    public static Optimizer sgd() {
+        return new Optimizer(SGD, 0) {
+            @Override
+            void step(double[][] state, double[] gradient, int from, int offset, int length, double rate, long t) {
+                for (int k = from; k < from + length; k++) {
+                    gradient[k] *= rate;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return heavy-ball momentum, {@code v = mu * v + g; W -= rate * v}
+     */
+    public static Optimizer momentum(double mu) {
+        checkFactor(mu);
+        return new Optimizer(MOMENTUM, 1, mu) {
+            @Override
+            void step(double[][] state, double[] gradient, int from, int offset, int length, double rate, long t) {
+                double[] v = state[0];
+                for (int k = from, w = offset; k < from + length; k++, w++) {
+                    double velocity = mu * v[w] + gradient[k];
+                    v[w] = velocity;
+                    gradient[k] = rate * velocity;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Nesterov momentum, {@code v = mu * v + g; W -= rate * (g + mu * v)}
+     */
+    public static Optimizer nesterov(double mu) {
+        checkFactor(mu);
+        return new Optimizer(NESTEROV, 1, mu) {
+            @Override
+            void step(double[][] state, double[] gradient, int from, int offset, int length, double rate, long t) {
+                double[] v = state[0];
+                for (int k = from, w = offset; k < from + length; k++, w++) {
+                    double g = gradient[k];
+                    double velocity = mu * v[w] + g;
+                    v[w] = velocity;
+                    gradient[k] = rate * (g + mu * velocity);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Adam with {@code beta1 = 0.9}, {@code beta2 = 0.999} and {@code epsilon = 1e-8}
+     */
+    public static Optimizer adam() {
+        return adam(0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @return Adam, {@code W -= rate * m' / (sqrt(v') + epsilon)}, {@code m'} and {@code v'} being the bias-corrected
+     *         moving averages of the gradient and of its square
+     */
+    public static Optimizer adam(double beta1, double beta2, double epsilon) {
+        checkFactor(beta1);
+        checkFactor(beta2);
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("Expected > 0, was " + epsilon);
+        }
+        return new Optimizer(ADAM, 2, beta1, beta2, epsilon) {
+            @Override
+            void step(double[][] state, double[] gradient, int from, int offset, int length, double rate, long t) {
+                double[] m = state[0];
+                double[] v = state[1];
+                double alpha = rate * Math.sqrt(1 - Math.pow(beta2, t)) / (1 - Math.pow(beta1, t));
+                double epsilonHat = epsilon * Math.sqrt(1 - Math.pow(beta2, t));
+                for (int k = from, w = offset; k < from + length; k++, w++) {
+                    double g = gradient[k];
+                    double mean = beta1 * m[w] + (1 - beta1) * g;
+                    double square = beta2 * v[w] + (1 - beta2) * g * g;
+                    m[w] = mean;
+                    v[w] = square;
+                    gradient[k] = alpha * mean / (Math.sqrt(square) + epsilonHat);
+                }
+            }
+        };
+    }
+
+    static Optimizer of(int id, double[] parameter) {
+        switch (id) {
+        case SGD:
+            return sgd();
+        case MOMENTUM:
+            return momentum(parameter[0]);
+        case NESTEROV:
+            return nesterov(parameter[0]);
+        case ADAM:
+            return adam(parameter[0], parameter[1], parameter[2]);
+        default:
+            throw new IllegalArgumentException("Unsupported optimizer " + id);
+        }
+    }
+
+    private static void checkFactor(double factor) {
+        if (!(factor >= 0 && factor < 1)) {
+            throw new IllegalArgumentException("Expected in [0, 1), was " + factor);
+        }
+    }
+
+    /**
+     * @return the identifier stored in model files
+     */
+    int id() {
+        return id;
+    }
+
+    /**
+     * @return the number of state arrays per layer
+     */
+    int slots() {
+        return slots;
+    }
+
+    double[] parameters() {
+        return parameter.clone();
+    }
+
+    /**
+     * Replaces {@code gradient[from, from + length)}, the gradients of the weights {@code [offset, offset + length)},
+     * with the amounts to subtract from these weights, updating their state.
+     *
+     * @param state the state arrays of the layer, in the weight layout
+     * @param t     the one-based number of the update
+     */
+    abstract void step(double[][] state, double[] gradient, int from, int offset, int length, double rate, long t);
+
+    @Override
+    public String toString() {
+        switch (id) {
+        case SGD:
+            return "SGD";
+        case MOMENTUM:
+            return "Momentum(" + parameter[0] + ")";
+        case NESTEROV:
+            return "Nesterov(" + parameter[0] + ")";
+        default:
+            return "Adam(" + parameter[0] + ", " + parameter[1] + ", " + parameter[2] + ")";
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.xy.network.mnist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Data-parallel mini-batch training of one {@link NeuralNetwork}. Each batch is cut into {@code parallelism}
+ * contiguous shards, each shard being handled by a worker with its own buffers.
+ * <p>
+ * In {@link Mode#SYNCHRONOUS} mode workers compute the gradients of their shards, then the gradients are summed in
+ * shard order into the shared weights, each worker reducing a slice of the weights. Shard boundaries and summation
+ * order only depend on the batch size and {@code parallelism}, so training is reproducible: the same seed, samples and
+ * configuration give the same weights regardless of thread scheduling.
+ * <p>
+ * In {@link Mode#HOGWILD} mode workers apply the updates of their shard to the shared weights as soon as they are
+ * computed, without any locking. Updates may interleave and overwrite each other, which is tolerable for the sparse,
+ * small updates of stochastic gradient descent, and results are not reproducible.
+ * <p>
+ * The network's {@link Optimizer} and {@link LearningRateSchedule} apply as in
+ * {@link NeuralNetwork#learnBatch(double[][], double[][], double, double)}, stateful optimizers being restricted to
+ * {@link Mode#SYNCHRONOUS} mode, where each worker steps the optimizer state of its slice of the weights. Pruned
+ * weights, see {@link NeuralNetwork#prune(double)}, are zeroed again once the batch's updates are applied.
+ * <p>
+ * The network must not be used by other threads while a batch is being learned. Its {@link TrainingMetrics} and
+ * {@link TrainingListener}, if any, are used too: phase timings are summed over the workers, listener events are
+ * fired once per batch on the calling thread.
+ */
+public class ParallelTrainer implements AutoCloseable {
+    private static final int HOGWILD_CHUNK = 4;
+
+    public enum Mode {
+        SYNCHRONOUS, HOGWILD
+    }
+
+    private final NeuralNetwork           network;
+    private final Layer[]                 layer;
+    private final ExecutorService         executor;
+    private final boolean                 ownExecutor;
+    private final Mode                    mode;
+    private final Worker[]                worker;
+    private final List<Callable<Integer>> learnTasks  = new ArrayList<>();
+    private final List<Callable<Integer>> reduceTasks = new ArrayList<>();
+
+    private double[][] inputs;
+    private double[][] targets;
+    private double[]   flatInputs;
+    private double[]   flatTargets;
+    private int        count;
+    private double     scale;
+    private double     rate;
+    private double     epsilon;
+
+    private TrainingMetrics metrics;
+
+    public ParallelTrainer(NeuralNetwork network, int parallelism, Mode mode) {
+        this(network, new ForkJoinPool(parallelism), true, parallelism, mode);
+    }
+
+    /**
+     * @param executor used to run the workers, it is not shut down on {@link #close()}
+     */
+    public ParallelTrainer(NeuralNetwork network, ExecutorService executor, int parallelism, Mode mode) {
+        this(network, executor, false, parallelism, mode);
+    }
+
+    private ParallelTrainer(NeuralNetwork network, ExecutorService executor, boolean ownExecutor, int parallelism,
+            Mode mode) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Expected > 0, was " + parallelism);
+        }
+        this.network = network;
+        this.layer = network.layers();
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.mode = mode;
+        worker = new Worker[parallelism];
+        for (int k = 0; k < parallelism; k++) {
+            Worker w = worker[k] = new Worker(k);
+            learnTasks.add(w::learn);
+            reduceTasks.add(w::reduce);
+        }
+    }
+
+    public int getParallelism() {
+        return worker.length;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Parallel counterpart of {@link NeuralNetwork#learnBatch(double[][], double[][], double, double)}.
+     */
+    public int learnBatch(double[][] inputs, double[][] targets, double rate, double epsilon) {
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Expected " + inputs.length + " targets, was " + targets.length);
+        }
+        this.inputs = inputs;
+        this.targets = targets;
+        try {
+            return learn(inputs.length, rate, epsilon);
+        } finally {
+            this.inputs = null;
+            this.targets = null;
+        }
+    }
+
+    /**
+     * Parallel counterpart of {@link NeuralNetwork#learnBatch(double[], double[], int, double, double)}.
+     */
+    public int learnBatch(double[] inputs, double[] targets, int count, double rate, double epsilon) {
+        if (count < 1 || inputs.length < count * layer[0].rows ||
+                targets.length < count * layer[layer.length - 1].cols) {
+            throw new IllegalArgumentException("Illegal batch of " + count);
+        }
+        this.flatInputs = inputs;
+        this.flatTargets = targets;
+        try {
+            return learn(count, rate, epsilon);
+        } finally {
+            this.flatInputs = null;
+            this.flatTargets = null;
+        }
+    }
+
+    private int learn(int count, double rate, double epsilon) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Illegal batch of " + count);
+        }
+        boolean stateful = network.stateful();
+        if (stateful && mode == Mode.HOGWILD) {
+            throw new IllegalStateException("Stateful optimizers require " + Mode.SYNCHRONOUS + " mode");
+        }
+        this.count = count;
+        this.epsilon = epsilon;
+        this.metrics = network.getMetrics();
+        if (mode == Mode.HOGWILD) {
+            // workers update as they go, at the rate of the update counted once some sample learned
+            this.rate = network.peekRate(rate);
+            this.scale = this.rate / count;
+        }
+        try {
+            int learning = invokeAll(learnTasks);
+            if (mode == Mode.HOGWILD && learning > 0) {
+                network.nextRate(rate);
+                network.applyMask();
+            }
+            if (mode == Mode.SYNCHRONOUS && learning > 0) {
+                this.rate = network.nextRate(rate);
+                this.scale = this.rate / count;
+                invokeAll(reduceTasks);
+            }
+            if (metrics != null) {
+                metrics.batch(count);
+            }
+            TrainingListener listener = network.getListener();
+            if (listener != null) {
+                listener.batch(count, learning);
+            }
+            return learning;
+        } finally {
+            this.metrics = null;
+        }
+    }
+
+    private int invokeAll(List<Callable<Integer>> tasks) {
+        try {
+            int sum = 0;
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                sum += future.get();
+            }
+            return sum;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private final class Worker {
+        private final int            index;
+        private final BatchWorkspace workspace = new BatchWorkspace(layer);
+        private final double[][]     gradient  = new double[layer.length][];
+
+        private boolean learning;
+
+        Worker(int index) {
+            this.index = index;
+            if (mode == Mode.SYNCHRONOUS) {
+                for (int i = 0; i < layer.length; i++) {
+                    gradient[i] = new double[layer[i].size()];
+                }
+            }
+        }
+
+        int learn() {
+            learning = false;
+            int from = shardStart(index, count);
+            int to = shardStart(index + 1, count);
+            if (mode == Mode.HOGWILD) {
+                int sum = 0;
+                for (int start = from; start < to; start += HOGWILD_CHUNK) {
+                    int n = learnShard(start, Math.min(start + HOGWILD_CHUNK, to));
+                    if (n > 0) {
+                        long time = start();
+                        workspace.update(scale);
+                        mark(TrainingMetrics.Phase.UPDATE, time);
+                    }
+                    sum += n;
+                }
+                return sum;
+            }
+            int n = learnShard(from, to);
+            if (n > 0) {
+                for (double[] g : gradient) {
+                    Arrays.fill(g, 0);
+                }
+                workspace.accumulate(gradient);
+                learning = true;
+            }
+            return n;
+        }
+
+        private int learnShard(int from, int to) {
+            int n = to - from;
+            if (n == 0) {
+                return 0;
+            }
+            int inputSize = layer[0].rows;
+            int outputSize = layer[layer.length - 1].cols;
+            double[] input = workspace.inputBuffer(n);
+            double[] target = workspace.targetBuffer(n);
+            if (inputs != null) {
+                for (int s = 0; s < n; s++) {
+                    double[] in = inputs[from + s];
+                    double[] out = targets[from + s];
+                    if (in.length != inputSize || out.length != outputSize) {
+                        throw new IllegalArgumentException("Illegal sample #" + (from + s));
+                    }
+                    System.arraycopy(in, 0, input, s * inputSize, inputSize);
+                    System.arraycopy(out, 0, target, s * outputSize, outputSize);
+                }
+            } else {
+                System.arraycopy(flatInputs, from * inputSize, input, 0, n * inputSize);
+                System.arraycopy(flatTargets, from * outputSize, target, 0, n * outputSize);
+            }
+            long time = start();
+            int learning = workspace.forward(input, target, n, epsilon);
+            time = mark(TrainingMetrics.Phase.FORWARD, time);
+            if (learning > 0) {
+                workspace.backward();
+                mark(TrainingMetrics.Phase.BACKWARD, time);
+            }
+            return learning;
+        }
+
+        /**
+         * Sums the gradients of this worker's slice of the weights in shard order, into the first contributing
+         * gradient buffer, and applies the sum.
+         */
+        int reduce() {
+            long time = start();
+            for (int i = 0; i < layer.length; i++) {
+                int from = shardStart(index, layer[i].size());
+                int to = shardStart(index + 1, layer[i].size());
+                double[] sum = null;
+                for (Worker w : worker) {
+                    if (!w.learning) {
+                        continue;
+                    }
+                    double[] g = w.gradient[i];
+                    if (sum == null) {
+                        sum = g;
+                        continue;
+                    }
+                    for (int k = from; k < to; k++) {
+                        sum[k] += g[k];
+                    }
+                }
+                if (network.stateful()) {
+                    double mean = 1.0 / count;
+                    for (int k = from; k < to; k++) {
+                        sum[k] *= mean;
+                    }
+                    network.getOptimizer().step(network.optimizerState()[i], sum, from, from, to - from, rate,
+                            network.getStep());
+                    layer[i].subtract(sum, from, to, 1);
+                } else {
+                    layer[i].subtract(sum, from, to, scale);
+                }
+                network.applyMask(i, from, to);
+            }
+            mark(TrainingMetrics.Phase.UPDATE, time);
+            return 0;
+        }
+
+        private long start() {
+            return metrics == null ? 0 : System.nanoTime();
+        }
+
+        private long mark(TrainingMetrics.Phase phase, long start) {
+            return metrics == null ? 0 : metrics.lap(phase, start);
+        }
+
+        private int shardStart(int shard, int size) {
+            return (int) ((long) size * shard / worker.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.xy.network.mnist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Trains the network of a {@link ParameterServer} from another process: batches are learned on a local replica, the
+ * resulting weight deltas are pushed to the server, and fresh weights are pulled once the replica is as stale as the
+ * server allows.
+ * <p>
+ * Deltas may be compressed; what the compression drops is carried over to the next push, so that compression loses
+ * no update, only delays it. The replica's {@link NeuralNetwork#setOptimizer optimizer} and schedule, if any, stay
+ * local.
+ */
+public class ParameterClient implements AutoCloseable {
+    private final Socket                      socket;
+    private final DataInputStream             in;
+    private final DataOutputStream            out;
+    private final NeuralNetwork               network;
+    private final Layer[]                     layer;
+    private final Layer[]                     previous;
+    private final double[][]                  residual;
+    private final double[]                    scratch;
+    private final int                         staleness;
+    private final ParameterServer.Compression compression;
+    private final double                      fraction;
+
+    private long base;
+    private long pushes;
+    private long rejected;
+    private long pulls;
+
+    /**
+     * @param fraction the fraction of the deltas pushed with {@link ParameterServer.Compression#TOP_K}
+     */
+    public ParameterClient(InetSocketAddress address, ParameterServer.Compression compression, double fraction)
+            throws IOException {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Expected a fraction in (0, 1], was " + fraction);
+        }
+        this.compression = compression;
+        this.fraction = fraction;
+        socket = new Socket(address.getAddress(), address.getPort());
+        try {
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ParameterServer.MAGIC);
+            out.writeInt(ParameterServer.VERSION);
+            out.flush();
+            staleness = in.readInt();
+            int layers = in.readInt();
+            layer = new Layer[layers];
+            previous = new Layer[layers];
+            residual = new double[layers][];
+            int size = 0;
+            for (int i = 0; i < layers; i++) {
+                int rows = in.readInt();
+                int cols = in.readInt();
+                layer[i] = Layer.create(Precision.DOUBLE, rows, cols, Activation.of(in.readInt()));
+                previous[i] = layer[i].copy();
+                residual[i] = new double[layer[i].size()];
+                size = Math.max(size, layer[i].size());
+            }
+            scratch = new double[size];
+            network = new NeuralNetwork(layer);
+            pull();
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the local replica, only to be trained through this client
+     */
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Learns a batch on the replica, see {@link NeuralNetwork#learnBatch(double[], double[], int, double, double)},
+     * then pushes the update, and pulls if the replica became too stale.
+     */
+    public int learnBatch(double[] inputs, double[] targets, int count, double rate, double epsilon)
+            throws IOException {
+        for (int i = 0; i < layer.length; i++) {
+            previous[i].copyFrom(layer[i]);
+        }
+        int learning = network.learnBatch(inputs, targets, count, rate, epsilon);
+        if (learning == 0) {
+            return 0;
+        }
+        for (int i = 0; i < layer.length; i++) {
+            double[] delta = residual[i];
+            for (int k = 0; k < delta.length; k++) {
+                delta[k] += previous[i].get(k) - layer[i].get(k);
+            }
+        }
+        long current = push(count);
+        if (current - base >= staleness) {
+            pull();
+        }
+        return learning;
+    }
+
+    /**
+     * Replaces the replica's weights with the server's.
+     */
+    public void pull() throws IOException {
+        out.writeByte(ParameterServer.PULL);
+        out.flush();
+        base = in.readLong();
+        for (Layer l : layer) {
+            for (int k = 0; k < l.size(); k++) {
+                l.set(k, in.readDouble());
+            }
+        }
+        pulls++;
+    }
+
+    /**
+     * @return the version of the server's weights after the push
+     */
+    private long push(int count) throws IOException {
+        out.writeByte(ParameterServer.PUSH);
+        out.writeLong(base);
+        out.writeInt(count);
+        out.writeByte(compression.id());
+        for (double[] delta : residual) {
+            compression.write(delta, fraction, scratch, out);
+        }
+        out.flush();
+        boolean accepted = in.readUnsignedByte() == ParameterServer.ACCEPTED;
+        long current = in.readLong();
+        if (accepted) {
+            pushes++;
+        } else {
+            rejected++;
+            pull();
+        }
+        return current;
+    }
+
+    public long getPushes() {
+        return pushes;
+    }
+
+    /**
+     * @return the number of pushes the server rejected as too stale, their updates being dropped
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getPulls() {
+        return pulls;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+}
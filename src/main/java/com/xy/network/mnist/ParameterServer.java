@@ -0,0 +1,432 @@
+package com.xy.network.mnist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the weights of a network for {@link ParameterClient}s training it from other processes: clients pull the
+ * current weights, learn batches on their replica and push the resulting weight deltas, which the server subtracts
+ * from its weights.
+ * <p>
+ * Every accepted push increments the version of the weights. Staleness is bounded: a push computed from weights more
+ * than {@code staleness} versions old is rejected, and clients pull fresh weights once theirs are {@code staleness}
+ * versions old. A staleness of 0 serializes training.
+ * <p>
+ * The protocol is a handshake, the server sending the shape of the network, followed by pull and push requests over
+ * one connection per client, served by one thread each. A connection that fails, on an I/O error or a protocol
+ * violation, is closed and counted while the server keeps serving the others; the last failure is thrown by
+ * {@link #close()}.
+ */
+public class ParameterServer implements AutoCloseable {
+    static final int MAGIC   = 0x58595053;
+    static final int VERSION = 1;
+
+    static final int PULL = 1;
+    static final int PUSH = 2;
+
+    static final int ACCEPTED = 1;
+    static final int REJECTED = 2;
+
+    /**
+     * How pushed deltas are encoded. Whatever an encoding loses is left in the delta, which clients carry over to
+     * their next push.
+     */
+    public enum Compression {
+        /**
+         * 64-bit floats.
+         */
+        NONE(0),
+        /**
+         * 16-bit floats, a quarter of the size.
+         */
+        FLOAT16(1),
+        /**
+         * The largest deltas by magnitude only, as positions and 32-bit floats.
+         */
+        TOP_K(2);
+
+        private final int id;
+
+        Compression(int id) {
+            this.id = id;
+        }
+
+        int id() {
+            return id;
+        }
+
+        static Compression of(int id) {
+            for (Compression compression : values()) {
+                if (compression.id == id) {
+                    return compression;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported compression " + id);
+        }
+
+        /**
+         * Writes {@code delta}, leaving in it what was not sent.
+         *
+         * @param fraction the fraction of the deltas sent by {@link #TOP_K}
+         * @param scratch  a buffer at least as large as {@code delta}, of which only the first {@code delta.length}
+         *                 elements are used
+         */
+        void write(double[] delta, double fraction, double[] scratch, DataOutputStream out) throws IOException {
+            switch (this) {
+            case NONE:
+                for (int k = 0; k < delta.length; k++) {
+                    out.writeDouble(delta[k]);
+                    delta[k] = 0;
+                }
+                break;
+            case FLOAT16:
+                for (int k = 0; k < delta.length; k++) {
+                    short half = toHalf((float) delta[k]);
+                    out.writeShort(half);
+                    delta[k] -= fromHalf(half);
+                }
+                break;
+            case TOP_K:
+                int count = (int) Math.min(delta.length, Math.max(1, Math.ceil(fraction * delta.length)));
+                for (int k = 0; k < delta.length; k++) {
+                    scratch[k] = Math.abs(delta[k]);
+                }
+                double threshold = Selection.select(scratch, delta.length, delta.length - count);
+                out.writeInt(count);
+                for (int k = 0, sent = 0; k < delta.length && sent < count; k++) {
+                    if (Math.abs(delta[k]) >= threshold) {
+                        float value = (float) delta[k];
+                        out.writeInt(k);
+                        out.writeFloat(value);
+                        delta[k] -= value;
+                        sent++;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        /**
+         * Reads a delta written by {@link #write} into {@code delta}.
+         */
+        void read(DataInputStream in, double[] delta) throws IOException {
+            switch (this) {
+            case NONE:
+                for (int k = 0; k < delta.length; k++) {
+                    delta[k] = in.readDouble();
+                }
+                break;
+            case FLOAT16:
+                for (int k = 0; k < delta.length; k++) {
+                    delta[k] = fromHalf(in.readShort());
+                }
+                break;
+            case TOP_K:
+                Arrays.fill(delta, 0);
+                int count = in.readInt();
+                if (count < 0 || count > delta.length) {
+                    throw new IOException("Illegal count " + count);
+                }
+                for (int k = 0; k < count; k++) {
+                    int index = in.readInt();
+                    if (index < 0 || index >= delta.length) {
+                        throw new IOException("Illegal index " + index);
+                    }
+                    delta[index] = in.readFloat();
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+    }
+
+    private final NeuralNetwork network;
+    private final Layer[]       layer;
+    private final int           staleness;
+    private final ServerSocket  socket;
+    private final Thread        acceptor;
+    private final List<Socket>  connections = new ArrayList<>();
+    private final LongAdder     pushes      = new LongAdder();
+    private final LongAdder     rejected    = new LongAdder();
+    private final LongAdder     samples     = new LongAdder();
+    private final LongAdder     pulls       = new LongAdder();
+    private final LongAdder     failures    = new LongAdder();
+
+    private long version;
+
+    private volatile boolean     closed;
+    private volatile IOException failure;
+
+    /**
+     * @param network   the network trained, which must not be used directly while the server runs, see
+     *                  {@link #snapshot()} and {@link #write(Path)}
+     * @param port      the loopback port, 0 for any free one, see {@link #getPort()}
+     * @param staleness the number of versions a pushing client may be behind
+     */
+    public ParameterServer(NeuralNetwork network, int port, int staleness) throws IOException {
+        if (staleness < 0) {
+            throw new IllegalArgumentException("Expected >= 0, was " + staleness);
+        }
+        this.network = network;
+        this.layer = network.layers();
+        this.staleness = staleness;
+        socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        acceptor = new Thread(this::accept, "parameter-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public long getPushes() {
+        return pushes.sum();
+    }
+
+    /**
+     * @return the number of pushes rejected for being too stale
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getPulls() {
+        return pulls.sum();
+    }
+
+    /**
+     * @return the number of connections closed, or accepts failed, on an error
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of samples of the accepted pushes
+     */
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * @return a consistent copy of the current weights
+     */
+    public synchronized InferenceModel snapshot() {
+        return network.snapshot();
+    }
+
+    public synchronized void write(Path file) throws IOException {
+        network.write(file);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket connection = socket.accept();
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+                Thread thread = new Thread(() -> serve(connection), "parameter-server-" + connection.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    fail(e);
+                }
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        failures.increment();
+        failure = e;
+    }
+
+    private void serve(Socket connection) {
+        try (Socket s = connection;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a parameter client");
+            }
+            out.writeInt(staleness);
+            out.writeInt(layer.length);
+            for (Layer l : layer) {
+                out.writeInt(l.rows);
+                out.writeInt(l.cols);
+                out.writeInt(l.activation.id());
+            }
+            out.flush();
+
+            double[][] delta = new double[layer.length][];
+            for (int i = 0; i < layer.length; i++) {
+                delta[i] = new double[layer[i].size()];
+            }
+            ByteBuffer weights = null;
+            while (true) {
+                int command = in.read();
+                if (command == -1) {
+                    return;
+                }
+                switch (command) {
+                case PULL:
+                    long pulled;
+                    synchronized (this) {
+                        pulled = version;
+                        weights = encode(weights);
+                    }
+                    out.writeLong(pulled);
+                    out.write(weights.array(), 0, weights.limit());
+                    out.flush();
+                    pulls.increment();
+                    break;
+                case PUSH:
+                    long base = in.readLong();
+                    int count = in.readInt();
+                    Compression compression = Compression.of(in.readUnsignedByte());
+                    for (double[] d : delta) {
+                        compression.read(in, d);
+                    }
+                    boolean accepted;
+                    long current;
+                    synchronized (this) {
+                        accepted = version - base <= staleness;
+                        if (accepted) {
+                            for (int i = 0; i < layer.length; i++) {
+                                layer[i].subtract(delta[i], 0, delta[i].length, 1);
+                            }
+                            version++;
+                        }
+                        current = version;
+                    }
+                    if (accepted) {
+                        pushes.increment();
+                        samples.add(count);
+                    } else {
+                        rejected.increment();
+                    }
+                    out.writeByte(accepted ? ACCEPTED : REJECTED);
+                    out.writeLong(current);
+                    out.flush();
+                    break;
+                default:
+                    throw new IOException("Unknown command " + command);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // client gone
+        } catch (IOException e) {
+            if (!closed) {
+                fail(e);
+            }
+        } catch (RuntimeException e) {
+            if (!closed) {
+                fail(new IOException("Failed serving " + connection.getRemoteSocketAddress(), e));
+            }
+        } finally {
+            synchronized (connections) {
+                connections.remove(connection);
+            }
+        }
+    }
+
+    /**
+     * Writes all weights as big-endian doubles, reusing {@code buffer} when large enough.
+     */
+    private ByteBuffer encode(ByteBuffer buffer) {
+        int size = 0;
+        for (Layer l : layer) {
+            size += l.size();
+        }
+        if (buffer == null || buffer.capacity() < size * Double.BYTES) {
+            buffer = ByteBuffer.allocate(size * Double.BYTES);
+        }
+        buffer.clear();
+        for (Layer l : layer) {
+            for (int k = 0; k < l.size(); k++) {
+                buffer.putDouble(l.get(k));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Stops accepting clients and disconnects the connected ones.
+     *
+     * @throws IOException the last connection failure, if any
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        synchronized (connections) {
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the nearest IEEE 754 half-precision value, ties to even
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = bits >>> 16 & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        if (magnitude >= 0x7f800000) {
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+        }
+        if (magnitude >= 0x477ff000) {
+            return (short) (sign | 0x7c00);
+        }
+        if (magnitude >= 0x38800000) {
+            return (short) (sign | magnitude - 0x38000000 + 0xfff + (magnitude >>> 13 & 1) >>> 13);
+        }
+        return (short) (sign | (int) Math.rint(Float.intBitsToFloat(magnitude) * 0x1p24));
+    }
+
+    static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = half >>> 10 & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign == 0 ? subnormal : -subnormal;
+        }
+        return Float.intBitsToFloat(sign | exponent + 112 << 23 | mantissa << 13);
+    }
+
+}
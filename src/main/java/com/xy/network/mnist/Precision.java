@@ -0,0 +1,26 @@
+package com.xy.network.mnist;
+
+/**
+ * Storage precision of the weights of a {@link NeuralNetwork}.
+ */
+public enum Precision {
+    /**
+     * 64-bit weights.
+     */
+    DOUBLE(Double.BYTES),
+    /**
+     * 32-bit weights, half the memory and bandwidth of {@link #DOUBLE}. Products are still accumulated in doubles.
+     */
+    FLOAT(Float.BYTES);
+
+    private final int bytes;
+
+    Precision(int bytes) {
+        this.bytes = bytes;
+    }
+
+    int bytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,453 @@
+package com.xy.network.mnist;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An int8 post-training quantization of a {@link NeuralNetwork}, for inference only.
+ * <p>
+ * Weights are stored as bytes, transposed so that the weights feeding one output neuron are contiguous, with a
+ * scale per layer or per neuron. Layer inputs are quantized with a scale calibrated on sample inputs, products are
+ * accumulated in {@code int}s and only the sums are scaled back to doubles before the layer's {@link Activation}. Like
+ * {@link InferenceModel}, instances are immutable and may be used by any number of threads.
+ * <p>
+ * File layout, little-endian after the magic number "XYQ8": version, layer count, then per layer rows, cols,
+ * granularity, activation, input scale (float), the weight scales (floats) and the {@code rows * cols} weight bytes.
+ * Version 1 files have no activation, their layers are sigmoid. Files are written to a temporary sibling, synced and
+ * renamed over the target, like {@link ModelFile}s.
+ */
+public class QuantizedModel {
+    private static final int MAGIC   = 0x58595138;
+    private static final int VERSION = 2;
+    private static final int LIMIT   = 127;
+
+    public enum Granularity {
+        /**
+         * One scale for all weights of a layer.
+         */
+        PER_LAYER,
+        /**
+         * One scale for the weights feeding each output neuron, a row of the conventional weight matrix.
+         */
+        PER_NEURON
+    }
+
+    private final QuantizedLayer[]     layer;
+    private final ThreadLocal<Scratch> scratch;
+
+    private QuantizedModel(QuantizedLayer[] layer) {
+        this.layer = layer;
+        int[] size = new int[layer.length + 1];
+        size[0] = layer[0].rows;
+        for (int l = 0; l < layer.length; l++) {
+            size[l + 1] = layer[l].cols;
+        }
+        scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+    }
+
+    /**
+     * Starts calibrating a quantization of {@code network}: feed representative inputs to the calibrator, then
+     * call {@link Calibrator#quantize(Granularity)}.
+     */
+    public static Calibrator calibrate(NeuralNetwork network) {
+        return new Calibrator(network.layers());
+    }
+
+    public static QuantizedModel read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File too large");
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) == -1) {
+                    break;
+                }
+            }
+            bytes.flip();
+            if (bytes.remaining() < 3 * Integer.BYTES || bytes.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a quantized network");
+            }
+            bytes.order(ByteOrder.LITTLE_ENDIAN);
+            int version = bytes.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + version);
+            }
+            int size = bytes.getInt();
+            if (size < 1 || size > bytes.remaining() / (5 * Integer.BYTES)) {
+                throw new IllegalArgumentException("Corrupted file header");
+            }
+            QuantizedLayer[] layer = new QuantizedLayer[size];
+            for (int l = 0; l < layer.length; l++) {
+                checkRemaining(bytes, (version == 1 ? 4 : 5) * Integer.BYTES);
+                int rows = bytes.getInt();
+                int cols = bytes.getInt();
+                int granularity = bytes.getInt();
+                Activation activation = version == 1 ? Activation.SIGMOID : Activation.of(bytes.getInt());
+                float inputScale = bytes.getFloat();
+                long weights = (long) rows * cols;
+                if (rows < 1 || cols < 1 || weights > Integer.MAX_VALUE - 8 ||
+                        l > 0 && rows != layer[l - 1].cols) {
+                    throw new IllegalArgumentException("Illegal layer " + rows + "x" + cols);
+                }
+                if (granularity < 0 || granularity >= Granularity.values().length) {
+                    throw new IllegalArgumentException("Unsupported granularity " + granularity);
+                }
+                float[] scale = new float[granularity == Granularity.PER_LAYER.ordinal() ? 1 : cols];
+                checkRemaining(bytes, (long) scale.length * Float.BYTES + weights);
+                bytes.asFloatBuffer().get(scale);
+                bytes.position(bytes.position() + scale.length * Float.BYTES);
+                checkScale(inputScale);
+                for (float f : scale) {
+                    checkScale(f);
+                }
+                byte[] weight = new byte[(int) weights];
+                bytes.get(weight);
+                layer[l] = new QuantizedLayer(rows, cols, Granularity.values()[granularity], activation, inputScale,
+                        scale, weight);
+            }
+            if (bytes.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after the last layer");
+            }
+            return new QuantizedModel(layer);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        int size = 3 * Integer.BYTES;
+        for (QuantizedLayer l : layer) {
+            size += 5 * Integer.BYTES + l.scale.length * Float.BYTES + l.weight.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        bytes.putInt(MAGIC);
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(VERSION);
+        bytes.putInt(layer.length);
+        for (QuantizedLayer l : layer) {
+            bytes.putInt(l.rows);
+            bytes.putInt(l.cols);
+            bytes.putInt(l.granularity.ordinal());
+            bytes.putInt(l.activation.id());
+            bytes.putFloat(l.inputScale);
+            for (float s : l.scale) {
+                bytes.putFloat(s);
+            }
+            bytes.put(l.weight);
+        }
+        bytes.flip();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel output = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                while (bytes.hasRemaining()) {
+                    output.write(bytes);
+                }
+                output.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void checkRemaining(ByteBuffer bytes, long size) {
+        if (bytes.remaining() < size) {
+            throw new IllegalArgumentException("Unexpected end of file");
+        }
+    }
+
+    private static void checkScale(float scale) {
+        if (!(scale > 0 && scale < Float.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Illegal scale " + scale);
+        }
+    }
+
+    public int getInputSize() {
+        return layer[0].rows;
+    }
+
+    public int getOutputSize() {
+        return layer[layer.length - 1].cols;
+    }
+
+    public double[] decide(double[] input) {
+        double[] output = new double[getOutputSize()];
+        decide(input, output);
+        return output;
+    }
+
+    public void decide(double[] input, double[] output) {
+        if (input.length != getInputSize() || output.length != getOutputSize()) {
+            throw new IllegalArgumentException("Expected " + getInputSize() + " inputs and " + getOutputSize() +
+                    " outputs, was " + input.length + " and " + output.length);
+        }
+        Scratch s = scratch.get();
+        s.activation[0] = input;
+        try {
+            for (int l = 0; l < layer.length; l++) {
+                layer[l].forward(s.activation[l], s.quantized, s.activation[l + 1]);
+            }
+            System.arraycopy(s.activation[layer.length], 0, output, 0, output.length);
+        } finally {
+            s.activation[0] = null;
+        }
+    }
+
+    /**
+     * Collects the largest absolute input of every layer over representative samples.
+     */
+    public static class Calibrator {
+        private final Layer[]    layer;
+        private final double[][] activation;
+        private final double[]   range;
+
+        private int samples;
+
+        Calibrator(Layer[] layer) {
+            this.layer = new Layer[layer.length];
+            for (int i = 0; i < layer.length; i++) {
+                this.layer[i] = layer[i].copy();
+            }
+            activation = new double[layer.length][];
+            for (int i = 1; i < layer.length; i++) {
+                activation[i] = new double[layer[i].rows];
+            }
+            range = new double[layer.length];
+        }
+
+        public Calibrator add(double[] input) {
+            if (input.length != layer[0].rows) {
+                throw new IllegalArgumentException("Expected " + layer[0].rows + " elements, was " + input.length);
+            }
+            activation[0] = input;
+            try {
+                for (int i = 0; i < layer.length; i++) {
+                    if (i > 0) {
+                        layer[i - 1].forward(activation[i - 1], activation[i]);
+                    }
+                    for (double x : activation[i]) {
+                        range[i] = Math.max(range[i], Math.abs(x));
+                    }
+                }
+            } finally {
+                activation[0] = null;
+            }
+            samples++;
+            return this;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public QuantizedModel quantize(Granularity granularity) {
+            if (samples == 0) {
+                throw new IllegalStateException("No calibration samples");
+            }
+            QuantizedLayer[] quantized = new QuantizedLayer[layer.length];
+            for (int i = 0; i < layer.length; i++) {
+                quantized[i] = QuantizedLayer.quantize(layer[i], granularity, range[i]);
+            }
+            return new QuantizedModel(quantized);
+        }
+
+    }
+
+    /**
+     * Accumulates the differences between a reference network and its quantization over labelled samples.
+     */
+    public static class Comparison {
+        private final NeuralNetwork  reference;
+        private final QuantizedModel quantized;
+        private final double[]       referenceOutput;
+        private final double[]       quantizedOutput;
+
+        private int    samples;
+        private int    referenceErrors;
+        private int    quantizedErrors;
+        private int    disagreements;
+        private double maxDifference;
+        private double sumDifference;
+
+        public Comparison(NeuralNetwork reference, QuantizedModel quantized) {
+            this.reference = reference;
+            this.quantized = quantized;
+            referenceOutput = new double[reference.getOutputSize()];
+            quantizedOutput = new double[quantized.getOutputSize()];
+        }
+
+        /**
+         * @param label the index of the expected largest output
+         */
+        public Comparison add(double[] input, int label) {
+            reference.decide(input, referenceOutput);
+            quantized.decide(input, quantizedOutput);
+            int referenceDecision = maxIndex(referenceOutput);
+            int quantizedDecision = maxIndex(quantizedOutput);
+            samples++;
+            referenceErrors += referenceDecision != label ? 1 : 0;
+            quantizedErrors += quantizedDecision != label ? 1 : 0;
+            disagreements += referenceDecision != quantizedDecision ? 1 : 0;
+            for (int j = 0; j < referenceOutput.length; j++) {
+                double difference = Math.abs(referenceOutput[j] - quantizedOutput[j]);
+                maxDifference = Math.max(maxDifference, difference);
+                sumDifference += difference;
+            }
+            return this;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getReferenceErrors() {
+            return referenceErrors;
+        }
+
+        public int getQuantizedErrors() {
+            return quantizedErrors;
+        }
+
+        public int getDisagreements() {
+            return disagreements;
+        }
+
+        public double getMaxDifference() {
+            return maxDifference;
+        }
+
+        public double getMeanDifference() {
+            return samples == 0 ? 0 : sumDifference / samples / referenceOutput.length;
+        }
+
+        /**
+         * @return quantized minus reference accuracy
+         */
+        public double getAccuracyDifference() {
+            return samples == 0 ? 0 : (double) (referenceErrors - quantizedErrors) / samples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d samples, errors %d -> %d (accuracy %+.4f), %d disagreements, " +
+                    "output difference mean %.5f max %.5f", samples, referenceErrors, quantizedErrors,
+                    getAccuracyDifference(), disagreements, getMeanDifference(), maxDifference);
+        }
+
+        private static int maxIndex(double[] output) {
+            int index = 0;
+            for (int i = 1; i < output.length; i++) {
+                if (output[i] > output[index]) {
+                    index = i;
+                }
+            }
+            return index;
+        }
+
+    }
+
+    private static final class QuantizedLayer {
+        final int         rows;
+        final int         cols;
+        final Granularity granularity;
+        final Activation  activation;
+        final float       inputScale;
+        final float[]     scale;
+        final byte[]      weight;
+
+        QuantizedLayer(int rows, int cols, Granularity granularity, Activation activation, float inputScale,
+                float[] scale, byte[] weight) {
+            this.rows = rows;
+            this.cols = cols;
+            this.granularity = granularity;
+            this.activation = activation;
+            this.inputScale = inputScale;
+            this.scale = scale;
+            this.weight = weight;
+        }
+
+        static QuantizedLayer quantize(Layer layer, Granularity granularity, double inputRange) {
+            int rows = layer.rows;
+            int cols = layer.cols;
+            double[] range = new double[granularity == Granularity.PER_LAYER ? 1 : cols];
+            for (int i = 0, k = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++, k++) {
+                    int r = range.length == 1 ? 0 : j;
+                    range[r] = Math.max(range[r], Math.abs(layer.get(k)));
+                }
+            }
+            float[] scale = new float[range.length];
+            for (int r = 0; r < range.length; r++) {
+                scale[r] = range[r] == 0 ? 1 : (float) (range[r] / LIMIT);
+            }
+            byte[] weight = new byte[rows * cols];
+            for (int i = 0, k = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++, k++) {
+                    weight[j * rows + i] = quantize(layer.get(k) / scale[range.length == 1 ? 0 : j]);
+                }
+            }
+            float inputScale = inputRange == 0 ? 1 : (float) (inputRange / LIMIT);
+            return new QuantizedLayer(rows, cols, granularity, layer.activation, inputScale, scale, weight);
+        }
+
+        /**
+         * {@code output = f(input * W)}, {@code quantized} being a scratch buffer for the quantized input.
+         */
+        void forward(double[] input, byte[] quantized, double[] output) {
+            double inverse = 1 / (double) inputScale;
+            for (int i = 0; i < rows; i++) {
+                quantized[i] = quantize(input[i] * inverse);
+            }
+            for (int j = 0, offset = 0; j < cols; j++, offset += rows) {
+                int sum = 0;
+                for (int i = 0; i < rows; i++) {
+                    sum += quantized[i] * weight[offset + i];
+                }
+                double s = scale.length == 1 ? scale[0] : scale[j];
+                output[j] = sum * s * inputScale;
+            }
+            activation.apply(output, 0, cols);
+        }
+
+        private static byte quantize(double value) {
+            long q = Math.round(value);
+            return (byte) Math.max(-LIMIT, Math.min(LIMIT, q));
+        }
+
+    }
+
+    /**
+     * The buffers of one thread, built from the activation sizes only so as not to keep the model reachable, see
+     * {@link InferenceModel}.
+     */
+    private static final class Scratch {
+        final double[][] activation;
+        final byte[]     quantized;
+
+        Scratch(int[] size) {
+            activation = new double[size.length][];
+            int max = 0;
+            for (int l = 0; l + 1 < size.length; l++) {
+                activation[l + 1] = new double[size[l + 1]];
+                max = Math.max(max, size[l]);
+            }
+            quantized = new byte[max];
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.xy.network.mnist;
+
+/**
+ * Order statistics, the k-th smallest of a set of values in linear expected time, as used to find the threshold of the
+ * top-k elements: the magnitudes kept by {@link NeuralNetwork#prune(double) pruning} and the deltas sent by a
+ * {@link ParameterServer} with top-k compression.
+ */
+final class Selection {
+
+    /**
+     * Hoare's quickselect, partially reordering {@code values}.
+     *
+     * @return the element that would be at {@code rank} if {@code values} were sorted
+     */
+    static double select(double[] values, int rank) {
+        return select(values, values.length, rank);
+    }
+
+    /**
+     * {@link #select(double[], int)} among the first {@code size} values only, the others being left untouched: a
+     * scratch buffer sized for the largest of several sets can be reused for the smaller ones.
+     */
+    static double select(double[] values, int size, int rank) {
+        if (size > values.length || rank < 0 || rank >= size) {
+            throw new IllegalArgumentException("Rank " + rank + " out of " + size + " values");
+        }
+        int from = 0;
+        int to = size - 1;
+        while (from < to) {
+            double pivot = values[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (rank <= j) {
+                to = j;
+            } else if (rank >= i) {
+                from = i;
+            } else {
+                break;
+            }
+        }
+        return values[rank];
+    }
+
+    private Selection() {
+        //
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.xy.network.mnist;
+
+import java.util.Arrays;
+
+/**
+ * A layer storing only its non-zero weights, in compressed sparse row form: the weights of row {@code i}, that is of
+ * input {@code i}, are the values {@code start[i]} to {@code start[i + 1] - 1}, connecting to the outputs
+ * {@code index[start[i]]} and on, in ascending order. Worth it for {@link NeuralNetwork#prune pruned} layers:
+ * inference visits the non-zero weights of the non-zero inputs only, and sums every output in the same order as a
+ * dense layer, so that results are the same.
+ * <p>
+ * Read-only and never trained. The values are kept in the layer's precision, as {@code doubles} or {@code floats},
+ * the other array being {@code null}.
+ */
+final class SparseLayer extends InferenceLayer {
+    final int[]    start;
+    final int[]    index;
+    final double[] doubles;
+    final float[]  floats;
+
+    private SparseLayer(int rows, int cols, Activation activation, int[] start, int[] index, double[] doubles,
+            float[] floats) {
+        super(rows, cols, activation);
+        int count = doubles != null ? doubles.length : floats.length;
+        if (start.length != rows + 1 || start[0] != 0 || start[rows] != index.length || index.length != count) {
+            throw new IllegalArgumentException("Corrupted sparse layer");
+        }
+        for (int i = 0; i < rows; i++) {
+            if (start[i + 1] < start[i]) {
+                throw new IllegalArgumentException("Corrupted sparse layer");
+            }
+            for (int k = start[i], last = -1; k < start[i + 1]; k++) {
+                if (index[k] <= last || index[k] >= cols) {
+                    throw new IllegalArgumentException("Corrupted sparse layer");
+                }
+                last = index[k];
+            }
+        }
+        this.start = start;
+        this.index = index;
+        this.doubles = doubles;
+        this.floats = floats;
+    }
+
+    SparseLayer(int rows, int cols, Activation activation, int[] start, int[] index, double[] value) {
+        this(rows, cols, activation, start, index, value, null);
+    }
+
+    SparseLayer(int rows, int cols, Activation activation, int[] start, int[] index, float[] value) {
+        this(rows, cols, activation, start, index, null, value);
+    }
+
+    /**
+     * @return the non-zero weights of {@code layer}, in its precision
+     */
+    static SparseLayer of(InferenceLayer layer) {
+        int count = 0;
+        for (int k = 0; k < layer.size(); k++) {
+            if (layer.get(k) != 0) {
+                count++;
+            }
+        }
+        int[] start = new int[layer.rows + 1];
+        int[] index = new int[count];
+        double[] doubles = layer.precision() == Precision.FLOAT ? null : new double[count];
+        float[] floats = doubles == null ? new float[count] : null;
+        for (int i = 0, n = 0; i < layer.rows; i++) {
+            for (int j = 0, offset = i * layer.cols; j < layer.cols; j++) {
+                double w = layer.get(offset + j);
+                if (w == 0) {
+                    continue;
+                }
+                index[n] = j;
+                if (doubles != null) {
+                    doubles[n++] = w;
+                } else {
+                    floats[n++] = (float) w;
+                }
+            }
+            start[i + 1] = n;
+        }
+        return new SparseLayer(layer.rows, layer.cols, layer.activation, start, index, doubles, floats);
+    }
+
+    /**
+     * @return the number of non-zero weights
+     */
+    int count() {
+        return index.length;
+    }
+
+    @Override
+    Precision precision() {
+        return doubles != null ? Precision.DOUBLE : Precision.FLOAT;
+    }
+
+    @Override
+    double get(int index) {
+        int i = index / cols;
+        int k = Arrays.binarySearch(this.index, start[i], start[i + 1], index - i * cols);
+        return k < 0 ? 0 : value(k);
+    }
+
+    private double value(int k) {
+        return doubles != null ? doubles[k] : floats[k];
+    }
+
+    @Override
+    Layer convert(Precision precision) {
+        Layer layer = Layer.create(precision, rows, cols, activation);
+        for (int i = 0; i < rows; i++) {
+            for (int k = start[i]; k < start[i + 1]; k++) {
+                layer.set(i * cols + index[k], value(k));
+            }
+        }
+        return layer;
+    }
+
+    @Override
+    void forward(double[] input, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int i = 0; i < rows; i++) {
+            double x = input[i];
+            if (x != 0) {
+                scatter(x, i, output, from, to);
+            }
+        }
+        activation.apply(output, from, to);
+    }
+
+    @Override
+    void forwardSparse(int[] index, double[] value, int count, double[] output, int from, int to) {
+        for (int j = from; j < to; j++) {
+            output[j] = 0;
+        }
+        for (int k = 0; k < count; k++) {
+            scatter(value[k], index[k], output, from, to);
+        }
+        activation.apply(output, from, to);
+    }
+
+    /**
+     * {@code output += x * W[i]} over the outputs {@code [from, to)}
+     */
+    private void scatter(double x, int i, double[] output, int from, int to) {
+        int k = start[i];
+        int end = start[i + 1];
+        if (from > 0) {
+            k = Arrays.binarySearch(index, k, end, from);
+            k = k < 0 ? -k - 1 : k;
+        }
+        if (to < cols) {
+            end = Arrays.binarySearch(index, k, end, to);
+            end = end < 0 ? -end - 1 : end;
+        }
+        if (doubles != null) {
+            KERNELS.scatter(x, doubles, index, k, end, output, 0);
+        } else {
+            KERNELS.scatter(x, floats, index, k, end, output, 0);
+        }
+    }
+
+    @Override
+    void forwardBatch(double[] input, double[] output, int count) {
+        Arrays.fill(output, 0, count * cols, 0);
+        for (int s = 0, in = 0, out = 0; s < count; s++, in += rows, out += cols) {
+            for (int i = 0; i < rows; i++) {
+                double x = input[in + i];
+                if (x == 0) {
+                    continue;
+                }
+                if (doubles != null) {
+                    KERNELS.scatter(x, doubles, index, start[i], start[i + 1], output, out);
+                } else {
+                    KERNELS.scatter(x, floats, index, start[i], start[i + 1], output, out);
+                }
+            }
+        }
+        activation.apply(output, 0, count * cols);
+    }
+
+}
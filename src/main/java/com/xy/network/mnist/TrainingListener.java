@@ -0,0 +1,34 @@
+package com.xy.network.mnist;
+
+/**
+ * Callbacks from {@link NeuralNetwork} and {@link ParallelTrainer} training, invoked on the training thread. A lap is
+ * one forward/backward iteration of {@link NeuralNetwork#learn(double[], double[], double, int, double)} on one
+ * sample.
+ */
+public interface TrainingListener {
+
+    /**
+     * @param lap      zero-based iteration on the current sample
+     * @param maxError largest absolute output error before the lap's update
+     */
+    default void lap(int lap, double maxError) {
+        //
+    }
+
+    /**
+     * @param iterations the result of {@code learn}
+     * @param converged  whether the sample ended within epsilon
+     */
+    default void sample(int iterations, boolean converged) {
+        //
+    }
+
+    /**
+     * @param count    the batch size
+     * @param learning the number of samples that were not within epsilon
+     */
+    default void batch(int count, int learning) {
+        //
+    }
+
+}
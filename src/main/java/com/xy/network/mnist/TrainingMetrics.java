@@ -0,0 +1,203 @@
+package com.xy.network.mnist;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Training counters and timings, safe to share between threads. Attach an instance with
+ * {@link NeuralNetwork#setMetrics(TrainingMetrics)}; without one, training only pays a null check per phase. Read
+ * the numbers through the getters or over JMX after {@link #register(String)}.
+ */
+public class TrainingMetrics implements TrainingMetricsMXBean {
+
+    public enum Phase {
+        /**
+         * Forward pass, including the error and convergence check of mini-batches.
+         */
+        FORWARD,
+        /**
+         * Error and convergence check of a single sample.
+         */
+        CONVERGENCE,
+        BACKWARD,
+        UPDATE,
+        /**
+         * Reading and decoding samples.
+         */
+        DATA
+    }
+
+    private final LongAdder[] phaseNanos     = new LongAdder[Phase.values().length];
+    private final Histogram[] phaseHistogram = new Histogram[Phase.values().length];
+    private final LongAdder   samples        = new LongAdder();
+    private final LongAdder   batches        = new LongAdder();
+    private final LongAdder   iterations     = new LongAdder();
+    private final LongAdder   bytesRead      = new LongAdder();
+    private final Histogram   converging     = new Histogram();
+
+    private volatile long startNanos = System.nanoTime();
+
+    public TrainingMetrics() {
+        for (int p = 0; p < phaseNanos.length; p++) {
+            phaseNanos[p] = new LongAdder();
+            phaseHistogram[p] = new Histogram();
+        }
+    }
+
+    public void record(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+        phaseHistogram[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the phase time since {@code start}.
+     *
+     * @return the current {@link System#nanoTime()}, the start of the next phase
+     */
+    public long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        record(phase, now - start);
+        return now;
+    }
+
+    /**
+     * Counts bytes read from the sample files, called by the IDX readers given these metrics.
+     */
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void sample(int iterations, boolean converged) {
+        samples.increment();
+        this.iterations.add(iterations);
+        if (converged) {
+            converging.record(iterations);
+        }
+    }
+
+    void batch(int count) {
+        batches.increment();
+        samples.add(count);
+        iterations.add(count);
+    }
+
+    @Override
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    /**
+     * @return samples per second since construction or the last {@link #reset()}
+     */
+    @Override
+    public double getSamplesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : samples.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * @return the bytes read from the sample files, the decoded pixels and labels of the samples read
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return phaseHistogram[phase.ordinal()];
+    }
+
+    /**
+     * @return the distribution of {@code learn} iterations of the samples that converged
+     */
+    public Histogram getIterationsToConverge() {
+        return converging;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            map.put(phase.name(), getNanos(phase));
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanosP99() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            map.put(phase.name(), getHistogram(phase).getPercentile(99));
+        }
+        return map;
+    }
+
+    @Override
+    public double getMeanIterationsToConverge() {
+        return converging.getMean();
+    }
+
+    @Override
+    public long getIterationsToConvergeP99() {
+        return converging.getPercentile(99);
+    }
+
+    @Override
+    public void reset() {
+        for (int p = 0; p < phaseNanos.length; p++) {
+            phaseNanos[p].reset();
+            phaseHistogram[p].reset();
+        }
+        samples.reset();
+        batches.reset();
+        iterations.reset();
+        bytesRead.reset();
+        converging.reset();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as {@code com.xy.network:type=TrainingMetrics,name=...}.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.xy.network:type=TrainingMetrics,name=" +
+                    ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d samples, %.1f samples/s, %d iterations, %d bytes read", getSamples(),
+                getSamplesPerSecond(), getIterations(), getBytesRead()));
+        for (Phase phase : Phase.values()) {
+            sb.append(String.format(", %s %d ms", phase.name().toLowerCase(), getNanos(phase) / 1_000_000));
+        }
+        sb.append(", iterations to converge ").append(converging);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.xy.network.mnist;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link TrainingMetrics}.
+ */
+public interface TrainingMetricsMXBean {
+
+    long getSamples();
+
+    long getBatches();
+
+    long getIterations();
+
+    double getSamplesPerSecond();
+
+    long getBytesRead();
+
+    /**
+     * @return total nanoseconds per {@link TrainingMetrics.Phase}
+     */
+    Map<String, Long> getPhaseNanos();
+
+    /**
+     * @return 99th percentile nanoseconds of a single occurrence per {@link TrainingMetrics.Phase}
+     */
+    Map<String, Long> getPhaseNanosP99();
+
+    double getMeanIterationsToConverge();
+
+    long getIterationsToConvergeP99();
+
+    void reset();
+
+}
@@ -0,0 +1,205 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on SIMD registers of the platform's preferred width, through the incubating Vector API. Each loop
+ * runs on whole vectors, then finishes the remaining elements with the scalar code. {@code float} weights are loaded
+ * into vectors of half the width and widened to {@code double}s.
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> DOUBLE = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float>  FLOAT  =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLE.vectorBitSize() / 2));
+    private static final int                   LANES  = DOUBLE.length();
+
+    private static final double   LOG2_E = 0x1.71547652b82fep0;
+    private static final double   LN2_HI = 0x1.62e42fee00000p-1;
+    private static final double   LN2_LO = 0x1.a39ef35793c76p-33;
+    private static final double   ROUND  = 0x1.8p52;
+    private static final double[] TAYLOR = taylor(13);
+
+    @Override
+    String name() {
+        return "vector " + DOUBLE.vectorBitSize() + " bits";
+    }
+
+    @Override
+    void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            DoubleVector product = DoubleVector.fromArray(DOUBLE, x, xOffset + k).mul(a);
+            DoubleVector.fromArray(DOUBLE, y, yOffset + k).add(product).intoArray(y, yOffset + k);
+        }
+        for (; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    @Override
+    void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            DoubleVector product = widen(x, xOffset + k).mul(a);
+            DoubleVector.fromArray(DOUBLE, y, yOffset + k).add(product).intoArray(y, yOffset + k);
+        }
+        for (; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    @Override
+    void axpy(double a, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            DoubleVector product = DoubleVector.fromArray(DOUBLE, x, xOffset + k).mul(a);
+            DoubleVector sum = widen(y, yOffset + k).add(product);
+            ((FloatVector) sum.convertShape(VectorOperators.D2F, FLOAT, 0)).intoArray(y, yOffset + k);
+        }
+        for (; k < length; k++) {
+            y[yOffset + k] += a * x[xOffset + k];
+        }
+    }
+
+    @Override
+    void axpyDoubles(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            DoubleVector weight =
+                    DoubleVector.fromByteBuffer(DOUBLE, x, (xOffset + k) * Double.BYTES, ByteOrder.LITTLE_ENDIAN);
+            DoubleVector.fromArray(DOUBLE, y, yOffset + k).add(weight.mul(a)).intoArray(y, yOffset + k);
+        }
+        super.axpyDoubles(a, x, xOffset + k, y, yOffset + k, length - k);
+    }
+
+    @Override
+    void axpyFloats(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            FloatVector floats =
+                    FloatVector.fromByteBuffer(FLOAT, x, (xOffset + k) * Float.BYTES, ByteOrder.LITTLE_ENDIAN);
+            DoubleVector weight = (DoubleVector) floats.convertShape(VectorOperators.F2D, DOUBLE, 0);
+            DoubleVector.fromArray(DOUBLE, y, yOffset + k).add(weight.mul(a)).intoArray(y, yOffset + k);
+        }
+        super.axpyFloats(a, x, xOffset + k, y, yOffset + k, length - k);
+    }
+
+    @Override
+    double dot(double[] x, int xOffset, double[] y, int length) {
+        DoubleVector sum = DoubleVector.zero(DOUBLE);
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            sum = DoubleVector.fromArray(DOUBLE, x, xOffset + k).fma(DoubleVector.fromArray(DOUBLE, y, k), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; k < length; k++) {
+            result += x[xOffset + k] * y[k];
+        }
+        return result;
+    }
+
+    @Override
+    double dot(float[] x, int xOffset, double[] y, int length) {
+        DoubleVector sum = DoubleVector.zero(DOUBLE);
+        int k = 0;
+        for (int bound = DOUBLE.loopBound(length); k < bound; k += LANES) {
+            sum = widen(x, xOffset + k).fma(DoubleVector.fromArray(DOUBLE, y, k), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; k < length; k++) {
+            result += x[xOffset + k] * y[k];
+        }
+        return result;
+    }
+
+    @Override
+    void sigmoid(double[] x, int from, int to) {
+        DoubleVector one = DoubleVector.broadcast(DOUBLE, 1);
+        int k = from;
+        for (int bound = from + DOUBLE.loopBound(to - from); k < bound; k += LANES) {
+            DoubleVector exp = exp(DoubleVector.fromArray(DOUBLE, x, k).neg());
+            one.div(exp.add(1)).intoArray(x, k);
+        }
+        super.sigmoid(x, k, to);
+    }
+
+    @Override
+    void tanh(double[] x, int from, int to) {
+        DoubleVector one = DoubleVector.broadcast(DOUBLE, 1);
+        int k = from;
+        for (int bound = from + DOUBLE.loopBound(to - from); k < bound; k += LANES) {
+            DoubleVector v = DoubleVector.fromArray(DOUBLE, x, k);
+            DoubleVector exp = exp(v.abs().mul(-2));
+            DoubleVector tanh = one.sub(exp).div(one.add(exp));
+            tanh.blend(tanh.neg(), v.compare(VectorOperators.LT, 0)).intoArray(x, k);
+        }
+        super.tanh(x, k, to);
+    }
+
+    @Override
+    void relu(double[] x, int from, int to) {
+        leakyRelu(x, 0, from, to);
+    }
+
+    @Override
+    void leakyRelu(double[] x, double leak, int from, int to) {
+        int k = from;
+        for (int bound = from + DOUBLE.loopBound(to - from); k < bound; k += LANES) {
+            DoubleVector v = DoubleVector.fromArray(DOUBLE, x, k);
+            VectorMask<Double> negative = v.compare(VectorOperators.GT, 0).not();
+            v.blend(leak == 0 ? DoubleVector.zero(DOUBLE) : v.mul(leak), negative).intoArray(x, k);
+        }
+        if (leak == 0) {
+            super.relu(x, k, to);
+        } else {
+            super.leakyRelu(x, leak, k, to);
+        }
+    }
+
+    /**
+     * {@code exp(x)} from multiply-adds only: once C2 compiles a loop, it replaces {@link VectorOperators#EXP} and
+     * {@link VectorOperators#TANH} with intrinsics that round differently from the interpreted code, so the same
+     * network would decide differently before and after warming up. {@code x} is clamped to {@code [-708, 709]},
+     * then split into {@code n ln 2 + r}, with {@code exp(r)} from its Taylor series and {@code 2^n} built in the
+     * exponent bits.
+     */
+    private static DoubleVector exp(DoubleVector x) {
+        x = x.max(-708).min(709);
+        DoubleVector shifted = x.fma(LOG2_E, ROUND);
+        DoubleVector n = shifted.sub(ROUND);
+        DoubleVector r = x.sub(n.mul(LN2_HI)).sub(n.mul(LN2_LO));
+        DoubleVector exp = DoubleVector.broadcast(DOUBLE, TAYLOR[0]);
+        for (int k = 1; k < TAYLOR.length; k++) {
+            exp = exp.fma(r, DoubleVector.broadcast(DOUBLE, TAYLOR[k]));
+        }
+        // n sits in the low mantissa bits of n + ROUND, whose own bits are shifted out
+        LongVector exponent = (LongVector) shifted.reinterpretAsLongs();
+        return exp.mul(exponent.add(1023).lanewise(VectorOperators.LSHL, 52).reinterpretAsDoubles());
+    }
+
+    /**
+     * @return {@code 1 / k!} for {@code k} from {@code degree} down to 0
+     */
+    private static double[] taylor(int degree) {
+        double[] coefficient = new double[degree + 1];
+        double factorial = 1;
+        for (int k = 0; k <= degree; k++) {
+            coefficient[degree - k] = 1 / factorial;
+            factorial *= k + 1;
+        }
+        return coefficient;
+    }
+
+    private static DoubleVector widen(float[] x, int offset) {
+        return (DoubleVector) FloatVector.fromArray(FLOAT, x, offset).convertShape(VectorOperators.F2D, DOUBLE, 0);
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ActivationTest {
+    private static final double DELTA = 1e-14;
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("activation");
+        file = directory.resolve("model.network");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void appliesTheFunctionToTheRangeOnly() {
+        for (Activation activation : Activation.values()) {
+            double[] x = values();
+            double[] y = x.clone();
+            activation.apply(y, 1, x.length - 1);
+            assertEquals(x[0], y[0], activation.toString());
+            assertEquals(x[x.length - 1], y[x.length - 1], activation.toString());
+            for (int k = 1; k < x.length - 1; k++) {
+                double delta = activation == Activation.FAST_SIGMOID ? 1e-6 : DELTA;
+                assertEquals(function(activation).applyAsDouble(x[k]), y[k], delta, activation + "(" + x[k] + ")");
+            }
+        }
+    }
+
+    @Test
+    void gradientIsTheDerivativeAtTheOutput() {
+        double h = 1e-6;
+        for (Activation activation : Activation.values()) {
+            // the fast sigmoid trains with the exact sigmoid's derivative
+            DoubleUnaryOperator f = function(activation == Activation.FAST_SIGMOID ? Activation.SIGMOID : activation);
+            double[] x = values();
+            double[] output = x.clone();
+            activation.apply(output, 0, output.length);
+            double[] error = new double[x.length];
+            for (int k = 0; k < x.length; k++) {
+                error[k] = k % 3 - 1.5;
+            }
+            double[] gradient = new double[x.length];
+            activation.gradient(output, error, gradient, 0, x.length);
+            for (int k = 0; k < x.length; k++) {
+                double derivative = (f.applyAsDouble(x[k] + h) - f.applyAsDouble(x[k] - h)) / (2 * h);
+                assertEquals(-error[k] * derivative, gradient[k], 1e-6, activation + "'(" + x[k] + ")");
+            }
+            activation.gradient(output, error, error, 0, x.length);
+            assertArrayEquals(gradient, error, activation + " in place");
+        }
+    }
+
+    @Test
+    void idsIdentifyTheActivations() {
+        Set<Integer> ids = new HashSet<>();
+        for (Activation activation : Activation.values()) {
+            assertSame(activation, Activation.of(activation.id()));
+            ids.add(activation.id());
+        }
+        assertEquals(Activation.values().length, ids.size());
+        assertEquals(0, Activation.SIGMOID.id(), "version 1 files are sigmoid");
+        assertThrows(IllegalArgumentException.class, () -> Activation.of(-1));
+        assertThrows(IllegalArgumentException.class, () -> Activation.of(Activation.values().length));
+    }
+
+    @Test
+    void modelFilesKeepTheActivations() throws IOException {
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork network = network(precision);
+            network.write(file);
+            NeuralNetwork loaded = new NeuralNetwork(file);
+            assertArrayEquals(Activation.values(), loaded.getActivations(), precision.toString());
+            InferenceModel mapped = InferenceModel.map(file);
+            Random random = new Random(2);
+            for (int s = 0; s < 10; s++) {
+                double[] input = input(random, network.getInputSize());
+                double[] expected = network.decide(input);
+                assertArrayEquals(expected, loaded.decide(input), precision + " loaded");
+                assertArrayEquals(expected, mapped.decide(input), precision + " mapped");
+            }
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt((int) buffer.getLong(16) + 12, Activation.values().length);
+        Files.write(file, bytes);
+        assertThrows(IllegalArgumentException.class, () -> new NeuralNetwork(file));
+    }
+
+    @Test
+    void quantizedModelsKeepTheActivations() throws IOException {
+        NeuralNetwork network = network(Precision.DOUBLE);
+        QuantizedModel.Calibrator calibrator = QuantizedModel.calibrate(network);
+        Random random = new Random(3);
+        for (int s = 0; s < 100; s++) {
+            calibrator.add(input(random, network.getInputSize()));
+        }
+        QuantizedModel model = calibrator.quantize(QuantizedModel.Granularity.PER_NEURON);
+        model.write(file);
+        QuantizedModel loaded = QuantizedModel.read(file);
+        for (int s = 0; s < 10; s++) {
+            double[] input = input(random, network.getInputSize());
+            double[] expected = network.decide(input);
+            double[] actual = model.decide(input);
+            assertArrayEquals(actual, loaded.decide(input), "sample " + s);
+            assertArrayEquals(expected, actual, 0.1, "sample " + s);
+        }
+    }
+
+    /**
+     * @return a network with every activation, one per layer
+     */
+    private static NeuralNetwork network(Precision precision) {
+        Activation[] activation = Activation.values();
+        int[] dimension = new int[activation.length + 1];
+        for (int i = 0; i < dimension.length; i++) {
+            dimension[i] = 16 - 2 * i;
+        }
+        NeuralNetwork network = new NeuralNetwork(precision, activation, dimension);
+        Random random = new Random(1);
+        network.randomize(() -> random.nextGaussian() * 0.5);
+        return network;
+    }
+
+    /**
+     * @return inputs over the sigmoid table and beyond, away from the kink of the rectifiers at zero
+     */
+    private static double[] values() {
+        double[] x = new double[45];
+        for (int k = 0; k < x.length; k++) {
+            x[k] = (k - 22) * 0.9 + 0.05;
+        }
+        return x;
+    }
+
+    private static DoubleUnaryOperator function(Activation activation) {
+        switch (activation) {
+        case SIGMOID:
+        case FAST_SIGMOID:
+            return x -> 1 / (1 + Math.exp(-x));
+        case TANH:
+            return Math::tanh;
+        case RELU:
+            return x -> Math.max(0, x);
+        default:
+            return x -> x > 0 ? x : 0.01 * x;
+        }
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+}
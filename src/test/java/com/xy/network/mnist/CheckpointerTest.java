@@ -0,0 +1,194 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CheckpointerTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpointer");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        delete(directory);
+    }
+
+    @Test
+    void checkpointsEverySampleInterval() throws IOException {
+        NeuralNetwork network = network(6, 5, 3);
+        network.setOptimizer(Optimizer.momentum(0.9));
+        Random random = new Random(2);
+        List<InferenceModel> expected = new ArrayList<>();
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 5, 10, 0, TimeUnit.SECONDS)) {
+            network.setListener(checkpointer);
+            for (int s = 1; s <= 25; s++) {
+                train(network, random);
+                if (s % 10 == 0) {
+                    expected.add(network.snapshot());
+                }
+            }
+            assertEquals(0, checkpointer.getSkipped());
+        }
+        assertEquals(names("checkpoint-000000000000010.network", "checkpoint-000000000000020.network"), list());
+        for (int k = 0; k < expected.size(); k++) {
+            Path checkpoint = directory.resolve(String.format("checkpoint-%015d.network", (k + 1) * 10));
+            NeuralNetwork loaded = new NeuralNetwork(checkpoint);
+            assertEquals((k + 1) * 10, loaded.getStep());
+            assertEquals(Optimizer.momentum(0.9).id(), loaded.getOptimizer().id());
+            double[] input = input(new Random(k), network.getInputSize());
+            assertArrayEquals(expected.get(k).decide(input), loaded.decide(input), checkpoint.toString());
+        }
+    }
+
+    @Test
+    void checkpointsEveryTimeInterval() throws Exception {
+        NeuralNetwork network = network(6, 5, 3);
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 5, 0, 1, TimeUnit.HOURS)) {
+            for (int s = 0; s < 100; s++) {
+                checkpointer.sample();
+            }
+        }
+        assertTrue(list().isEmpty());
+
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 5, 0, 1, TimeUnit.MILLISECONDS)) {
+            Thread.sleep(5);
+            checkpointer.sample();
+        }
+        assertEquals(names("checkpoint-000000000000001.network"), list());
+    }
+
+    @Test
+    void keepsTheLatestCheckpoints() throws Exception {
+        NeuralNetwork network = network(6, 5, 3);
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 2, 0, 0, TimeUnit.SECONDS)) {
+            assertNull(checkpointer.getLatest());
+            for (int k = 1; k <= 5; k++) {
+                checkpointer.sample();
+                assertTrue(checkpointer.checkpoint());
+                Path checkpoint = directory.resolve(String.format("checkpoint-%015d.network", k));
+                while (!checkpoint.equals(checkpointer.getLatest())) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        assertEquals(names("checkpoint-000000000000004.network", "checkpoint-000000000000005.network"), list());
+        assertEquals(directory.resolve("checkpoint-000000000000005.network"), Checkpointer.latest(directory));
+    }
+
+    @Test
+    void skipsCheckpointsWhileBothBuffersAreBusy() throws IOException {
+        NeuralNetwork network = network(784, 450, 10);
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 1, 0, 0, TimeUnit.SECONDS)) {
+            for (int k = 0; k < 1000 && checkpointer.getSkipped() == 0; k++) {
+                checkpointer.sample();
+                boolean taken = checkpointer.checkpoint();
+                assertEquals(!taken, checkpointer.getSkipped() > 0);
+            }
+            assertEquals(1, checkpointer.getSkipped());
+        }
+        assertEquals(1, list().size());
+    }
+
+    @Test
+    void numberingCarriesOnFromTheLatestCheckpoint() throws IOException {
+        NeuralNetwork network = network(6, 5, 3);
+        network.write(directory.resolve("checkpoint-000000000000500.network"));
+        network.write(directory.resolve("checkpoint-000000000000300.network"));
+        network.write(directory.resolve("checkpoint-12.network"));
+        network.write(directory.resolve("checkpoint-99999999999999x.network"));
+        assertEquals(directory.resolve("checkpoint-000000000000500.network"), Checkpointer.latest(directory));
+        assertNull(Checkpointer.latest(directory.resolve("missing")));
+
+        try (Checkpointer checkpointer = new Checkpointer(network, directory, 5, 10, 0, TimeUnit.SECONDS)) {
+            for (int s = 0; s < 10; s++) {
+                checkpointer.sample();
+            }
+        }
+        assertEquals(directory.resolve("checkpoint-000000000000510.network"), Checkpointer.latest(directory));
+        assertTrue(Files.exists(directory.resolve("checkpoint-12.network")));
+    }
+
+    @Test
+    void closeThrowsTheWriteFailure() throws IOException {
+        Path temporary = Files.createDirectory(directory.resolve("checkpoint-000000000000001.network.tmp"));
+        Files.createFile(temporary.resolve("blocking"));
+        NeuralNetwork network = network(6, 5, 3);
+        Checkpointer checkpointer = new Checkpointer(network, directory, 5, 1, 0, TimeUnit.SECONDS);
+        checkpointer.sample();
+        assertThrows(IOException.class, checkpointer::close);
+        assertNull(checkpointer.getLatest());
+        assertFalse(Files.exists(directory.resolve("checkpoint-000000000000001.network")));
+    }
+
+    private static NeuralNetwork network(int... dimension) {
+        NeuralNetwork network = new NeuralNetwork(dimension);
+        network.randomize(new Random(1)::nextGaussian);
+        return network;
+    }
+
+    private static void train(NeuralNetwork network, Random random) {
+        double[] target = new double[network.getOutputSize()];
+        target[random.nextInt(target.length)] = 1;
+        network.learn(input(random, network.getInputSize()), target, 0.1, 1, 1e-9);
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, names);
+        return list;
+    }
+
+    /**
+     * @return the names of the checkpoints in the directory, sorted
+     */
+    private List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "checkpoint-*")) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path child : stream) {
+                    delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DatasetTest {
+    private static final int INPUTS  = 13;
+    private static final int TARGETS = 3;
+    private static final int SAMPLES = 50;
+
+    private Path directory;
+    private Path file;
+    private Path temporary;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("dataset");
+        file = directory.resolve("samples.dataset");
+        temporary = directory.resolve("samples.dataset.tmp");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(temporary);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void roundTripKeepsTheSamples() throws IOException {
+        for (Precision precision : Precision.values()) {
+            double[][][] sample = write(precision, new Random(1));
+            assertFalse(Files.exists(temporary), precision.toString());
+
+            Dataset dataset = new Dataset(file);
+            assertEquals(SAMPLES, dataset.size());
+            assertEquals(INPUTS, dataset.getInputSize());
+            assertEquals(TARGETS, dataset.getTargetSize());
+            assertEquals(precision, dataset.getPrecision());
+            assertEquals(0, dataset.getRecordSize() % 64, precision.toString());
+            assertTrue(dataset.getRecordSize() >= (INPUTS + TARGETS) * precision.bytes(), precision.toString());
+            double[] input = new double[INPUTS];
+            double[] target = new double[TARGETS];
+            for (int s = 0; s < SAMPLES; s++) {
+                dataset.read(s, input, target);
+                assertArrayEquals(encode(sample[s][0], precision), input, precision + " input " + s);
+                assertArrayEquals(encode(sample[s][1], precision), target, precision + " target " + s);
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> dataset.read(SAMPLES, input, target));
+        }
+    }
+
+    @Test
+    void closingWithoutCommitLeavesNoFile() throws IOException {
+        try (Dataset.Writer writer = Dataset.writer(file, INPUTS, TARGETS, Precision.DOUBLE)) {
+            writer.add(new double[INPUTS], new double[TARGETS]);
+            assertTrue(Files.exists(temporary));
+        }
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(temporary));
+
+        double[][][] sample = write(Precision.FLOAT, new Random(2));
+        try (Dataset.Writer writer = Dataset.writer(file, INPUTS, TARGETS, Precision.DOUBLE)) {
+            writer.add(new double[INPUTS], new double[TARGETS]);
+        }
+        assertFalse(Files.exists(temporary));
+        Dataset dataset = new Dataset(file);
+        assertEquals(SAMPLES, dataset.size());
+        double[] input = new double[INPUTS];
+        dataset.read(SAMPLES - 1, input, null);
+        assertArrayEquals(encode(sample[SAMPLES - 1][0], Precision.FLOAT), input);
+
+        Dataset.Writer writer = Dataset.writer(file, INPUTS, TARGETS, Precision.DOUBLE);
+        writer.close();
+        assertThrows(IllegalStateException.class, writer::commit);
+        assertThrows(IllegalArgumentException.class, () -> Dataset.writer(file, 0, TARGETS, Precision.DOUBLE));
+    }
+
+    @Test
+    void rejectsCorruptedHeaders() throws IOException {
+        write(Precision.DOUBLE, new Random(3));
+        byte[] original = Files.readAllBytes(file);
+        int recordSize = new Dataset(file).getRecordSize();
+        int[][] corruption = {
+                { 0, 0 },
+                { 4, 2 },
+                { 8, 3 },
+                { 12, 0 },
+                { 16, -1 },
+                { 20, recordSize + 64 },
+                { 24, SAMPLES + 1 },
+                { 24, -1 },
+        };
+        for (int[] field : corruption) {
+            byte[] bytes = original.clone();
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(field[0], field[1]);
+            Files.write(file, bytes);
+            assertThrows(IllegalArgumentException.class, () -> new Dataset(file), "offset " + field[0]);
+        }
+        Files.write(file, Arrays.copyOf(original, original.length - 1));
+        assertThrows(IllegalArgumentException.class, () -> new Dataset(file), "truncated");
+        Files.write(file, Arrays.copyOf(original, 10));
+        assertThrows(IllegalArgumentException.class, () -> new Dataset(file), "no header");
+    }
+
+    @Test
+    void batchesFollowTheOrder() throws IOException {
+        for (Precision precision : Precision.values()) {
+            double[][][] sample = write(precision, new Random(4));
+            Dataset dataset = new Dataset(file);
+            int[] order = dataset.order();
+            for (int k = 0; k < SAMPLES; k++) {
+                assertEquals(k, order[k]);
+            }
+            Dataset.shuffle(order, new Random(5));
+            int[] sorted = order.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(dataset.order(), sorted);
+
+            int from = 7;
+            int count = 11;
+            double[] inputs = new double[count * INPUTS];
+            double[] targets = new double[count * TARGETS];
+            dataset.read(order, from, count, inputs, targets);
+            for (int s = 0; s < count; s++) {
+                double[][] expected = sample[order[from + s]];
+                assertArrayEquals(encode(expected[0], precision),
+                        Arrays.copyOfRange(inputs, s * INPUTS, (s + 1) * INPUTS), precision + " input " + s);
+                assertArrayEquals(encode(expected[1], precision),
+                        Arrays.copyOfRange(targets, s * TARGETS, (s + 1) * TARGETS), precision + " target " + s);
+            }
+
+            BatchLoader.Source source = dataset.source(order);
+            int batch = 16;
+            double[] sourced = new double[batch * INPUTS];
+            double[] sourcedTargets = new double[batch * TARGETS];
+            int read = 0;
+            for (int n; (n = source.read(sourced, sourcedTargets, batch)) > 0; read += n) {
+                for (int s = 0; s < n; s++) {
+                    double[][] expected = sample[order[read + s]];
+                    assertArrayEquals(encode(expected[0], precision),
+                            Arrays.copyOfRange(sourced, s * INPUTS, (s + 1) * INPUTS), precision + " source " + s);
+                }
+            }
+            assertEquals(SAMPLES, read);
+        }
+    }
+
+    /**
+     * Writes {@link #SAMPLES} random samples to {@link #file}.
+     *
+     * @return the samples written, inputs then targets
+     */
+    private double[][][] write(Precision precision, Random random) throws IOException {
+        double[][][] sample = new double[SAMPLES][2][];
+        try (Dataset.Writer writer = Dataset.writer(file, INPUTS, TARGETS, precision)) {
+            for (int s = 0; s < SAMPLES; s++) {
+                sample[s][0] = new double[INPUTS];
+                sample[s][1] = new double[TARGETS];
+                for (int i = 0; i < INPUTS; i++) {
+                    sample[s][0][i] = random.nextGaussian();
+                }
+                sample[s][1][random.nextInt(TARGETS)] = 1;
+                writer.add(sample[s][0], sample[s][1]);
+            }
+            writer.commit();
+        }
+        return sample;
+    }
+
+    private static double[] encode(double[] values, Precision precision) {
+        double[] encoded = values.clone();
+        if (precision == Precision.FLOAT) {
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = (float) encoded[i];
+            }
+        }
+        return encoded;
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.xy.network.mnist;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes an IDX image/label file pair sequentially, raw or gzip compressed, into pixels divided by {@code divisor}
+ * and one-hot targets, for a {@link BatchLoader}. Unlike {@link SampleSpliterator}, nothing is mapped, so the files
+ * may be read straight from their downloaded {@code .gz} form. The decoded bytes of every sample read, its pixels and
+ * label, are counted in the {@link TrainingMetrics#getBytesRead() bytes read} of the metrics given, if any.
+ */
+public class IdxSource implements BatchLoader.Source, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path            labelPath;
+    private final DataInputStream images;
+    private final DataInputStream labels;
+    private final int             size;
+    private final int             imageSize;
+    private final int             classes;
+    private final double          divisor;
+    private final TrainingMetrics metrics;
+
+    private byte[] pixels = new byte[0];
+    private byte[] label  = new byte[0];
+    private int    next;
+
+    public IdxSource(Path labelPath, Path imagePath, double divisor, int classes) throws IOException {
+        this(labelPath, imagePath, divisor, classes, null);
+    }
+
+    /**
+     * @param metrics where to count the bytes read, may be {@code null}
+     */
+    public IdxSource(Path labelPath, Path imagePath, double divisor, int classes, TrainingMetrics metrics)
+            throws IOException {
+        images = open(imagePath);
+        try {
+            labels = open(labelPath);
+            try {
+                ImageHeader imageHeader = ImageHeader.read(Channels.newChannel(images));
+                if (LabelHeader.read(Channels.newChannel(labels)).getSize() != imageHeader.getSize()) {
+                    throw new IllegalArgumentException("Different number of images and labels");
+                }
+                size = imageHeader.getSize();
+                imageSize = imageHeader.getHeight() * imageHeader.getWidth();
+            } catch (IOException | RuntimeException e) {
+                labels.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            images.close();
+            throw e;
+        }
+        this.labelPath = labelPath;
+        this.divisor = divisor;
+        this.classes = classes;
+        this.metrics = metrics;
+    }
+
+    private static DataInputStream open(Path path) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        stream.mark(2);
+        boolean gzip = stream.read() == 0x1f && stream.read() == 0x8b;
+        stream.reset();
+        if (gzip) {
+            stream = new BufferedInputStream(new GZIPInputStream(stream, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return new DataInputStream(stream);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    @Override
+    public int read(double[] inputs, double[] targets, int capacity) throws IOException {
+        int count = Math.min(capacity, size - next);
+        if (pixels.length < count * imageSize) {
+            pixels = new byte[count * imageSize];
+            label = new byte[count];
+        }
+        images.readFully(pixels, 0, count * imageSize);
+        labels.readFully(label, 0, count);
+        for (int s = 0; s < count; s++) {
+            for (int i = 0, offset = s * imageSize; i < imageSize; i++) {
+                inputs[offset + i] = (0xFF & pixels[offset + i]) / divisor;
+            }
+            int l = 0xFF & label[s];
+            if (l >= classes) {
+                throw new IllegalArgumentException("Label " + l + " out of range for " + classes + " classes in " +
+                        labelPath);
+            }
+            int offset = s * classes;
+            for (int j = 0; j < classes; j++) {
+                targets[offset + j] = 0;
+            }
+            targets[offset + l] = 1;
+        }
+        next += count;
+        if (metrics != null) {
+            metrics.bytesRead((long) count * (imageSize + 1));
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            images.close();
+        } finally {
+            labels.close();
+        }
+    }
+
+}
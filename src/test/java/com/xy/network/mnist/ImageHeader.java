@@ -2,7 +2,7 @@ package com.xy.network.mnist;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 public class ImageHeader {
     private static final int EXPECTED_MAGIC_NUMBER = 0x803;
@@ -11,9 +11,11 @@ public class ImageHeader {
     private final int height;
     private final int width;
 
-    public static ImageHeader read(FileChannel channel) throws IOException {
+    public static ImageHeader read(ReadableByteChannel channel) throws IOException {
         ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * 4);
-        channel.read(bytes);
+        while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+            //
+        }
         if (bytes.hasRemaining()) {
             throw new IllegalArgumentException("Corrupted file header");
         }
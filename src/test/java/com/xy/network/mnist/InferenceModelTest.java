@@ -0,0 +1,72 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class InferenceModelTest {
+    /**
+     * Batches sum in another order than single samples on the vector kernels.
+     */
+    private static final double DELTA = 1e-12;
+
+    @Test
+    void snapshotDecidesLikeTheNetwork() {
+        NeuralNetwork network = network();
+        InferenceModel model = network.snapshot();
+        Random random = new Random(2);
+        double[][] in = new double[100][];
+        double[][] out = new double[in.length][model.getOutputSize()];
+        double[] flatIn = new double[in.length * model.getInputSize()];
+        double[] flatOut = new double[in.length * model.getOutputSize()];
+        for (int s = 0; s < in.length; s++) {
+            in[s] = input(random, model.getInputSize());
+            System.arraycopy(in[s], 0, flatIn, s * in[s].length, in[s].length);
+        }
+        model.decideBatch(in, out);
+        model.decideBatch(flatIn, flatOut, in.length);
+        for (int s = 0; s < in.length; s++) {
+            double[] expected = network.decide(in[s]);
+            assertArrayEquals(expected, model.decide(in[s]), "sample " + s);
+            assertArrayEquals(expected, out[s], DELTA, "batch sample " + s);
+            assertArrayEquals(expected, Arrays.copyOfRange(flatOut, s * expected.length, (s + 1) * expected.length),
+                    DELTA, "flat batch sample " + s);
+        }
+    }
+
+    @Test
+    void modelsAreCollectedOnceUsed() throws InterruptedException {
+        WeakReference<InferenceModel> reference = used(network());
+        for (int n = 0; n < 50 && reference.get() != null; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get(), "the thread's scratch buffers keep the model reachable");
+    }
+
+    private static WeakReference<InferenceModel> used(NeuralNetwork network) {
+        InferenceModel model = network.snapshot();
+        model.decide(new double[model.getInputSize()]);
+        model.decideBatch(new double[1][model.getInputSize()], new double[1][model.getOutputSize()]);
+        return new WeakReference<>(model);
+    }
+
+    private static NeuralNetwork network() {
+        NeuralNetwork network = new NeuralNetwork(30, 17, 4);
+        network.randomize(new Random(1)::nextGaussian);
+        return network;
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.xy.network.mnist;
+
+import static java.util.logging.Logger.getLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * A load generator for {@link InferenceServer} on localhost: client threads send single-sample requests as fast as
+ * they are answered, while the model file is rewritten and reloaded every second.
+ */
+class InferenceServerDemo {
+    private static final int  CLIENTS  = 16;
+    private static final long DURATION = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Logger logger = getLogger(InferenceServerDemo.class.getName());
+
+    public static void main(String[] args) throws Exception {
+        Path file = Paths.get("target", "server.network");
+        Random random = new Random();
+        NeuralNetwork network = new NeuralNetwork(28 * 28, 450, 250, 10);
+        network.randomize(random::nextDouble);
+        network.write(file);
+
+        try (InferenceServer server = new InferenceServer(file, 0, 2 * CLIENTS, CLIENTS, 2,
+                TimeUnit.MILLISECONDS)) {
+            URL decide = new URL("http://localhost:" + server.getPort() + "/decide");
+            URL reload = new URL("http://localhost:" + server.getPort() + "/reload");
+            Histogram latency = new Histogram();
+            LongAdder errors = new LongAdder();
+            long end = System.nanoTime() + DURATION;
+
+            List<Thread> clients = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                Thread client = new Thread(() -> {
+                    Random values = new Random();
+                    StringBuilder body = new StringBuilder();
+                    while (System.nanoTime() < end) {
+                        body.setLength(0);
+                        for (int i = 0; i < network.getInputSize(); i++) {
+                            body.append(i == 0 ? "" : ",").append(values.nextInt(5) == 0 ? values.nextDouble() : 0);
+                        }
+                        long start = System.nanoTime();
+                        try {
+                            if (post(decide, body.toString()).split(",").length != network.getOutputSize()) {
+                                errors.increment();
+                            }
+                            latency.record(System.nanoTime() - start);
+                        } catch (IOException e) {
+                            errors.increment();
+                        }
+                    }
+                }, "client-" + c);
+                client.start();
+                clients.add(client);
+            }
+
+            while (System.nanoTime() < end - TimeUnit.SECONDS.toNanos(1)) {
+                Thread.sleep(1000);
+                network.randomize(random::nextDouble);
+                network.write(file);
+                post(reload, "");
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+
+            logger.info(String.format("client: n=%d %.0f/s mean=%.1f p50<=%d p99<=%d us, %d errors",
+                    latency.getCount(), latency.getCount() * 1e9 / DURATION, latency.getMean() / 1e3,
+                    latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000, errors.sum()));
+            logger.info(() -> "server: " + server);
+        }
+    }
+
+    private static String post(URL url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
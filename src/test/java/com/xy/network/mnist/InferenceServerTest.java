@@ -0,0 +1,147 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class InferenceServerTest {
+    private static final int CLIENTS  = 8;
+    private static final int REQUESTS = 50;
+
+    private Path          directory;
+    private Path          file;
+    private NeuralNetwork network;
+
+    @BeforeEach
+    void writeModel() throws IOException {
+        directory = Files.createTempDirectory("inference-server");
+        file = directory.resolve("model.network");
+        network = new NeuralNetwork(24, 16, 5);
+        network.randomize(new Random(1)::nextGaussian);
+        network.write(file);
+    }
+
+    @AfterEach
+    void deleteModel() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void concurrentRequestsAreAnsweredByBatches() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try (InferenceServer server = new InferenceServer(file, 0, CLIENTS, CLIENTS, 2, TimeUnit.MILLISECONDS)) {
+            URL decide = url(server, "/decide");
+            InferenceModel model = network.snapshot();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                long seed = c;
+                futures.add(clients.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int r = 0; r < REQUESTS; r++) {
+                        double[] input = new double[network.getInputSize()];
+                        for (int i = 0; i < input.length; i++) {
+                            input[i] = random.nextDouble();
+                        }
+                        assertOutput(model.decide(input), post(decide, format(input)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            assertEquals(CLIENTS * REQUESTS, server.getLatency().getCount());
+            assertEquals(CLIENTS * REQUESTS, server.getBatchSizes().getSum());
+            assertEquals(0, server.getFailures());
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void reloadSwapsTheModel() throws Exception {
+        try (InferenceServer server = new InferenceServer(file, 0, 2, 4, 1, TimeUnit.MILLISECONDS)) {
+            double[] input = new double[network.getInputSize()];
+            input[3] = 1;
+            assertOutput(network.decide(input), post(url(server, "/decide"), format(input)));
+
+            network.randomize(new Random(2)::nextGaussian);
+            network.write(file);
+            post(url(server, "/reload"), "");
+            assertEquals(1, server.getReloads());
+            assertOutput(network.decide(input), post(url(server, "/decide"), format(input)));
+        }
+    }
+
+    @Test
+    void malformedInputIsABadRequest() throws Exception {
+        try (InferenceServer server = new InferenceServer(file, 0, 2, 4, 1, TimeUnit.MILLISECONDS)) {
+            HttpURLConnection connection = send(url(server, "/decide"), "1, 2, x");
+            assertEquals(400, connection.getResponseCode());
+            assertEquals(0, server.getFailures());
+        }
+    }
+
+    private static void assertOutput(double[] expected, String response) {
+        String[] values = response.split(",");
+        assertEquals(expected.length, values.length, response);
+        for (int j = 0; j < expected.length; j++) {
+            assertEquals(expected[j], Double.parseDouble(values[j]), 1e-12, response);
+        }
+    }
+
+    private static URL url(InferenceServer server, String path) throws IOException {
+        return new URL("http://localhost:" + server.getPort() + path);
+    }
+
+    private static String format(double[] input) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < input.length; i++) {
+            builder.append(i == 0 ? "" : ",").append(input[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String post(URL url, String body) throws IOException {
+        HttpURLConnection connection = send(url, body);
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static HttpURLConnection send(URL url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link Kernels#get()} against the scalar kernels. Under the java17 profile, surefire runs the tests a second
+ * time with the vector kernels loaded and {@code kernels.vector} set.
+ */
+class KernelsTest {
+    private static final Kernels SCALAR  = new Kernels();
+    private static final Kernels KERNELS = Kernels.get();
+    private static final int     LENGTH  = 70;
+    private static final double  DELTA   = 1e-14;
+
+    @Test
+    void loadsTheExpectedKernels() {
+        assertEquals(Boolean.getBoolean("kernels.vector"), KERNELS.getClass() != Kernels.class, KERNELS.name());
+    }
+
+    @Test
+    void axpyMatchesTheScalarKernels() {
+        Random random = new Random(1);
+        for (int length = 0; length < LENGTH; length++) {
+            int xOffset = random.nextInt(4);
+            int yOffset = random.nextInt(4);
+            double a = random.nextGaussian();
+            double[] x = values(random, xOffset + length);
+            float[] floats = floats(x);
+            double[] y = values(random, yOffset + length + 3);
+            String message = "length " + length;
+
+            double[] expected = y.clone();
+            double[] actual = y.clone();
+            SCALAR.axpy(a, x, xOffset, expected, yOffset, length);
+            KERNELS.axpy(a, x, xOffset, actual, yOffset, length);
+            assertArrayEquals(expected, actual, message);
+
+            expected = y.clone();
+            actual = y.clone();
+            SCALAR.axpy(a, floats, xOffset, expected, yOffset, length);
+            KERNELS.axpy(a, floats, xOffset, actual, yOffset, length);
+            assertArrayEquals(expected, actual, message + ", float weights");
+
+            float[] expectedFloats = floats(y);
+            float[] actualFloats = expectedFloats.clone();
+            SCALAR.axpy(a, x, xOffset, expectedFloats, yOffset, length);
+            KERNELS.axpy(a, x, xOffset, actualFloats, yOffset, length);
+            assertArrayEquals(expectedFloats, actualFloats, message + ", float updates");
+
+            ByteBuffer doubles = ByteBuffer.allocate(x.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            doubles.asDoubleBuffer().put(x);
+            expected = y.clone();
+            actual = y.clone();
+            SCALAR.axpyDoubles(a, doubles.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), xOffset, expected,
+                    yOffset, length);
+            KERNELS.axpyDoubles(a, doubles.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), xOffset, actual,
+                    yOffset, length);
+            assertArrayEquals(expected, actual, message + ", mapped doubles");
+
+            ByteBuffer floatBytes = ByteBuffer.allocate(x.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            floatBytes.asFloatBuffer().put(floats);
+            expected = y.clone();
+            actual = y.clone();
+            SCALAR.axpyFloats(a, floatBytes.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), xOffset, expected,
+                    yOffset, length);
+            KERNELS.axpyFloats(a, floatBytes.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), xOffset, actual,
+                    yOffset, length);
+            assertArrayEquals(expected, actual, message + ", mapped floats");
+        }
+    }
+
+    @Test
+    void dotMatchesTheScalarKernels() {
+        Random random = new Random(2);
+        for (int length = 0; length < LENGTH; length++) {
+            int xOffset = random.nextInt(4);
+            double[] x = values(random, xOffset + length);
+            double[] y = values(random, length);
+            double scale = 0;
+            for (int k = 0; k < length; k++) {
+                scale += Math.abs(x[xOffset + k] * y[k]);
+            }
+            assertEquals(SCALAR.dot(x, xOffset, y, length), KERNELS.dot(x, xOffset, y, length), DELTA * (1 + scale),
+                    "length " + length);
+            float[] floats = floats(x);
+            assertEquals(SCALAR.dot(floats, xOffset, y, length), KERNELS.dot(floats, xOffset, y, length),
+                    DELTA * (1 + scale), "length " + length + ", float weights");
+        }
+    }
+
+    @Test
+    void activationsMatchTheScalarKernels() {
+        Random random = new Random(3);
+        for (int length = 0; length < LENGTH; length++) {
+            int from = random.nextInt(4);
+            int to = from + length;
+            double[] x = values(random, to + 3);
+            for (int k = 0; k < x.length; k++) {
+                x[k] *= 10;
+            }
+            x[random.nextInt(x.length)] = 0;
+            String message = "length " + length;
+
+            double[] expected = x.clone();
+            double[] actual = x.clone();
+            SCALAR.sigmoid(expected, from, to);
+            KERNELS.sigmoid(actual, from, to);
+            assertArrayEquals(expected, actual, DELTA, message + ", sigmoid");
+
+            expected = x.clone();
+            actual = x.clone();
+            SCALAR.tanh(expected, from, to);
+            KERNELS.tanh(actual, from, to);
+            assertArrayEquals(expected, actual, DELTA, message + ", tanh");
+
+            expected = x.clone();
+            actual = x.clone();
+            SCALAR.relu(expected, from, to);
+            KERNELS.relu(actual, from, to);
+            assertArrayEquals(expected, actual, message + ", relu");
+
+            expected = x.clone();
+            actual = x.clone();
+            SCALAR.leakyRelu(expected, 0.01, from, to);
+            KERNELS.leakyRelu(actual, 0.01, from, to);
+            assertArrayEquals(expected, actual, message + ", leaky relu");
+        }
+    }
+
+    /**
+     * The other tests compare networks bit for bit, so the kernels must round the same before and after the JIT
+     * compiles them.
+     */
+    @Test
+    void activationsDoNotChangeOnceCompiled() {
+        double[] x = values(new Random(4), LENGTH);
+        for (int k = 0; k < x.length; k++) {
+            x[k] *= 10;
+        }
+        double[] sigmoid = x.clone();
+        double[] tanh = x.clone();
+        KERNELS.sigmoid(sigmoid, 0, LENGTH);
+        KERNELS.tanh(tanh, 0, LENGTH);
+        for (int n = 0; n < 20000; n++) {
+            double[] actual = x.clone();
+            KERNELS.sigmoid(actual, 0, LENGTH);
+            assertArrayEquals(sigmoid, actual, "sigmoid, call " + n);
+            actual = x.clone();
+            KERNELS.tanh(actual, 0, LENGTH);
+            assertArrayEquals(tanh, actual, "tanh, call " + n);
+        }
+    }
+
+    private static double[] values(Random random, int length) {
+        double[] values = new double[length];
+        for (int k = 0; k < length; k++) {
+            values[k] = random.nextGaussian();
+        }
+        return values;
+    }
+
+    private static float[] floats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int k = 0; k < values.length; k++) {
+            floats[k] = (float) values[k];
+        }
+        return floats;
+    }
+
+}
@@ -2,16 +2,18 @@ package com.xy.network.mnist;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 public class LabelHeader {
     private static final int EXPECTED_MAGIC_NUMBER = 0x801;
 
     private final int size;
 
-    public static LabelHeader read(FileChannel channel) throws IOException {
+    public static LabelHeader read(ReadableByteChannel channel) throws IOException {
         ByteBuffer bytes = ByteBuffer.allocate(2 * Integer.BYTES);
-        channel.read(bytes);
+        while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+            //
+        }
         if (bytes.hasRemaining()) {
             throw new IllegalArgumentException("Corrupted file header");
         }
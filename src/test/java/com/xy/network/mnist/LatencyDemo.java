@@ -0,0 +1,52 @@
+package com.xy.network.mnist;
+
+import static java.util.logging.Logger.getLogger;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Measures the latency of single-sample {@code decide} calls on a network shaped like the MNIST one, on the calling
+ * thread alone, then split over a {@link LayerExecutor} using every core.
+ */
+class LatencyDemo {
+    private static final int WARMUP  = 5_000;
+    private static final int SAMPLES = 20_000;
+
+    private static final Logger logger = getLogger(LatencyDemo.class.getName());
+
+    public static void main(String[] args) {
+        NeuralNetwork network = new NeuralNetwork(28 * 28, 450, 250, 10);
+        Random random = new Random(1);
+        network.randomize(random::nextDouble);
+        double[] input = new double[network.getInputSize()];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextInt(5) == 0 ? random.nextDouble() : 0;
+        }
+
+        logger.info(() -> "serial: " + measure(network, input));
+        int helpers = Runtime.getRuntime().availableProcessors() - 1;
+        if (helpers < 1) {
+            logger.info("Single core, nothing to split over");
+            return;
+        }
+        try (LayerExecutor executor = new LayerExecutor(helpers)) {
+            network.setLayerExecutor(executor);
+            logger.info(() -> executor.getParallelism() + " threads: " + measure(network, input));
+        }
+    }
+
+    private static Histogram measure(NeuralNetwork network, double[] input) {
+        double[] output = new double[network.getOutputSize()];
+        Histogram latency = new Histogram();
+        for (int k = 0; k < WARMUP + SAMPLES; k++) {
+            long start = System.nanoTime();
+            network.decide(input, output);
+            if (k >= WARMUP) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+        return latency;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class LayerExecutorTest {
+
+    @Test
+    void splitNetworkMatchesSerial() {
+        try (LayerExecutor executor = new LayerExecutor(3, 1)) {
+            for (Precision precision : Precision.values()) {
+                NeuralNetwork serial = new NeuralNetwork(precision, 70, 90, 40, 10);
+                serial.randomize(new Random(8)::nextGaussian);
+                serial.prune(0.3);
+                NeuralNetwork split = serial.convert(precision);
+                split.pruneBelow(0);
+                split.setLayerExecutor(executor);
+                Random random = new Random(9);
+                for (int s = 0; s < 20; s++) {
+                    double[] input = new double[70];
+                    int[] index = new int[70];
+                    double[] value = new double[70];
+                    int count = 0;
+                    for (int i = 0; i < input.length; i++) {
+                        if (random.nextBoolean()) {
+                            input[i] = random.nextDouble();
+                            index[count] = i;
+                            value[count++] = input[i];
+                        }
+                    }
+                    double[] target = new double[10];
+                    target[random.nextInt(10)] = 1;
+                    assertArrayEquals(serial.decide(input), split.decide(input), precision.toString());
+                    serial.learn(input, target, 0.3, 2, 1e-9);
+                    split.learn(input, target, 0.3, 2, 1e-9);
+                    serial.learn(index, value, count, target, 0.3, 1, 1e-9);
+                    split.learn(index, value, count, target, 0.3, 1, 1e-9);
+                }
+                LearnBatchTest.assertSameWeights(serial, split, precision.toString());
+            }
+        }
+    }
+
+    @Test
+    void rangesCoverEveryIndexOnce() {
+        try (LayerExecutor executor = new LayerExecutor(3, 1)) {
+            for (int size : new int[] { 1, 7, 8, 31, 64, 1000 }) {
+                assertCovered(executor, size);
+            }
+        }
+    }
+
+    @Test
+    void callerFailureWaitsForHelpers() {
+        try (LayerExecutor executor = new LayerExecutor(3, 1)) {
+            AtomicInteger running = new AtomicInteger();
+            for (int round = 0; round < 50; round++) {
+                RuntimeException failure = new RuntimeException("caller");
+                RuntimeException thrown = assertThrows(RuntimeException.class, () -> executor.run((from, to) -> {
+                    if (from == 0) {
+                        throw failure;
+                    }
+                    running.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    if (to == 64) {
+                        throw new IllegalArgumentException("helper");
+                    }
+                }, 64, 1L << 20));
+                assertSame(failure, thrown);
+                assertEquals(0, running.get());
+                assertEquals(1, failure.getSuppressed().length);
+                assertEquals(IllegalArgumentException.class, failure.getSuppressed()[0].getClass());
+                assertCovered(executor, 64);
+            }
+        }
+    }
+
+    @Test
+    void helperFailureIsRethrownOnce() {
+        try (LayerExecutor executor = new LayerExecutor(3, 1)) {
+            IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                    () -> executor.run((from, to) -> {
+                        if (to == 64) {
+                            throw new IllegalArgumentException("helper");
+                        }
+                    }, 64, 1L << 20));
+            assertEquals(IllegalArgumentException.class, thrown.getCause().getClass());
+            assertCovered(executor, 64);
+        }
+    }
+
+    private static void assertCovered(LayerExecutor executor, int size) {
+        int[] visits = new int[size];
+        executor.run((from, to) -> {
+            for (int k = from; k < to; k++) {
+                visits[k]++;
+            }
+        }, size, 1L << 20);
+        for (int k = 0; k < size; k++) {
+            assertEquals(1, visits[k], "size " + size + ", index " + k);
+        }
+    }
+
+}
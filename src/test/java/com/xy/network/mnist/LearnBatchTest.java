@@ -0,0 +1,73 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LearnBatchTest {
+
+    @Test
+    void batchOfOneMatchesLearn() {
+        assumeTrue(Kernels.get().getClass() == Kernels.class, "bit identity only holds with the scalar kernels");
+        for (Precision precision : Precision.values()) {
+            for (Activation activation : Activation.values()) {
+                Random random = new Random(7);
+                NeuralNetwork single = new NeuralNetwork(precision,
+                        new Activation[] { activation, activation, Activation.SIGMOID }, 300, 70, 64, 10);
+                single.randomize(random::nextGaussian);
+                NeuralNetwork batch = single.convert(precision);
+                for (int s = 0; s < 20; s++) {
+                    double[] input = new double[300];
+                    double[] target = new double[10];
+                    for (int i = 0; i < input.length; i++) {
+                        input[i] = random.nextInt(3) == 0 ? random.nextDouble() : 0;
+                    }
+                    target[random.nextInt(target.length)] = 1;
+                    single.learn(input, target, 0.3, 1, 1e-9);
+                    batch.learnBatch(new double[][] { input }, new double[][] { target }, 0.3, 1e-9);
+                }
+                assertSameWeights(single, batch, precision + " " + activation);
+            }
+        }
+    }
+
+    @Test
+    void rowMajorBatchMatchesArrays() {
+        Random random = new Random(11);
+        NeuralNetwork network = new NeuralNetwork(20, 9, 3);
+        network.randomize(random::nextGaussian);
+        double[][] inputs = new double[6][20];
+        double[][] targets = new double[6][3];
+        for (int s = 0; s < inputs.length; s++) {
+            for (int i = 0; i < 20; i++) {
+                inputs[s][i] = random.nextDouble();
+            }
+            targets[s][random.nextInt(3)] = 1;
+        }
+        NeuralNetwork batch = network.convert(Precision.DOUBLE);
+        assertEquals(inputs.length, batch.learnBatch(inputs, targets, 0.5, 1e-9));
+
+        double[][] flat = { new double[inputs.length * 20], new double[inputs.length * 3] };
+        for (int s = 0; s < inputs.length; s++) {
+            System.arraycopy(inputs[s], 0, flat[0], s * 20, 20);
+            System.arraycopy(targets[s], 0, flat[1], s * 3, 3);
+        }
+        NeuralNetwork rowMajor = network.convert(Precision.DOUBLE);
+        rowMajor.learnBatch(flat[0], flat[1], inputs.length, 0.5, 1e-9);
+        assertSameWeights(batch, rowMajor, "row-major");
+    }
+
+    static void assertSameWeights(NeuralNetwork expected, NeuralNetwork actual, String message) {
+        Layer[] expectedLayer = expected.layers();
+        Layer[] actualLayer = actual.layers();
+        assertEquals(expectedLayer.length, actualLayer.length, message);
+        for (int i = 0; i < expectedLayer.length; i++) {
+            for (int k = 0; k < expectedLayer[i].size(); k++) {
+                assertEquals(expectedLayer[i].get(k), actualLayer[i].get(k), message + ", layer " + i + "[" + k + "]");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.xy.network.mnist;
+
+import static java.util.logging.Logger.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Trains a network on synthetic samples while reader threads decide through a {@link ModelPublisher}, reporting the
+ * publishing cost on the training thread and the readers' latency, per publishing interval.
+ */
+class LiveTrainingDemo {
+    private static final int[] DIMENSION  = {784, 450, 10};
+    private static final int   BATCH_SIZE = 32;
+    private static final int   READERS    = 4;
+    private static final long  DURATION   = TimeUnit.SECONDS.toNanos(5);
+
+    private static final Logger logger = getLogger(LiveTrainingDemo.class.getName());
+
+    public static void main(String[] args) throws Exception {
+        for (long interval : new long[] {BATCH_SIZE, 10 * BATCH_SIZE, 100 * BATCH_SIZE}) {
+            run(interval);
+        }
+    }
+
+    private static void run(long interval) throws InterruptedException {
+        NeuralNetwork network = new NeuralNetwork(DIMENSION);
+        Random random = new Random(1);
+        network.randomize(random::nextDouble);
+        ModelPublisher publisher = new ModelPublisher(network, interval, 0, TimeUnit.SECONDS);
+        network.setListener(publisher);
+
+        Histogram latency = new Histogram();
+        long end = System.nanoTime() + DURATION;
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                Random values = new Random();
+                double[] input = new double[DIMENSION[0]];
+                double[] output = new double[DIMENSION[DIMENSION.length - 1]];
+                while (System.nanoTime() < end) {
+                    for (int i = 0; i < input.length; i++) {
+                        input[i] = values.nextInt(5) == 0 ? values.nextDouble() : 0;
+                    }
+                    long start = System.nanoTime();
+                    publisher.decide(input, output);
+                    latency.record(System.nanoTime() - start);
+                }
+            }, "reader-" + r);
+            reader.start();
+            readers.add(reader);
+        }
+
+        double[] inputs = new double[BATCH_SIZE * DIMENSION[0]];
+        double[] targets = new double[BATCH_SIZE * DIMENSION[DIMENSION.length - 1]];
+        long batches = 0;
+        while (System.nanoTime() < end) {
+            for (int s = 0; s < BATCH_SIZE; s++) {
+                for (int i = 0; i < DIMENSION[0]; i++) {
+                    inputs[s * DIMENSION[0] + i] = random.nextInt(5) == 0 ? random.nextDouble() : 0;
+                }
+                for (int j = 0; j < DIMENSION[DIMENSION.length - 1]; j++) {
+                    targets[s * DIMENSION[DIMENSION.length - 1] + j] = random.nextInt(10) == 0 ? 1 : 0;
+                }
+            }
+            network.learnBatch(inputs, targets, BATCH_SIZE, 1.0, 0.01);
+            batches++;
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long publishes = publisher.getVersion() + 1;
+        logger.info(String.format("every %5d samples: %6d batches/s, %6d publishes, %.1f us each, %d allocated; " +
+                        "readers n=%d mean=%.1f p99<=%d us", interval, batches * TimeUnit.SECONDS.toNanos(1) / DURATION,
+                publishes, publisher.getPublishNanos() / 1e3 / publishes, publisher.getAllocations(),
+                latency.getCount(), latency.getMean() / 1e3, latency.getPercentile(99) / 1000));
+    }
+
+}
@@ -4,28 +4,33 @@ import static java.util.logging.Logger.getLogger;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.SystemUtils;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealVector;
 
+/**
+ * Trains on MNIST with the plain per-sample update, or with the {@link Optimizer} named by the first argument,
+ * optionally followed by the learn rate and the maximum number of iterations per sample.
+ */
 class MNISTDemo {
     private static final String TEST_IMAGE_LABEL_URL  = "http://yann.lecun.com/exdb/mnist/t10k-labels-idx1-ubyte.gz";
     private static final String TEST_IMAGE_URL        = "http://yann.lecun.com/exdb/mnist/t10k-images-idx3-ubyte.gz";
     private static final String TRAIN_IMAGE_LABEL_URL = "http://yann.lecun.com/exdb/mnist/train-labels-idx1-ubyte.gz";
     private static final String TRAIN_IMAGE_URL       = "http://yann.lecun.com/exdb/mnist/train-images-idx3-ubyte.gz";
 
-    private static final int TEST_LIMIT  = 10_000;
-    private static final int TRAIN_LIMIT = 60_000;
+    private static final int TEST_LIMIT             = 10_000;
+    private static final int TRAIN_LIMIT            = 60_000;
+    private static final int TRAIN_EVALUATION_LIMIT = 10_000;
+    private static final int CALIBRATION_LIMIT      = 1_000;
+    private static final int BATCH_SIZE             = 64;
 
     private static final Logger logger = getLogger(MNISTDemo.class.getName());
 
@@ -35,20 +40,17 @@ class MNISTDemo {
         Path testImagePath = download(TEST_IMAGE_URL);
         Path testLabelPath = download(TEST_IMAGE_LABEL_URL);
 
-        List<MNISTSample> trainSamples = MNISTSamples.stream(trainLabelPath, trainImagePath)
-                .limit(TRAIN_LIMIT)
-                .collect(Collectors.toList());
-
-        List<MNISTSample> testSamples = MNISTSamples.stream(testLabelPath, testImagePath)
-                .limit(TEST_LIMIT)
-                .collect(Collectors.toList());
-
         logger.info("Initializing network");
         Path file = Paths.get("target", "mnist.network");
+        Path checkpoints = Paths.get("target", "checkpoints");
+        Path checkpoint = Checkpointer.latest(checkpoints);
         NeuralNetwork network;
         if (Files.exists(file)) {
             network = new NeuralNetwork(file);
             logger.info("Loaded from file");
+        } else if (checkpoint != null) {
+            network = new NeuralNetwork(checkpoint);
+            logger.info(() -> "Resumed from " + checkpoint);
         } else {
             network = new NeuralNetwork(
                     28 * 28,
@@ -63,52 +65,131 @@ class MNISTDemo {
         double learnRate = 0.025;
         int maxIterations = 25;
         double epsilon = 0.01;
-
-        for (int lap = 0; lap < 25; lap++) {
-
-            int learning = 0;
-            for (MNISTSample sample : trainSamples) {
-                RealVector input = toInputVector(sample);
-                RealVector target = new ArrayRealVector(10);
-                target.setEntry(sample.getLabel(), 1);
-                learning += network.learn(input, target, learnRate, maxIterations, epsilon);
+        if (args.length > 0) {
+            if (network.getOptimizer() == null) {
+                network.setOptimizer(optimizer(args[0]));
             }
+            if (args.length > 1) {
+                learnRate = Double.parseDouble(args[1]);
+            }
+            if (args.length > 2) {
+                maxIterations = Integer.parseInt(args[2]);
+            }
+        }
 
-            int trainLap = ++lap;
-            int trainErrors = test(network, trainSamples, false);
-            int testErrors = test(network, testSamples, false);
-            logger.info(String.format("lap #%03d  %3d  %3d  %d", trainLap, trainErrors, testErrors, learning));
-
-            if (learning == 0) {
-                break;
+        TrainingMetrics metrics = new TrainingMetrics();
+        metrics.register("mnist");
+        Dataset train = MNISTSamples.dataset(trainLabelPath, trainImagePath, Paths.get("target", "mnist.train.dataset"),
+                200.0, 10, metrics);
+        int[] order = train.order();
+        Random shuffle = new Random();
+        double[] input = new double[train.getInputSize()];
+        double[] target = new double[train.getTargetSize()];
+
+        Dataset test = MNISTSamples.dataset(testLabelPath, testImagePath, Paths.get("target", "mnist.test.dataset"),
+                200.0, 10, metrics);
+        logger.info(() -> metrics.getBytesRead() + " bytes read from the IDX files");
+        int[] testSamples = Arrays.copyOf(test.order(), Math.min(TEST_LIMIT, test.size()));
+        int[] trainSubsample = Evaluator.subsample(train.size(), Math.min(TRAIN_EVALUATION_LIMIT, train.size()),
+                shuffle);
+        Evaluator evaluator = new Evaluator(Runtime.getRuntime().availableProcessors(), 3);
+
+        network.setMetrics(metrics);
+
+        try (Checkpointer checkpointer = new Checkpointer(network, checkpoints, 3, 10_000, 1, TimeUnit.MINUTES)) {
+            network.setListener(checkpointer);
+            for (int lap = 0; lap < 25; lap++) {
+
+                int learning = 0;
+                Dataset.shuffle(order, shuffle);
+                int[] epoch = Arrays.copyOf(order, Math.min(TRAIN_LIMIT, order.length));
+                long waitNanos;
+                try (BatchLoader loader = new BatchLoader(train.source(epoch), BATCH_SIZE, input.length,
+                        target.length, 4, metrics)) {
+                    BatchLoader.Batch batch;
+                    while ((batch = loader.take()) != null) {
+                        for (int s = 0; s < batch.size(); s++) {
+                            System.arraycopy(batch.getInputs(), s * input.length, input, 0, input.length);
+                            System.arraycopy(batch.getTargets(), s * target.length, target, 0, target.length);
+                            learning += network.learn(input, target, learnRate, maxIterations, epsilon);
+                        }
+                        loader.release(batch);
+                    }
+                    waitNanos = loader.getWaitNanos();
+                }
+                logger.info(() -> "waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms for data");
+
+                int trainLap = ++lap;
+                InferenceModel model = network.snapshot();
+                long trainErrors = evaluator.evaluate(model, train, trainSubsample).getErrors();
+                Evaluator.Result testResult = evaluator.evaluate(model, test, testSamples);
+                long floatErrors = evaluator.evaluate(network.convert(Precision.FLOAT).snapshot(), test, testSamples)
+                        .getErrors();
+                logger.info(String.format("lap #%03d  %3d  %3d  %3d  %d  top-3 %.2f%%", trainLap, trainErrors,
+                        testResult.getErrors(), floatErrors, learning, 100 * testResult.getTopK(3)));
+                logger.info(metrics::toString);
+                metrics.reset();
+
+                if (learning == 0) {
+                    break;
+                }
             }
         }
 
+        logger.info(() -> "test: " + evaluator.evaluate(network.snapshot(), test, testSamples));
+        evaluator.close();
         network.write(file);
+
+        QuantizedModel quantized = quantize(network, train, test);
+        quantized.write(Paths.get("target", "mnist.network.q8"));
     }
 
-    private static int test(NeuralNetwork network, List<MNISTSample> subList, boolean print) {
-        int errors = 0;
-        for (MNISTSample sample : subList) {
-            RealVector input = toInputVector(sample);
-            RealVector output = network.decide(input);
-            if (sample.getLabel() != output.getMaxIndex()) {
-                errors++;
-                if (print) {
-                    logger.info(() -> sample.getLabel() + ": " + output + "\n" + sample.print(new StringBuilder(), 28));
-                }
-            }
+    /**
+     * @param name one of {@code sgd}, {@code momentum}, {@code nesterov} and {@code adam}, the latter three with their
+     *             usual defaults
+     */
+    private static Optimizer optimizer(String name) {
+        switch (name) {
+        case "sgd":
+            return Optimizer.sgd();
+        case "momentum":
+            return Optimizer.momentum(0.9);
+        case "nesterov":
+            return Optimizer.nesterov(0.9);
+        case "adam":
+            return Optimizer.adam();
+        default:
+            throw new IllegalArgumentException("Unknown optimizer " + name);
         }
-        return errors;
     }
 
-    private static RealVector toInputVector(MNISTSample sample) {
-        byte[] image = sample.getImage();
-        RealVector input = new ArrayRealVector(image.length);
-        for (int i = 0; i < image.length; i++) {
-            input.setEntry(i, (0xFF & image[i]) / 200.0);
+    private static QuantizedModel quantize(NeuralNetwork network, Dataset calibration, Dataset test) {
+        double[] input = new double[calibration.getInputSize()];
+        double[] target = new double[calibration.getTargetSize()];
+        QuantizedModel.Calibrator calibrator = QuantizedModel.calibrate(network);
+        for (int s = 0; s < Math.min(CALIBRATION_LIMIT, calibration.size()); s++) {
+            calibration.read(s, input, target);
+            calibrator.add(input);
+        }
+        QuantizedModel quantized = calibrator.quantize(QuantizedModel.Granularity.PER_NEURON);
+
+        QuantizedModel.Comparison comparison = new QuantizedModel.Comparison(network, quantized);
+        for (int s = 0; s < Math.min(TEST_LIMIT, test.size()); s++) {
+            test.read(s, input, target);
+            comparison.add(input, label(target));
+        }
+        logger.info(() -> "int8: " + comparison);
+        return quantized;
+    }
+
+    private static int label(double[] target) {
+        int label = 0;
+        for (int j = 1; j < target.length; j++) {
+            if (target[j] > target[label]) {
+                label = j;
+            }
         }
-        return input;
+        return label;
     }
 
     private static Path download(String urlString) throws IOException {
@@ -119,7 +200,7 @@ class MNISTDemo {
         if (!Files.exists(file)) {
             logger.info(() -> "Downloading " + file);
             Files.createDirectories(file.getParent());
-            try (GZIPInputStream inputStream = new GZIPInputStream(url.openStream());
+            try (InputStream inputStream = url.openStream();
                     FileOutputStream outputStream = new FileOutputStream(file.toFile())) {
                 IOUtils.copy(inputStream, outputStream);
             }
@@ -134,7 +215,7 @@ class MNISTDemo {
         if (!path.startsWith("/")) throw new IllegalStateException();
         path = path.substring(1);
         if (!path.endsWith(".gz")) throw new IllegalStateException();
-        return path.substring(0, path.length() - 3);
+        return path;
     }
 
 }
@@ -1,15 +1,88 @@
 package com.xy.network.mnist;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class MNISTSamples {
+    private static final int CHUNK = 256;
 
+    /**
+     * @return a sequential stream over the memory-mapped files, it can be turned {@link Stream#parallel() parallel}
+     */
     public static Stream<MNISTSample> stream(Path labelPath, Path imagePath) throws IOException {
-        SampleSpliterator spliterator = new SampleSpliterator(imagePath, labelPath);
-        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+        return stream(labelPath, imagePath, null);
+    }
+
+    /**
+     * Like {@link #stream(Path, Path)}, counting the bytes read in {@code metrics}, which may be {@code null}.
+     */
+    public static Stream<MNISTSample> stream(Path labelPath, Path imagePath, TrainingMetrics metrics)
+            throws IOException {
+        return views(labelPath, imagePath, metrics).map(SampleView::toSample);
+    }
+
+    /**
+     * Like {@link #stream(Path, Path)}, without materializing the samples: the elements are flyweight views that are
+     * only valid until the next element is passed.
+     */
+    public static Stream<SampleView> views(Path labelPath, Path imagePath) throws IOException {
+        return views(labelPath, imagePath, null);
+    }
+
+    /**
+     * Like {@link #views(Path, Path)}, counting the bytes read in {@code metrics}, which may be {@code null}.
+     */
+    public static Stream<SampleView> views(Path labelPath, Path imagePath, TrainingMetrics metrics)
+            throws IOException {
+        return StreamSupport.stream(new SampleSpliterator(imagePath, labelPath, metrics), false);
+    }
+
+    /**
+     * Compiles the files, raw or gzip compressed, into a {@link Dataset} of pixels divided by {@code divisor} and
+     * one-hot targets over {@code classes} labels, unless {@code cache} is already newer than both files. The files are
+     * streamed through an {@link IdxSource}, so the downloaded {@code .gz} files need not be decompressed first.
+     */
+    public static Dataset dataset(Path labelPath, Path imagePath, Path cache, double divisor, int classes)
+            throws IOException {
+        return dataset(labelPath, imagePath, cache, divisor, classes, null);
+    }
+
+    /**
+     * Like {@link #dataset(Path, Path, Path, double, int)}, counting the bytes read from the IDX files, if any, in
+     * {@code metrics}, which may be {@code null}.
+     */
+    public static Dataset dataset(Path labelPath, Path imagePath, Path cache, double divisor, int classes,
+            TrainingMetrics metrics) throws IOException {
+        if (Files.exists(cache) &&
+                Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(labelPath)) > 0 &&
+                Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(imagePath)) > 0) {
+            return new Dataset(cache);
+        }
+        try (IdxSource source = new IdxSource(labelPath, imagePath, divisor, classes, metrics)) {
+            if (source.size() == 0) {
+                throw new IllegalArgumentException("No samples in " + imagePath);
+            }
+            int imageSize = source.getImageSize();
+            double[] inputs = new double[CHUNK * imageSize];
+            double[] targets = new double[CHUNK * classes];
+            double[] input = new double[imageSize];
+            double[] target = new double[classes];
+            try (Dataset.Writer writer = Dataset.writer(cache, imageSize, classes, Precision.FLOAT)) {
+                int count;
+                while ((count = source.read(inputs, targets, CHUNK)) > 0) {
+                    for (int s = 0; s < count; s++) {
+                        System.arraycopy(inputs, s * imageSize, input, 0, imageSize);
+                        System.arraycopy(targets, s * classes, target, 0, classes);
+                        writer.add(input, target);
+                    }
+                }
+                writer.commit();
+            }
+        }
+        return new Dataset(cache);
     }
 
     private MNISTSamples() {
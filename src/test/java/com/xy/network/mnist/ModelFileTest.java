@@ -0,0 +1,188 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ModelFileTest {
+    private static final Activation[] ACTIVATION = { Activation.FAST_SIGMOID, Activation.SIGMOID };
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("model-file");
+        file = directory.resolve("model.network");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void roundTripRestoresWeightsAndOptimizerState() throws IOException {
+        for (Precision precision : Precision.values()) {
+            for (boolean checksum : new boolean[] { true, false }) {
+                String message = precision + (checksum ? " with" : " without") + " checksums";
+                NeuralNetwork network = network(precision);
+                network.setOptimizer(Optimizer.adam());
+                train(network, new Random(2), 5);
+                network.write(file, checksum);
+
+                NeuralNetwork loaded = new NeuralNetwork(file);
+                LearnBatchTest.assertSameWeights(network, loaded, message);
+                assertEquals(network.getStep(), loaded.getStep(), message);
+                assertEquals(Optimizer.adam().id(), loaded.getOptimizer().id(), message);
+                for (int i = 0; i < ACTIVATION.length; i++) {
+                    assertEquals(precision, loaded.layers()[i].precision(), message);
+                    assertEquals(ACTIVATION[i], loaded.layers()[i].activation, message);
+                }
+                train(network, new Random(3), 5);
+                train(loaded, new Random(3), 5);
+                LearnBatchTest.assertSameWeights(network, loaded, message + ", resumed");
+            }
+        }
+    }
+
+    @Test
+    void mappedModelDecidesLikeTheNetwork() throws IOException {
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork network = network(precision);
+            network.write(file);
+            InferenceModel mapped = new InferenceModel(ModelFile.map(file, true));
+            Random random = new Random(4);
+            for (int s = 0; s < 10; s++) {
+                double[] input = input(random, network.getInputSize());
+                assertArrayEquals(network.decide(input), mapped.decide(input), precision.toString());
+            }
+        }
+    }
+
+    @Test
+    void readsVersion1Files() throws IOException {
+        Random random = new Random(5);
+        int[] dimension = { 6, 4, 3 };
+        double[][] weight = new double[dimension.length - 1][];
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(weight.length);
+            for (int i = 0; i < weight.length; i++) {
+                out.writeInt(dimension[i]);
+                out.writeInt(dimension[i + 1]);
+                weight[i] = new double[dimension[i] * dimension[i + 1]];
+                for (int k = 0; k < weight[i].length; k++) {
+                    weight[i][k] = random.nextGaussian();
+                    out.writeDouble(weight[i][k]);
+                }
+            }
+        }
+        NeuralNetwork loaded = new NeuralNetwork(file);
+        assertNull(loaded.getOptimizer());
+        assertEquals(0, loaded.getStep());
+        for (int i = 0; i < weight.length; i++) {
+            Layer layer = loaded.layers()[i];
+            assertEquals(Precision.DOUBLE, layer.precision());
+            assertEquals(Activation.SIGMOID, layer.activation);
+            assertEquals(dimension[i], layer.rows);
+            assertEquals(dimension[i + 1], layer.cols);
+            for (int k = 0; k < weight[i].length; k++) {
+                assertEquals(weight[i][k], layer.get(k), "layer " + i + "[" + k + "]");
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> ModelFile.map(file, false));
+    }
+
+    @Test
+    void rejectsCorruptedWeights() throws IOException {
+        NeuralNetwork network = network(Precision.DOUBLE);
+        network.write(file);
+        flip(blockOffset(1) + 5);
+        assertThrows(IllegalArgumentException.class, () -> new NeuralNetwork(file));
+        assertThrows(IllegalArgumentException.class, () -> ModelFile.map(file, true));
+        ModelFile.map(file, false);
+
+        network.write(file, false);
+        flip(blockOffset(1) + 5);
+        new NeuralNetwork(file);
+    }
+
+    @Test
+    void rejectsCorruptedOptimizerState() throws IOException {
+        NeuralNetwork network = network(Precision.FLOAT);
+        network.setOptimizer(Optimizer.momentum(0.9));
+        train(network, new Random(6), 3);
+        network.write(file);
+        flip(bytes().getLong(32) + ModelFile.HEADER_SIZE + 3);
+        assertThrows(IllegalArgumentException.class, () -> new NeuralNetwork(file));
+    }
+
+    @Test
+    void rejectsCorruptedHeaders() throws IOException {
+        network(Precision.DOUBLE).write(file);
+        flip(4);
+        assertThrows(IllegalArgumentException.class, () -> new NeuralNetwork(file));
+
+        network(Precision.DOUBLE).write(file);
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            out.write(0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new NeuralNetwork(file));
+    }
+
+    private static NeuralNetwork network(Precision precision) {
+        NeuralNetwork network = new NeuralNetwork(precision, ACTIVATION, 20, 12, 5);
+        network.randomize(new Random(1)::nextGaussian);
+        return network;
+    }
+
+    private static void train(NeuralNetwork network, Random random, int samples) {
+        for (int s = 0; s < samples; s++) {
+            double[] target = new double[network.getOutputSize()];
+            target[random.nextInt(target.length)] = 1;
+            network.learn(input(random, network.getInputSize()), target, 0.1, 2, 1e-9);
+        }
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+    private ByteBuffer bytes() throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the offset of the weight block of layer {@code i}, read from the layer table
+     */
+    private long blockOffset(int i) throws IOException {
+        ByteBuffer bytes = bytes();
+        return bytes.getLong((int) bytes.getLong(16) + i * ModelFile.ENTRY_SIZE + 16);
+    }
+
+    private void flip(long position) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) position] ^= 1;
+        Files.write(file, bytes);
+    }
+
+}
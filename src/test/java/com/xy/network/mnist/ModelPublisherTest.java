@@ -0,0 +1,124 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class ModelPublisherTest {
+    private static final int    INPUTS  = 10;
+    private static final int    OUTPUTS = 8;
+    private static final int    BATCH   = 32;
+    private static final int    READERS = 4;
+    private static final double UNIT    = 1e-3;
+
+    @Test
+    void publishesEverySampleInterval() {
+        NeuralNetwork network = network(1);
+        ModelPublisher publisher = new ModelPublisher(network, 3, 0, TimeUnit.SECONDS);
+        network.setListener(publisher);
+        assertEquals(0, publisher.getVersion());
+        assertEquals(1, version(publisher.decide(ones())));
+
+        for (int s = 1; s <= 7; s++) {
+            weights(network, s + 1);
+            publisher.sample();
+        }
+        assertEquals(2, publisher.getVersion());
+        assertEquals(6, publisher.getSamples());
+        assertEquals(7, version(publisher.decide(ones())));
+
+        publisher.batch(5, 5);
+        assertEquals(3, publisher.getVersion());
+        assertEquals(12, publisher.getSamples());
+        assertEquals(2, publisher.getAllocations());
+    }
+
+    @Test
+    void readersNeverSeeTornOrRecycledSnapshots() throws InterruptedException {
+        NeuralNetwork network = network(0);
+        ModelPublisher publisher = new ModelPublisher(network, 0, 0, TimeUnit.SECONDS);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong batches = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                double[] in = new double[BATCH * INPUTS];
+                double[] out = new double[BATCH * OUTPUTS];
+                Arrays.fill(in, 1);
+                while (!Thread.currentThread().isInterrupted() && failure.get() == null) {
+                    publisher.decideBatch(in, out, BATCH);
+                    for (int k = 1; k < out.length; k++) {
+                        if (out[k] != out[0]) {
+                            failure.compareAndSet(null, "outputs from two snapshots: " + out[0] + ", " + out[k]);
+                        }
+                    }
+                    double version = version(out[0]);
+                    if (Math.abs(version - Math.rint(version)) > 0.01) {
+                        failure.compareAndSet(null, "weights from two updates: " + version);
+                    }
+                    batches.incrementAndGet();
+                }
+            }, "reader-" + r);
+            reader.start();
+            readers.add(reader);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (int v = 1; (v < 20000 || batches.get() < 1000) && System.nanoTime() < deadline; v++) {
+            weights(network, v % 500);
+            publisher.publish();
+        }
+        for (Thread reader : readers) {
+            reader.interrupt();
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertTrue(batches.get() > 0);
+    }
+
+    /**
+     * @return a single-layer network whose weights all encode {@code version}
+     */
+    private static NeuralNetwork network(int version) {
+        NeuralNetwork network = new NeuralNetwork(INPUTS, OUTPUTS);
+        weights(network, version);
+        return network;
+    }
+
+    /**
+     * Sets every weight to {@code version * UNIT}.
+     */
+    private static void weights(NeuralNetwork network, int version) {
+        Layer layer = network.layers()[0];
+        for (int k = 0; k < layer.size(); k++) {
+            layer.set(k, version * UNIT);
+        }
+    }
+
+    private static double[] ones() {
+        double[] input = new double[INPUTS];
+        Arrays.fill(input, 1);
+        return input;
+    }
+
+    private static long version(double[] output) {
+        return Math.round(version(output[0]));
+    }
+
+    /**
+     * @return the weight version that produces {@code output} on an input of ones, a fraction if the weights summed
+     * were from different versions
+     */
+    private static double version(double output) {
+        return Math.log(output / (1 - output)) / (INPUTS * UNIT);
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+    private static final double   RATE      = 0.1;
+    private static final double[] GRADIENT1 = { 0.5, -2 };
+    private static final double[] GRADIENT2 = { 1, 0.25 };
+    private static final double   DELTA     = 1e-12;
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("optimizer");
+        file = directory.resolve("model.network");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void sgdScalesTheGradient() {
+        double[][] step = steps(Optimizer.sgd());
+        assertArrayEquals(new double[] { 0.05, -0.2 }, step[0], DELTA);
+        assertArrayEquals(new double[] { 0.1, 0.025 }, step[1], DELTA);
+    }
+
+    @Test
+    void momentumAccumulatesTheVelocity() {
+        double[][] step = steps(Optimizer.momentum(0.9));
+        assertArrayEquals(new double[] { 0.05, -0.2 }, step[0], DELTA);
+        assertArrayEquals(new double[] { 0.145, -0.155 }, step[1], DELTA);
+    }
+
+    @Test
+    void nesterovLooksAhead() {
+        double[][] step = steps(Optimizer.nesterov(0.9));
+        assertArrayEquals(new double[] { 0.095, -0.38 }, step[0], DELTA);
+        assertArrayEquals(new double[] { 0.2305, -0.1145 }, step[1], DELTA);
+    }
+
+    @Test
+    void adamMatchesTheBiasCorrectedUpdate() {
+        double[][] step = steps(Optimizer.adam());
+        assertArrayEquals(new double[] { 0.1, -0.1 }, step[0], 1e-8);
+        double[] m = new double[2];
+        double[] v = new double[2];
+        double[][] gradient = { GRADIENT1, GRADIENT2 };
+        for (int t = 1; t <= 2; t++) {
+            for (int w = 0; w < 2; w++) {
+                double g = gradient[t - 1][w];
+                m[w] = 0.9 * m[w] + 0.1 * g;
+                v[w] = 0.999 * v[w] + 0.001 * g * g;
+                double mean = m[w] / (1 - Math.pow(0.9, t));
+                double square = v[w] / (1 - Math.pow(0.999, t));
+                assertEquals(RATE * mean / (Math.sqrt(square) + 1e-8), step[t - 1][w], DELTA, "t " + t + "[" + w + "]");
+            }
+        }
+    }
+
+    @Test
+    void stepsOnlyTouchTheirRange() {
+        double[][] state = { { 1, 2, 3, 4, 5 } };
+        double[] gradient = { 7, 0.5, -2, 7 };
+        Optimizer.momentum(0.5).step(state, gradient, 1, 2, 2, RATE, 1);
+        assertArrayEquals(new double[] { 7, 0.1 * 2, 0.1 * 0, 7 }, gradient, DELTA);
+        assertArrayEquals(new double[] { 1, 2, 2, 0, 5 }, state[0], DELTA);
+    }
+
+    @Test
+    void rejectsIllegalParameters() {
+        assertThrows(IllegalArgumentException.class, () -> Optimizer.momentum(1));
+        assertThrows(IllegalArgumentException.class, () -> Optimizer.nesterov(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> Optimizer.adam(0.9, 0.999, 0));
+        assertThrows(IllegalArgumentException.class, () -> Optimizer.of(4, new double[0]));
+    }
+
+    @Test
+    void resumingMatchesAnUninterruptedRun() throws IOException {
+        Optimizer[] optimizers = { Optimizer.sgd(), Optimizer.momentum(0.9), Optimizer.nesterov(0.8),
+                Optimizer.adam() };
+        LearningRateSchedule[] schedules = { null, LearningRateSchedule.exponential(0.95),
+                LearningRateSchedule.step(3, 0.5) };
+        for (Optimizer optimizer : optimizers) {
+            for (Precision precision : Precision.values()) {
+                for (LearningRateSchedule schedule : schedules) {
+                    String message = optimizer + ", " + precision + (schedule == null ? "" : ", scheduled");
+                    NeuralNetwork network = new NeuralNetwork(precision, 8, 6, 3);
+                    network.randomize(new Random(1)::nextGaussian);
+                    network.setOptimizer(optimizer);
+                    network.setSchedule(schedule);
+                    train(network, new Random(2));
+                    network.write(file);
+
+                    ModelFile.Contents contents = ModelFile.readContents(file);
+                    assertEquals(optimizer.id(), contents.optimizer.id(), message);
+                    assertArrayEquals(optimizer.parameters(), contents.optimizer.parameters(), message);
+                    assertEquals(network.getStep(), contents.step, message);
+                    double[][][] state = network.optimizerState();
+                    for (int i = 0; i < state.length; i++) {
+                        for (int k = 0; k < state[i].length; k++) {
+                            assertArrayEquals(state[i][k], contents.state[i][k], message + ", state " + i + "/" + k);
+                        }
+                    }
+
+                    NeuralNetwork loaded = new NeuralNetwork(file);
+                    loaded.setSchedule(schedule);
+                    assertEquals(network.getStep(), loaded.getStep(), message);
+                    train(network, new Random(3));
+                    train(loaded, new Random(3));
+                    LearnBatchTest.assertSameWeights(network, loaded, message);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the updates of two steps of {@code optimizer}, on {@link #GRADIENT1} then {@link #GRADIENT2}
+     */
+    private static double[][] steps(Optimizer optimizer) {
+        double[][] state = new double[optimizer.slots()][2];
+        double[] first = GRADIENT1.clone();
+        double[] second = GRADIENT2.clone();
+        optimizer.step(state, first, 0, 0, 2, RATE, 1);
+        optimizer.step(state, second, 0, 0, 2, RATE, 2);
+        return new double[][] { first, second };
+    }
+
+    /**
+     * Learns a few samples one at a time, then a batch, so that both update paths go through the optimizer.
+     */
+    private static void train(NeuralNetwork network, Random random) {
+        int inputs = network.getInputSize();
+        int outputs = network.getOutputSize();
+        for (int s = 0; s < 4; s++) {
+            double[] target = new double[outputs];
+            target[random.nextInt(outputs)] = 1;
+            network.learn(input(random, inputs), target, 0.5, 2, 1e-9);
+        }
+        int count = 5;
+        double[] inputBatch = new double[count * inputs];
+        double[] targetBatch = new double[count * outputs];
+        for (int s = 0; s < count; s++) {
+            System.arraycopy(input(random, inputs), 0, inputBatch, s * inputs, inputs);
+            targetBatch[s * outputs + random.nextInt(outputs)] = 1;
+        }
+        network.learnBatch(inputBatch, targetBatch, count, 0.5, 1e-9);
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+}
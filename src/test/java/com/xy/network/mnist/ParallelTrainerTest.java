@@ -0,0 +1,99 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+class ParallelTrainerTest {
+    private static final int BATCHES = 8;
+    private static final int BATCH   = 37;
+
+    @Test
+    void synchronousIsReproducibleAcrossThreadCounts() {
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork expected = train(precision, 1, 4);
+            for (int threads : new int[] { 1, 2, 4, 7 }) {
+                LearnBatchTest.assertSameWeights(expected, train(precision, threads, 4),
+                        precision + " on " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    void synchronousIsCloseToSerialBatches() {
+        NeuralNetwork serial = network(Precision.DOUBLE);
+        Random random = new Random(5);
+        for (int b = 0; b < BATCHES; b++) {
+            double[][][] batch = batch(random);
+            serial.learnBatch(batch[0], batch[1], 0.5, 1e-9);
+        }
+        for (int parallelism = 1; parallelism <= 5; parallelism++) {
+            NeuralNetwork parallel = train(Precision.DOUBLE, parallelism, parallelism);
+            for (int i = 0; i < serial.layers().length; i++) {
+                for (int k = 0; k < serial.layers()[i].size(); k++) {
+                    assertEquals(serial.layers()[i].get(k), parallel.layers()[i].get(k), 1e-12,
+                            "parallelism " + parallelism);
+                }
+            }
+        }
+    }
+
+    @Test
+    void modesOnlyCountBatchesThatLearned() {
+        for (ParallelTrainer.Mode mode : ParallelTrainer.Mode.values()) {
+            NeuralNetwork network = network(Precision.DOUBLE);
+            network.setSchedule(LearningRateSchedule.exponential(0.5));
+            NeuralNetwork serial = network.convert(Precision.DOUBLE);
+            serial.setSchedule(LearningRateSchedule.exponential(0.5));
+            Random random = new Random(7);
+            try (ParallelTrainer trainer = new ParallelTrainer(network, 2, mode)) {
+                for (int b = 0; b < BATCHES; b++) {
+                    double[][][] batch = batch(random);
+                    double epsilon = b % 2 == 0 ? 1e-9 : 10;
+                    assertEquals(serial.learnBatch(batch[0], batch[1], 0.5, epsilon) > 0,
+                            trainer.learnBatch(batch[0], batch[1], 0.5, epsilon) > 0, mode + " batch " + b);
+                    assertEquals(serial.getStep(), network.getStep(), mode + " batch " + b);
+                }
+            }
+            assertEquals(BATCHES / 2, network.getStep(), mode.toString());
+        }
+    }
+
+    private static NeuralNetwork train(Precision precision, int threads, int parallelism) {
+        NeuralNetwork network = network(precision);
+        Random random = new Random(5);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ParallelTrainer trainer = new ParallelTrainer(network, executor, parallelism,
+                ParallelTrainer.Mode.SYNCHRONOUS)) {
+            for (int b = 0; b < BATCHES; b++) {
+                double[][][] batch = batch(random);
+                trainer.learnBatch(batch[0], batch[1], 0.5, 1e-9);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return network;
+    }
+
+    private static NeuralNetwork network(Precision precision) {
+        NeuralNetwork network = new NeuralNetwork(precision, 50, 40, 30, 5);
+        network.randomize(new Random(3)::nextGaussian);
+        return network;
+    }
+
+    private static double[][][] batch(Random random) {
+        double[][] inputs = new double[BATCH][50];
+        double[][] targets = new double[BATCH][5];
+        for (int s = 0; s < BATCH; s++) {
+            for (int i = 0; i < 50; i++) {
+                inputs[s][i] = random.nextDouble();
+            }
+            targets[s][random.nextInt(5)] = 1;
+        }
+        return new double[][][] { inputs, targets };
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.xy.network.mnist;
+
+import static java.util.logging.Logger.getLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Trains through a {@link ParameterServer} with 1, 2 and 4 worker JVMs on localhost, then 2 workers per compression,
+ * reporting the samples per second and the accuracy reached. The samples are synthetic: random sparse inputs labeled
+ * by a fixed random linear teacher, generated by each worker from its own seed.
+ * <p>
+ * Started with {@code worker <port> <seconds> <compression> <fraction> <seed>}, runs one worker instead, printing
+ * its sample count.
+ */
+class ParameterServerDemo {
+    private static final int[] DIMENSION  = {196, 100, 10};
+    private static final int   BATCH_SIZE = 32;
+    private static final int   SECONDS    = 10;
+    private static final int   STALENESS  = 4;
+    private static final long  TEACHER    = 42;
+
+    private static final Logger logger = getLogger(ParameterServerDemo.class.getName());
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("worker")) {
+            work(Integer.parseInt(args[1]), Integer.parseInt(args[2]), ParameterServer.Compression.valueOf(args[3]),
+                    Double.parseDouble(args[4]), Long.parseLong(args[5]));
+            return;
+        }
+        for (int workers : new int[] {1, 2, 4}) {
+            run(workers, ParameterServer.Compression.NONE, 1);
+        }
+        run(2, ParameterServer.Compression.FLOAT16, 1);
+        run(2, ParameterServer.Compression.TOP_K, 0.1);
+    }
+
+    private static void run(int workers, ParameterServer.Compression compression, double fraction)
+            throws Exception {
+        NeuralNetwork network = new NeuralNetwork(DIMENSION);
+        network.randomize(new Random(1)::nextDouble);
+        try (ParameterServer server = new ParameterServer(network, 0, STALENESS)) {
+            List<Process> processes = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                processes.add(new ProcessBuilder(
+                        new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"),
+                        ParameterServerDemo.class.getName(), "worker",
+                        String.valueOf(server.getPort()), String.valueOf(SECONDS), compression.name(),
+                        String.valueOf(fraction), String.valueOf(100 + w))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            long samples = 0;
+            for (Process process : processes) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                        StandardCharsets.UTF_8))) {
+                    samples += Long.parseLong(reader.readLine().trim());
+                }
+                process.waitFor(1, TimeUnit.MINUTES);
+            }
+            double accuracy = accuracy(server.snapshot());
+            logger.info(String.format("%d workers, %-7s  %8.0f samples/s  accuracy %5.2f%%  %d pushes, %d rejected",
+                    workers, compression, (double) samples / SECONDS, 100 * accuracy, server.getPushes(),
+                    server.getRejected()));
+        }
+    }
+
+    private static void work(int port, int seconds, ParameterServer.Compression compression, double fraction,
+            long seed) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        try (ParameterClient client = new ParameterClient(address, compression, fraction)) {
+            Samples samples = new Samples(seed);
+            double[] inputs = new double[BATCH_SIZE * DIMENSION[0]];
+            double[] targets = new double[BATCH_SIZE * DIMENSION[DIMENSION.length - 1]];
+            long count = 0;
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            while (System.nanoTime() < end) {
+                samples.next(inputs, targets, BATCH_SIZE);
+                client.learnBatch(inputs, targets, BATCH_SIZE, 1.0, 0.01);
+                count += BATCH_SIZE;
+            }
+            System.out.println(count);
+        }
+    }
+
+    private static double accuracy(InferenceModel model) {
+        Samples samples = new Samples(1);
+        int count = 2_000;
+        double[] inputs = new double[count * model.getInputSize()];
+        double[] targets = new double[count * model.getOutputSize()];
+        double[] outputs = new double[targets.length];
+        samples.next(inputs, targets, count);
+        model.decideBatch(inputs, outputs, count);
+        int correct = 0;
+        for (int s = 0; s < count; s++) {
+            int classes = model.getOutputSize();
+            if (maxIndex(outputs, s * classes, classes) == maxIndex(targets, s * classes, classes)) {
+                correct++;
+            }
+        }
+        return (double) correct / count;
+    }
+
+    private static int maxIndex(double[] vector, int offset, int length) {
+        int index = 0;
+        for (int i = 1; i < length; i++) {
+            if (vector[offset + i] > vector[offset + index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Random sparse inputs in [0, 1), one-hot targets of the largest output of a fixed random linear map.
+     */
+    private static final class Samples {
+        private final Random     random;
+        private final double[][] teacher;
+
+        Samples(long seed) {
+            random = new Random(seed);
+            Random weights = new Random(TEACHER);
+            int classes = DIMENSION[DIMENSION.length - 1];
+            teacher = new double[classes][DIMENSION[0]];
+            for (double[] row : teacher) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = weights.nextGaussian();
+                }
+            }
+        }
+
+        void next(double[] inputs, double[] targets, int count) {
+            int inputSize = DIMENSION[0];
+            int classes = teacher.length;
+            for (int s = 0; s < count; s++) {
+                int label = 0;
+                double best = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < inputSize; i++) {
+                    inputs[s * inputSize + i] = random.nextInt(4) == 0 ? random.nextDouble() : 0;
+                }
+                for (int j = 0; j < classes; j++) {
+                    double sum = 0;
+                    for (int i = 0; i < inputSize; i++) {
+                        sum += teacher[j][i] * inputs[s * inputSize + i];
+                    }
+                    if (sum > best) {
+                        best = sum;
+                        label = j;
+                    }
+                    targets[s * classes + j] = 0;
+                }
+                targets[s * classes + label] = 1;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ParameterServerTest {
+
+    @Test
+    void everyHalfSurvivesARoundTrip() {
+        for (int bits = 0; bits < 1 << 16; bits++) {
+            short half = (short) bits;
+            float value = ParameterServer.fromHalf(half);
+            if (Float.isNaN(value)) {
+                assertTrue(Float.isNaN(ParameterServer.fromHalf(ParameterServer.toHalf(value))),
+                        Integer.toHexString(bits));
+            } else {
+                assertEquals(half, ParameterServer.toHalf(value), Integer.toHexString(bits));
+            }
+        }
+    }
+
+    @Test
+    void halvesRoundToNearestEven() {
+        assertEquals(0x3c00, ParameterServer.toHalf(1));
+        assertEquals(0x7bff, ParameterServer.toHalf(65504));
+        assertEquals(0x7bff, ParameterServer.toHalf(65519));
+        assertEquals(0x7c00, ParameterServer.toHalf(65520));
+        assertEquals((short) 0xfc00, ParameterServer.toHalf(Float.NEGATIVE_INFINITY));
+        assertEquals(0x3c00, ParameterServer.toHalf(1 + 0x1p-11f));
+        assertEquals(0x3c02, ParameterServer.toHalf(1 + 0x3p-11f));
+        assertEquals(0x0001, ParameterServer.toHalf(0x1p-24f));
+        assertEquals(0x0000, ParameterServer.toHalf(0x1p-25f));
+        assertEquals(0x0002, ParameterServer.toHalf(0x3p-25f));
+        assertEquals((short) 0x8000, ParameterServer.toHalf(-0f));
+    }
+
+    @Test
+    void halvesAreTheNearestValue() {
+        Random random = new Random(6);
+        for (int n = 0; n < 100_000; n++) {
+            float value = (float) (random.nextGaussian() * Math.pow(2, random.nextInt(40) - 26));
+            short half = ParameterServer.toHalf(value);
+            float error = Math.abs(ParameterServer.fromHalf(half) - value);
+            for (int neighbour : new int[] { half - 1, half + 1 }) {
+                float other = ParameterServer.fromHalf((short) neighbour);
+                if (Math.signum(other) == Math.signum(ParameterServer.fromHalf(half))) {
+                    assertTrue(error <= Math.abs(other - value), value + " -> " + Integer.toHexString(half));
+                }
+            }
+        }
+    }
+
+    @Test
+    void compressionLeavesTheRemainderInTheDelta() throws IOException {
+        Random random = new Random(7);
+        for (ParameterServer.Compression compression : ParameterServer.Compression.values()) {
+            double[] original = new double[1000];
+            for (int k = 0; k < original.length; k++) {
+                original[k] = random.nextGaussian() * 1e-3;
+            }
+            double[] delta = original.clone();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                compression.write(delta, 0.1, new double[delta.length], out);
+            }
+            double[] received = new double[delta.length];
+            compression.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), received);
+            int sent = 0;
+            for (int k = 0; k < original.length; k++) {
+                assertEquals(original[k], received[k] + delta[k], 1e-15, compression + " #" + k);
+                sent += received[k] != 0 ? 1 : 0;
+            }
+            if (compression == ParameterServer.Compression.TOP_K) {
+                assertEquals(100, sent);
+                double smallestSent = Double.MAX_VALUE;
+                double largestKept = 0;
+                for (int k = 0; k < original.length; k++) {
+                    if (received[k] != 0) {
+                        smallestSent = Math.min(smallestSent, Math.abs(original[k]));
+                    } else {
+                        largestKept = Math.max(largestKept, Math.abs(original[k]));
+                    }
+                }
+                assertTrue(smallestSent >= largestKept);
+            } else {
+                assertEquals(original.length, sent);
+            }
+        }
+    }
+
+    @Test
+    void topKSendsTheLargestDeltasOfEveryLayer() throws IOException {
+        Random random = new Random(8);
+        double[][] original = { new double[1000], new double[10], new double[300] };
+        for (int k = 0; k < original[0].length; k++) {
+            original[0][k] = random.nextGaussian();
+        }
+        for (int k = 0; k < original[1].length; k++) {
+            original[1][k] = k;
+        }
+        for (int k = 0; k < original[2].length; k++) {
+            original[2][k] = random.nextGaussian() * 1e-3;
+        }
+        double[] scratch = new double[original[0].length];
+        for (double[] o : original) {
+            double[] delta = o.clone();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                ParameterServer.Compression.TOP_K.write(delta, 0.1, scratch, out);
+            }
+            double[] received = new double[o.length];
+            ParameterServer.Compression.TOP_K.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                    received);
+            double[] magnitude = new double[o.length];
+            for (int k = 0; k < o.length; k++) {
+                magnitude[k] = Math.abs(o[k]);
+            }
+            Arrays.sort(magnitude);
+            double threshold = magnitude[o.length - o.length / 10];
+            for (int k = 0; k < o.length; k++) {
+                assertEquals(Math.abs(o[k]) >= threshold, received[k] != 0, o.length + " deltas, #" + k);
+            }
+        }
+    }
+
+    @Test
+    void failedConnectionsLeaveTheServerRunning() throws Exception {
+        NeuralNetwork network = new NeuralNetwork(6, 4, 2);
+        network.randomize(new Random(9)::nextGaussian);
+        ParameterServer server = new ParameterServer(network, 0, 1);
+        try {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+            try (Socket socket = new Socket(address.getAddress(), address.getPort());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                out.writeInt(0);
+                out.writeInt(0);
+                out.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            }
+            for (int n = 0; n < 500 && server.getFailures() == 0; n++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, server.getFailures());
+
+            try (ParameterClient client = new ParameterClient(address, ParameterServer.Compression.NONE, 1)) {
+                double[] inputs = new double[6];
+                double[] targets = { 1, 0 };
+                Arrays.fill(inputs, 0.5);
+                assertEquals(1, client.learnBatch(inputs, targets, 1, 0.5, 1e-9));
+            }
+            assertEquals(1, server.getPushes());
+        } finally {
+            assertThrows(IOException.class, server::close);
+        }
+    }
+
+}
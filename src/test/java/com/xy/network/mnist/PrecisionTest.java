@@ -0,0 +1,87 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PrecisionTest {
+    private static final int    INPUTS  = 24;
+    private static final int    CLASSES = 4;
+    private static final double DELTA   = 1e-5;
+
+    @Test
+    void floatCopyDecidesLikeTheTrainedNetwork() {
+        NeuralNetwork network = new NeuralNetwork(INPUTS, 16, CLASSES);
+        Random random = new Random(1);
+        network.randomize(() -> random.nextGaussian() * 0.3);
+        for (int s = 0; s < 3000; s++) {
+            double[] input = input(random);
+            network.learn(input, target(input), 0.5, 1, 1e-9);
+        }
+        NeuralNetwork copy = network.convert(Precision.FLOAT);
+        assertEquals(Precision.FLOAT, copy.getPrecision());
+
+        int correct = 0;
+        for (int s = 0; s < 500; s++) {
+            double[] input = input(random);
+            double[] expected = network.decide(input);
+            double[] actual = copy.decide(input);
+            assertArrayEquals(expected, actual, DELTA, "sample " + s);
+            assertEquals(argmax(expected), argmax(actual), "sample " + s);
+            correct += argmax(expected) == argmax(target(input)) ? 1 : 0;
+        }
+        assertTrue(correct > 400, correct + " correct");
+    }
+
+    @Test
+    void conversionRoundsTheWeights() {
+        NeuralNetwork network = new NeuralNetwork(INPUTS, 16, CLASSES);
+        network.randomize(new Random(2)::nextGaussian);
+        NeuralNetwork copy = network.convert(Precision.FLOAT);
+        NeuralNetwork back = copy.convert(Precision.DOUBLE);
+        assertEquals(Precision.DOUBLE, back.getPrecision());
+        for (int i = 0; i < network.layers().length; i++) {
+            Layer layer = network.layers()[i];
+            for (int k = 0; k < layer.size(); k++) {
+                double rounded = (float) layer.get(k);
+                assertEquals(rounded, copy.layers()[i].get(k), "layer " + i + "[" + k + "]");
+                assertEquals(rounded, back.layers()[i].get(k), "layer " + i + "[" + k + "]");
+            }
+        }
+    }
+
+    private static double[] input(Random random) {
+        double[] input = new double[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+    /**
+     * @return the one-hot class of {@code input}, the group of inputs with the largest sum
+     */
+    private static double[] target(double[] input) {
+        double[] sum = new double[CLASSES];
+        for (int i = 0; i < INPUTS; i++) {
+            sum[i % CLASSES] += input[i];
+        }
+        double[] target = new double[CLASSES];
+        target[argmax(sum)] = 1;
+        return target;
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int k = 1; k < values.length; k++) {
+            if (values[k] > values[best]) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.xy.network.mnist;
+
+import static java.util.logging.Logger.getLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Trains a network, then prunes copies of it to several sparsities, fine-tunes them with the pruning mask and reports,
+ * per sparsity, the accuracy lost, the size of the sparse model file and the inference time against the dense model.
+ * The samples are synthetic, MNIST-shaped: random sparse inputs labeled by a fixed random linear teacher.
+ */
+class PruningDemo {
+    private static final int[]    DIMENSION   = {784, 300, 10};
+    private static final int      BATCH_SIZE  = 32;
+    private static final int      TRAIN       = 1_500;
+    private static final int      FINE_TUNE   = 300;
+    private static final int      TEST        = 2_000;
+    private static final double   RATE        = 1;
+    private static final double[] SPARSITY    = {0.5, 0.8, 0.9, 0.95};
+    private static final int      REPETITIONS = 20;
+
+    private static final Logger logger = getLogger(PruningDemo.class.getName());
+
+    public static void main(String[] args) throws Exception {
+        Path dense = Paths.get("target", "pruning.network");
+        Path sparse = Paths.get("target", "pruning-sparse.network");
+        double[] testInputs = new double[TEST * DIMENSION[0]];
+        double[] testTargets = new double[TEST * DIMENSION[DIMENSION.length - 1]];
+        new Samples(1).next(testInputs, testTargets, TEST);
+
+        NeuralNetwork network = new NeuralNetwork(Precision.DOUBLE,
+                new Activation[] {Activation.TANH, Activation.SIGMOID}, DIMENSION);
+        network.randomize(new Random(1)::nextDouble);
+        train(network, new Samples(2), TRAIN);
+        network.write(dense);
+        double baseline = accuracy(network.snapshot(), testInputs, testTargets);
+        long denseNanos = time(network.snapshot(), testInputs);
+        logger.info(String.format("dense: accuracy %5.2f%%, %d bytes, %.1f us/sample", 100 * baseline,
+                Files.size(dense), denseNanos / 1e3 / TEST));
+
+        for (double sparsity : SPARSITY) {
+            NeuralNetwork pruned = new NeuralNetwork(dense);
+            pruned.prune(sparsity);
+            double before = accuracy(pruned.snapshot(), testInputs, testTargets);
+            train(pruned, new Samples(3), FINE_TUNE);
+            pruned.writeSparse(sparse);
+            InferenceModel model = InferenceModel.map(sparse);
+            double after = accuracy(model, testInputs, testTargets);
+            long sparseNanos = time(model, testInputs);
+            logger.info(String.format("%2.0f%% sparse: accuracy %5.2f%% pruned, %5.2f%% fine-tuned (%+.2f), " +
+                            "%d bytes (%.1fx smaller), %.1f us/sample (%.1fx faster)", 100 * pruned.getSparsity(),
+                    100 * before, 100 * after, 100 * (after - baseline), Files.size(sparse),
+                    (double) Files.size(dense) / Files.size(sparse), sparseNanos / 1e3 / TEST,
+                    (double) denseNanos / sparseNanos));
+        }
+    }
+
+    private static void train(NeuralNetwork network, Samples samples, int batches) {
+        double[] inputs = new double[BATCH_SIZE * DIMENSION[0]];
+        double[] targets = new double[BATCH_SIZE * DIMENSION[DIMENSION.length - 1]];
+        for (int b = 0; b < batches; b++) {
+            samples.next(inputs, targets, BATCH_SIZE);
+            network.learnBatch(inputs, targets, BATCH_SIZE, RATE, 0.01);
+        }
+    }
+
+    /**
+     * @return the best of {@link #REPETITIONS} runs deciding the test samples one by one
+     */
+    private static long time(InferenceModel model, double[] inputs) {
+        double[] input = new double[model.getInputSize()];
+        double[] output = new double[model.getOutputSize()];
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < REPETITIONS; r++) {
+            long start = System.nanoTime();
+            for (int s = 0; s < TEST; s++) {
+                System.arraycopy(inputs, s * input.length, input, 0, input.length);
+                model.decide(input, output);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static double accuracy(InferenceModel model, double[] inputs, double[] targets) {
+        int classes = model.getOutputSize();
+        double[] outputs = new double[targets.length];
+        model.decideBatch(inputs, outputs, TEST);
+        int correct = 0;
+        for (int s = 0; s < TEST; s++) {
+            if (maxIndex(outputs, s * classes, classes) == maxIndex(targets, s * classes, classes)) {
+                correct++;
+            }
+        }
+        return (double) correct / TEST;
+    }
+
+    private static int maxIndex(double[] vector, int offset, int length) {
+        int index = 0;
+        for (int i = 1; i < length; i++) {
+            if (vector[offset + i] > vector[offset + index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Random inputs in [0, 1), a fifth of them non-zero, and one-hot targets of the largest output of a fixed random
+     * linear map.
+     */
+    private static final class Samples {
+        private final Random     random;
+        private final double[][] teacher;
+
+        Samples(long seed) {
+            random = new Random(seed);
+            Random weights = new Random(42);
+            teacher = new double[DIMENSION[DIMENSION.length - 1]][DIMENSION[0]];
+            for (double[] row : teacher) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = weights.nextGaussian();
+                }
+            }
+        }
+
+        void next(double[] inputs, double[] targets, int count) {
+            int inputSize = DIMENSION[0];
+            int classes = teacher.length;
+            for (int s = 0; s < count; s++) {
+                for (int i = 0; i < inputSize; i++) {
+                    inputs[s * inputSize + i] = random.nextInt(5) == 0 ? random.nextDouble() : 0;
+                }
+                int label = 0;
+                double best = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < classes; j++) {
+                    double sum = 0;
+                    for (int i = 0; i < inputSize; i++) {
+                        sum += teacher[j][i] * inputs[s * inputSize + i];
+                    }
+                    if (sum > best) {
+                        best = sum;
+                        label = j;
+                    }
+                    targets[s * classes + j] = 0;
+                }
+                targets[s * classes + label] = 1;
+            }
+        }
+
+    }
+
+}
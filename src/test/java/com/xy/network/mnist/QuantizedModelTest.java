@@ -0,0 +1,151 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class QuantizedModelTest {
+
+    @Test
+    void quantizedOutputsStayCloseToTheNetwork() {
+        NeuralNetwork network = network();
+        Random random = new Random(2);
+        for (QuantizedModel.Granularity granularity : QuantizedModel.Granularity.values()) {
+            QuantizedModel model = quantize(network, granularity);
+            for (int s = 0; s < 50; s++) {
+                double[] input = input(random, network.getInputSize());
+                double[] expected = network.decide(input);
+                double[] actual = model.decide(input);
+                for (int j = 0; j < expected.length; j++) {
+                    assertEquals(expected[j], actual[j], 0.05, granularity + " output " + j);
+                }
+            }
+        }
+    }
+
+    @Test
+    void roundTripKeepsTheOutputs() throws IOException {
+        NeuralNetwork network = network();
+        Path directory = Files.createTempDirectory("quantized-model");
+        Path file = directory.resolve("model.q8");
+        try {
+            for (QuantizedModel.Granularity granularity : QuantizedModel.Granularity.values()) {
+                QuantizedModel model = quantize(network, granularity);
+                model.write(file);
+                QuantizedModel read = QuantizedModel.read(file);
+                assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+                Random random = new Random(4);
+                for (int s = 0; s < 20; s++) {
+                    double[] input = input(random, network.getInputSize());
+                    assertArrayEquals(model.decide(input), read.decide(input), granularity.toString());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void failedWritesLeaveTheTargetAlone() throws IOException {
+        Path directory = Files.createTempDirectory("quantized-model");
+        Path target = directory.resolve("model.q8");
+        Path child = target.resolve("child");
+        try {
+            Files.createDirectory(target);
+            Files.write(child, new byte[] { 1 });
+            QuantizedModel model = quantize(network(), QuantizedModel.Granularity.PER_LAYER);
+            assertThrows(IOException.class, () -> model.write(target));
+            assertArrayEquals(new byte[] { 1 }, Files.readAllBytes(child));
+            assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ".tmp")));
+        } finally {
+            Files.deleteIfExists(child);
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void rejectsCorruptedFiles() throws IOException {
+        Path directory = Files.createTempDirectory("quantized-model");
+        Path file = directory.resolve("model.q8");
+        try {
+            quantize(network(), QuantizedModel.Granularity.PER_NEURON).write(file);
+            byte[] original = Files.readAllBytes(file);
+            // layer count, then rows, cols, granularity and input scale of the first layer, the scale only as the
+            // NaN and zero bit patterns, as the others are legal scales
+            for (int offset : new int[] { 8, 12, 16, 20, 28 }) {
+                for (int value : new int[] { -1, 0, 3, 1 << 30 }) {
+                    if (offset == 28 && value > 0) {
+                        continue;
+                    }
+                    byte[] corrupted = original.clone();
+                    ByteBuffer.wrap(corrupted).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+                    Files.write(file, corrupted);
+                    assertThrows(IllegalArgumentException.class, () -> QuantizedModel.read(file),
+                            offset + " = " + value);
+                }
+            }
+            Files.write(file, Arrays.copyOf(original, original.length - 1));
+            assertThrows(IllegalArgumentException.class, () -> QuantizedModel.read(file));
+            Files.write(file, Arrays.copyOf(original, original.length + 1));
+            assertThrows(IllegalArgumentException.class, () -> QuantizedModel.read(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void modelsAreCollectedOnceUsed() throws InterruptedException {
+        WeakReference<QuantizedModel> reference = used(network());
+        for (int n = 0; n < 50 && reference.get() != null; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get(), "the thread's scratch buffers keep the model reachable");
+    }
+
+    private static WeakReference<QuantizedModel> used(NeuralNetwork network) {
+        QuantizedModel model = quantize(network, QuantizedModel.Granularity.PER_NEURON);
+        model.decide(new double[model.getInputSize()]);
+        return new WeakReference<>(model);
+    }
+
+    private static QuantizedModel quantize(NeuralNetwork network, QuantizedModel.Granularity granularity) {
+        QuantizedModel.Calibrator calibrator = QuantizedModel.calibrate(network);
+        Random random = new Random(3);
+        for (int s = 0; s < 100; s++) {
+            calibrator.add(input(random, network.getInputSize()));
+        }
+        return calibrator.quantize(granularity);
+    }
+
+    private static NeuralNetwork network() {
+        NeuralNetwork network = new NeuralNetwork(30, 17, 4);
+        Random random = new Random(1);
+        network.randomize(() -> random.nextGaussian() * 0.3);
+        return network;
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble();
+        }
+        return input;
+    }
+
+}
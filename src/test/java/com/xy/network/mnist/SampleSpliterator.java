@@ -8,50 +8,87 @@ import java.nio.file.StandardOpenOption;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
-class SampleSpliterator implements Spliterator<MNISTSample> {
+/**
+ * Samples of an IDX image/label file pair. Both files are memory-mapped, splits hand out index ranges over the same
+ * mappings. Each spliterator passes one {@link SampleView}, moved to the current sample, to its consumers. The bytes
+ * of the samples passed, their pixels and label, are counted in the {@link TrainingMetrics#getBytesRead() bytes read}
+ * of the metrics given, if any.
+ */
+class SampleSpliterator implements Spliterator<SampleView> {
+
+    private static final int MIN_SPLIT_SIZE  = 256;
+    private static final int CHARACTERISTICS = ORDERED | IMMUTABLE | SIZED | SUBSIZED | NONNULL;
+
+    private final ByteBuffer imageBytes;
+    private final ByteBuffer labelBytes;
+    private final SampleView      view;
+    private final TrainingMetrics metrics;
 
-    private static final int IMAGE_BUFFER_SIZE = 256 * 1024;
-    private static final int LABEL_BUFFER_SIZE = 16 * 1024;
-    private static final int CHARACTERISTICS   = ORDERED | IMMUTABLE | SIZED | SUBSIZED;
-
-    private final FileChannel imageChannel;
-    private final FileChannel labelChannel;
-    private final ByteBuffer  imageBytes;
-    private final ByteBuffer  labelBytes;
-
-    private final int size;
     private final int imageSize;
+    private final int end;
 
     private int index;
 
-    SampleSpliterator(Path imagePath, Path labelPath) throws IOException {
-        imageChannel = FileChannel.open(imagePath, StandardOpenOption.READ);
-
-        ImageHeader imageHeader = ImageHeader.read(imageChannel);
-        imageSize = imageHeader.getHeight() * imageHeader.getWidth();
-        size = imageHeader.getSize();
-
-        labelChannel = FileChannel.open(labelPath, StandardOpenOption.READ);
+    /**
+     * @param metrics where to count the bytes read, may be {@code null}
+     */
+    SampleSpliterator(Path imagePath, Path labelPath, TrainingMetrics metrics) throws IOException {
+        int size;
+        try (FileChannel imageChannel = FileChannel.open(imagePath, StandardOpenOption.READ)) {
+            ImageHeader imageHeader = ImageHeader.read(imageChannel);
+            imageSize = imageHeader.getHeight() * imageHeader.getWidth();
+            size = imageHeader.getSize();
+            imageBytes = map(imageChannel, (long) size * imageSize);
+        }
 
-        if (LabelHeader.read(labelChannel).getSize() != size) {
-            throw new IllegalArgumentException("Inconsistent files");
+        try (FileChannel labelChannel = FileChannel.open(labelPath, StandardOpenOption.READ)) {
+            if (LabelHeader.read(labelChannel).getSize() != size) {
+                throw new IllegalArgumentException("Inconsistent files");
+            }
+            labelBytes = map(labelChannel, size);
         }
 
-        imageBytes = ByteBuffer.allocate((IMAGE_BUFFER_SIZE + imageSize - 1) / imageSize * imageSize);
-        imageBytes.flip();
+        end = size;
+        view = new SampleView(imageBytes, labelBytes, imageSize);
+        this.metrics = metrics;
+    }
+
+    private SampleSpliterator(SampleSpliterator parent, int index, int end) {
+        this.imageBytes = parent.imageBytes;
+        this.labelBytes = parent.labelBytes;
+        this.imageSize = parent.imageSize;
+        this.index = index;
+        this.end = end;
+        this.view = new SampleView(imageBytes, labelBytes, imageSize);
+        this.metrics = parent.metrics;
+    }
 
-        labelBytes = ByteBuffer.allocate(LABEL_BUFFER_SIZE);
-        labelBytes.flip();
+    private static ByteBuffer map(FileChannel channel, long length) throws IOException {
+        long position = channel.position();
+        if (position + length > channel.size()) {
+            throw new IllegalArgumentException("Truncated file, expected " + length + " bytes of data");
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File too large, " + length + " bytes of data");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
     }
 
     @Override
-    public Spliterator<MNISTSample> trySplit() {
-        return null; // reject split
+    public Spliterator<SampleView> trySplit() {
+        int remaining = end - index;
+        if (remaining < 2 * MIN_SPLIT_SIZE) {
+            return null;
+        }
+        int middle = index + remaining / 2;
+        SampleSpliterator prefix = new SampleSpliterator(this, index, middle);
+        index = middle;
+        return prefix;
     }
 
     @Override
     public long estimateSize() {
-        return (size - index);
+        return (end - index);
     }
 
     @Override
@@ -60,48 +97,27 @@ class SampleSpliterator implements Spliterator<MNISTSample> {
     }
 
     @Override
-    public boolean tryAdvance(Consumer<? super MNISTSample> action) {
-        if (index >= size) {
+    public boolean tryAdvance(Consumer<? super SampleView> action) {
+        if (index >= end) {
             return false;
         }
-
-        if (!labelBytes.hasRemaining()) {
-            readFileChannel(labelChannel, labelBytes);
+        action.accept(view.moveTo(index++));
+        if (metrics != null) {
+            metrics.bytesRead(imageSize + 1);
         }
-
-        if (!imageBytes.hasRemaining()) {
-            readFileChannel(imageChannel, imageBytes);
-        }
-
-        index++;
-        byte label = labelBytes.get();
-        byte[] image = new byte[imageSize];
-        imageBytes.get(image);
-        action.accept(new MNISTSample(label, image));
         return true;
     }
-    
-    void close() {
-        try (FileChannel ch1 = imageChannel; FileChannel ch2 = labelChannel) {
-            //
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
-    }
 
-    private static void readFileChannel(FileChannel fileChannel, ByteBuffer byteBuffer) {
-        byteBuffer.clear();
-        try {
-            while (byteBuffer.hasRemaining()) {
-                if (-1 == fileChannel.read(byteBuffer)) {
-                    fileChannel.close();
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+    @Override
+    public void forEachRemaining(Consumer<? super SampleView> action) {
+        int last = end;
+        for (int i = index; i < last; i++) {
+            action.accept(view.moveTo(i));
+        }
+        if (metrics != null) {
+            metrics.bytesRead((long) (last - index) * (imageSize + 1));
         }
-        byteBuffer.flip();
+        index = last;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.xy.network.mnist;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight over one sample of a mapped IDX image/label file pair. The view is moved from sample to sample by its
+ * {@link SampleSpliterator}, so it must not be kept past the stream element it was received as; use
+ * {@link #toSample()} to keep a sample.
+ */
+public class SampleView {
+    private final ByteBuffer imageBytes;
+    private final ByteBuffer labelBytes;
+    private final int        imageSize;
+
+    private int index;
+
+    SampleView(ByteBuffer imageBytes, ByteBuffer labelBytes, int imageSize) {
+        this.imageBytes = imageBytes.asReadOnlyBuffer();
+        this.labelBytes = labelBytes.asReadOnlyBuffer();
+        this.imageSize = imageSize;
+    }
+
+    SampleView moveTo(int index) {
+        this.index = index;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getLabel() {
+        return labelBytes.get(index);
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * @return a read-only slice over the pixels of this sample
+     */
+    public ByteBuffer getImage() {
+        int offset = index * imageSize;
+        imageBytes.limit(offset + imageSize);
+        imageBytes.position(offset);
+        ByteBuffer image = imageBytes.slice();
+        imageBytes.clear();
+        return image;
+    }
+
+    /**
+     * Writes the pixels divided by {@code divisor} to the first {@link #getImageSize()} elements of {@code input}.
+     */
+    public void readInput(double[] input, double divisor) {
+        for (int i = 0, offset = index * imageSize; i < imageSize; i++) {
+            input[i] = (0xFF & imageBytes.get(offset + i)) / divisor;
+        }
+    }
+
+    /**
+     * Sparse variant of {@link #readInput(double[], double)}: writes the positions and values of the non-zero pixels,
+     * both arrays needing room for {@link #getImageSize()} elements.
+     *
+     * @return the number of non-zero pixels
+     */
+    public int readInput(int[] position, double[] value, double divisor) {
+        int count = 0;
+        for (int i = 0, offset = index * imageSize; i < imageSize; i++) {
+            int pixel = 0xFF & imageBytes.get(offset + i);
+            if (pixel != 0) {
+                position[count] = i;
+                value[count++] = pixel / divisor;
+            }
+        }
+        return count;
+    }
+
+    public MNISTSample toSample() {
+        byte[] image = new byte[imageSize];
+        imageBytes.position(index * imageSize);
+        imageBytes.get(image);
+        imageBytes.clear();
+        return new MNISTSample(getLabel(), image);
+    }
+
+}
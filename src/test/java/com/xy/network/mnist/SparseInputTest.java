@@ -0,0 +1,95 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SparseInputTest {
+    private static final int INPUTS = 120;
+
+    @Test
+    void sparseForwardMatchesDense() {
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork network = network(precision);
+            InferenceModel model = network.snapshot();
+            Random random = new Random(2);
+            for (int s = 0; s < 20; s++) {
+                double[] input = input(random);
+                int[] index = new int[INPUTS];
+                double[] value = new double[INPUTS];
+                int count = compress(input, index, value);
+                double[] sparse = new double[network.getOutputSize()];
+                network.decide(index, value, count, sparse);
+                assertArrayEquals(network.decide(input), sparse, precision.toString());
+                model.decide(index, value, count, sparse);
+                assertArrayEquals(model.decide(input), sparse, precision.toString());
+            }
+        }
+    }
+
+    @Test
+    void sparseLearnMatchesDense() {
+        for (Precision precision : Precision.values()) {
+            for (Optimizer optimizer : new Optimizer[] { null, Optimizer.momentum(0.9) }) {
+                NeuralNetwork dense = network(precision);
+                NeuralNetwork sparse = dense.convert(precision);
+                if (optimizer != null) {
+                    dense.setOptimizer(optimizer);
+                    sparse.setOptimizer(optimizer);
+                }
+                Random random = new Random(4);
+                int[] index = new int[INPUTS];
+                double[] value = new double[INPUTS];
+                for (int s = 0; s < 30; s++) {
+                    double[] input = input(random);
+                    double[] target = new double[dense.getOutputSize()];
+                    target[random.nextInt(target.length)] = 1;
+                    int count = compress(input, index, value);
+                    dense.learn(input, target, 0.2, 2, 1e-9);
+                    sparse.learn(index, value, count, target, 0.2, 2, 1e-9);
+                }
+                LearnBatchTest.assertSameWeights(dense, sparse, precision + " " + optimizer);
+            }
+        }
+    }
+
+    @Test
+    void rejectsUnorderedIndexes() {
+        NeuralNetwork network = network(Precision.DOUBLE);
+        double[] output = new double[network.getOutputSize()];
+        assertThrows(IllegalArgumentException.class,
+                () -> network.decide(new int[] { 3, 1 }, new double[] { 1, 1 }, 2, output));
+        assertThrows(IllegalArgumentException.class,
+                () -> network.decide(new int[] { INPUTS }, new double[] { 1 }, 1, output));
+    }
+
+    private static NeuralNetwork network(Precision precision) {
+        NeuralNetwork network = new NeuralNetwork(precision, INPUTS, 33, 6);
+        network.randomize(new Random(1)::nextGaussian);
+        return network;
+    }
+
+    private static double[] input(Random random) {
+        double[] input = new double[INPUTS];
+        for (int i = 0; i < input.length; i++) {
+            if (random.nextInt(5) == 0) {
+                input[i] = random.nextDouble();
+            }
+        }
+        return input;
+    }
+
+    private static int compress(double[] input, int[] index, double[] value) {
+        int count = 0;
+        for (int i = 0; i < input.length; i++) {
+            if (input[i] != 0) {
+                index[count] = i;
+                value[count++] = input[i];
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SparseLayerTest {
+    private static final int INPUTS = 90;
+    private static final int BATCH  = 7;
+
+    @Test
+    void keepsTheNonZeroWeightsInTheLayerPrecision() {
+        for (Precision precision : Precision.values()) {
+            for (Layer layer : network(precision).layers()) {
+                SparseLayer sparse = SparseLayer.of(layer);
+                assertEquals(precision, sparse.precision());
+                if (precision == Precision.FLOAT) {
+                    assertNull(sparse.doubles);
+                    assertNotNull(sparse.floats);
+                } else {
+                    assertNotNull(sparse.doubles);
+                    assertNull(sparse.floats);
+                }
+                int count = 0;
+                for (int k = 0; k < layer.size(); k++) {
+                    assertEquals(layer.get(k), sparse.get(k), precision + " [" + k + "]");
+                    count += layer.get(k) != 0 ? 1 : 0;
+                }
+                assertEquals(count, sparse.count());
+                Layer dense = sparse.convert(precision);
+                for (int k = 0; k < layer.size(); k++) {
+                    assertEquals(layer.get(k), dense.get(k), precision + " [" + k + "]");
+                }
+            }
+        }
+    }
+
+    @Test
+    void forwardMatchesPrunedDense() {
+        for (Precision precision : Precision.values()) {
+            Random random = new Random(3);
+            for (Layer layer : network(precision).layers()) {
+                SparseLayer sparse = SparseLayer.of(layer);
+                for (int s = 0; s < 10; s++) {
+                    double[] input = input(random, layer.rows);
+                    double[] expected = new double[layer.cols];
+                    double[] actual = new double[layer.cols];
+                    layer.forward(input, expected);
+                    sparse.forward(input, actual);
+                    assertArrayEquals(expected, actual, precision.toString());
+
+                    int[] index = new int[layer.rows];
+                    double[] value = new double[layer.rows];
+                    int count = 0;
+                    for (int i = 0; i < input.length; i++) {
+                        if (input[i] != 0) {
+                            index[count] = i;
+                            value[count++] = input[i];
+                        }
+                    }
+                    Arrays.fill(actual, Double.NaN);
+                    sparse.forwardSparse(index, value, count, actual);
+                    assertArrayEquals(expected, actual, precision.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    void rangesMatchTheWholeOutput() {
+        for (Precision precision : Precision.values()) {
+            Random random = new Random(5);
+            for (Layer layer : network(precision).layers()) {
+                SparseLayer sparse = SparseLayer.of(layer);
+                double[] input = input(random, layer.rows);
+                double[] expected = new double[layer.cols];
+                layer.forward(input, expected);
+                for (int from = 0; from < layer.cols; from += 3) {
+                    for (int to = from + 1; to <= layer.cols; to += 5) {
+                        double[] actual = new double[layer.cols];
+                        sparse.forward(input, actual, from, to);
+                        assertArrayEquals(Arrays.copyOfRange(expected, from, to),
+                                Arrays.copyOfRange(actual, from, to), precision + " [" + from + ", " + to + ")");
+                        for (int j = 0; j < layer.cols; j++) {
+                            if (j < from || j >= to) {
+                                assertEquals(0.0, actual[j], "untouched output " + j);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void forwardBatchMatchesPrunedDense() {
+        for (Precision precision : Precision.values()) {
+            Random random = new Random(7);
+            for (Layer layer : network(precision).layers()) {
+                SparseLayer sparse = SparseLayer.of(layer);
+                double[] input = new double[BATCH * layer.rows];
+                for (int s = 0; s < BATCH; s++) {
+                    System.arraycopy(input(random, layer.rows), 0, input, s * layer.rows, layer.rows);
+                }
+                double[] expected = new double[BATCH * layer.cols];
+                double[] actual = new double[BATCH * layer.cols];
+                Arrays.fill(actual, Double.NaN);
+                layer.forwardBatch(input, expected, BATCH);
+                sparse.forwardBatch(input, actual, BATCH);
+                assertArrayEquals(expected, actual, precision.toString());
+            }
+        }
+    }
+
+    @Test
+    void sparseFilesDecideLikeTheNetwork() throws IOException {
+        Path directory = Files.createTempDirectory("sparse-layer");
+        Path file = directory.resolve("model.network");
+        try {
+            for (Precision precision : Precision.values()) {
+                NeuralNetwork network = network(precision);
+                network.writeSparse(file);
+                InferenceModel snapshot = network.sparseSnapshot();
+                InferenceModel mapped = InferenceModel.map(file);
+                NeuralNetwork loaded = new NeuralNetwork(file);
+                LearnBatchTest.assertSameWeights(network, loaded, precision.toString());
+                assertEquals(precision, loaded.layers()[0].precision());
+                Random random = new Random(9);
+                for (int s = 0; s < 10; s++) {
+                    double[] input = input(random, INPUTS);
+                    double[] expected = network.decide(input);
+                    assertArrayEquals(expected, snapshot.decide(input), precision + " snapshot");
+                    assertArrayEquals(expected, mapped.decide(input), precision + " mapped");
+                    assertArrayEquals(expected, loaded.decide(input), precision + " loaded");
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void rejectsCorruptedLayers() {
+        double[] value = { 1, 2 };
+        assertThrows(IllegalArgumentException.class,
+                () -> new SparseLayer(2, 3, Activation.SIGMOID, new int[] { 0, 2, 2 }, new int[] { 2, 1 }, value));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SparseLayer(2, 3, Activation.SIGMOID, new int[] { 0, 1, 2 }, new int[] { 0, 3 }, value));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SparseLayer(2, 3, Activation.SIGMOID, new int[] { 0, 2, 1 }, new int[] { 0, 1 }, value));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SparseLayer(2, 3, Activation.SIGMOID, new int[] { 0, 1, 3 }, new int[] { 0, 1 }, value));
+    }
+
+    @Test
+    void selectFindsTheRankedValue() {
+        Random random = new Random(11);
+        for (int n = 1; n < 40; n++) {
+            double[] values = new double[n];
+            for (int k = 0; k < n; k++) {
+                values[k] = random.nextInt(10);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for (int rank = 0; rank < n; rank++) {
+                assertEquals(sorted[rank], Selection.select(values.clone(), rank), n + " values, rank " + rank);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> Selection.select(new double[3], 3));
+        assertThrows(IllegalArgumentException.class, () -> Selection.select(new double[3], -1));
+    }
+
+    private static NeuralNetwork network(Precision precision) {
+        NeuralNetwork network = new NeuralNetwork(precision, INPUTS, 40, 8);
+        network.randomize(new Random(1)::nextGaussian);
+        network.prune(0.8);
+        return network;
+    }
+
+    private static double[] input(Random random, int size) {
+        double[] input = new double[size];
+        for (int i = 0; i < input.length; i++) {
+            if (random.nextInt(3) == 0) {
+                input[i] = random.nextDouble();
+            }
+        }
+        return input;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.xy.network.mnist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TrainingMetricsTest {
+    private static final int SAMPLES = 1000;
+    private static final int HEIGHT  = 4;
+    private static final int WIDTH   = 3;
+    private static final int RECORD  = HEIGHT * WIDTH + 1;
+
+    private Path directory;
+    private Path images;
+    private Path labels;
+    private Path rawLabels;
+
+    @BeforeEach
+    void writeFiles() throws IOException {
+        directory = Files.createTempDirectory("training-metrics");
+        images = directory.resolve("images.idx");
+        labels = directory.resolve("labels.idx.gz");
+        rawLabels = directory.resolve("labels.idx");
+        Random random = new Random(1);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(images))) {
+            out.writeInt(0x803);
+            out.writeInt(SAMPLES);
+            out.writeInt(HEIGHT);
+            out.writeInt(WIDTH);
+            byte[] pixels = new byte[SAMPLES * HEIGHT * WIDTH];
+            random.nextBytes(pixels);
+            out.write(pixels);
+        }
+        byte[] label = new byte[SAMPLES];
+        for (int s = 0; s < SAMPLES; s++) {
+            label[s] = (byte) random.nextInt(10);
+        }
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(rawLabels))) {
+            out.writeInt(0x801);
+            out.writeInt(SAMPLES);
+            out.write(label);
+        }
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(labels))) {
+            Files.copy(rawLabels, out);
+        }
+    }
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void idxSourceCountsTheBytesRead() throws IOException {
+        TrainingMetrics metrics = new TrainingMetrics();
+        try (IdxSource source = new IdxSource(labels, images, 255, 10, metrics)) {
+            double[] inputs = new double[64 * HEIGHT * WIDTH];
+            double[] targets = new double[64 * 10];
+            assertEquals(64, source.read(inputs, targets, 64));
+            assertEquals(64 * RECORD, metrics.getBytesRead());
+            while (source.read(inputs, targets, 64) > 0) {
+                //
+            }
+        }
+        assertEquals(SAMPLES * RECORD, metrics.getBytesRead());
+    }
+
+    @Test
+    void datasetCountsTheBytesReadOnlyWhenBuilt() throws IOException {
+        TrainingMetrics metrics = new TrainingMetrics();
+        Path cache = directory.resolve("cache.dataset");
+        MNISTSamples.dataset(labels, images, cache, 255, 10, metrics);
+        assertEquals(SAMPLES * RECORD, metrics.getBytesRead());
+        MNISTSamples.dataset(labels, images, cache, 255, 10, metrics);
+        assertEquals(SAMPLES * RECORD, metrics.getBytesRead());
+    }
+
+    @Test
+    void viewsCountTheBytesRead() throws IOException {
+        for (boolean parallel : new boolean[] { false, true }) {
+            TrainingMetrics metrics = new TrainingMetrics();
+            LongAdder passed = new LongAdder();
+            try (Stream<SampleView> views = MNISTSamples.views(rawLabels, images, metrics)) {
+                (parallel ? views.parallel() : views).forEach(view -> passed.increment());
+            }
+            assertEquals(SAMPLES, passed.sum());
+            assertEquals(SAMPLES * RECORD, metrics.getBytesRead(), parallel ? "parallel" : "sequential");
+        }
+        TrainingMetrics metrics = new TrainingMetrics();
+        try (Stream<SampleView> views = MNISTSamples.views(rawLabels, images, metrics)) {
+            Iterator<SampleView> iterator = views.iterator();
+            for (int s = 0; s < 10; s++) {
+                iterator.next();
+            }
+        }
+        assertEquals(10 * RECORD, metrics.getBytesRead());
+    }
+
+}